@@ -0,0 +1,375 @@
+package edu.up.isgc.cg.raytracer.benchmark;
+
+import edu.up.isgc.cg.raytracer.Ray;
+import edu.up.isgc.cg.raytracer.RayPacket;
+import edu.up.isgc.cg.raytracer.Raytracer;
+import edu.up.isgc.cg.raytracer.Scene;
+import edu.up.isgc.cg.raytracer.Vector3D;
+import edu.up.isgc.cg.raytracer.acceleration.BoundingBox;
+import edu.up.isgc.cg.raytracer.lights.DirectionalLight;
+import edu.up.isgc.cg.raytracer.lights.PointLight;
+import edu.up.isgc.cg.raytracer.objects.Camera;
+import edu.up.isgc.cg.raytracer.objects.Model3D;
+import edu.up.isgc.cg.raytracer.objects.Sphere;
+import edu.up.isgc.cg.raytracer.objects.Triangle;
+import edu.up.isgc.cg.raytracer.tools.OBJReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the intersection and shading kernels, run with the jmh Gradle task from the project directory
+ * so the bundled OBJ files are found. Every invocation goes through a fixed set of seeded inputs and the scores
+ * are given per input, so runs can be compared. The SIMD triangle kernel is measured by adding
+ * {@code -jvmArgsAppend --add-modules=jdk.incubator.vector -jvmArgsAppend -Draytracer.kernel=vector} to the JMH options.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class RaytracerBenchmarks {
+    private static final int RAY_COUNT = 4096;
+    private static final int PIXEL_COUNT = 256;
+    private static final int PACKET_SIZE = 8;
+    private static final long SEED = 20240416L;
+
+    /**
+     * A triangle and a sphere, with rays aimed at their bounds.
+     */
+    @State(Scope.Benchmark)
+    public static class PrimitiveState {
+        Triangle triangle;
+        Ray[] triangleRays;
+        Sphere sphere;
+        Ray[] sphereRays;
+
+        /**
+         * Loads the primitives and creates their rays.
+         */
+        @Setup
+        public void setUp() {
+            Model3D teapot = OBJReader.getModel3D("SmallTeapot.obj", new Vector3D(0.0, 0.0, 0.0), Color.GRAY, 16.0, 0.0, 0.0);
+            triangle = teapot.getMesh().getTriangle(0);
+            triangleRays = createRays(triangle.getBoundingBox(), new Random(SEED));
+            sphere = new Sphere(new Vector3D(0.0, 0.0, 0.0), 1.0, Color.GRAY, 16.0, 0.0, 0.0);
+            sphereRays = createRays(sphere.getBoundingBox(), new Random(SEED));
+        }
+    }
+
+    /**
+     * One of the bundled models, with rays aimed at its bounds.
+     */
+    @State(Scope.Benchmark)
+    public static class ModelState {
+        @Param({"SmallTeapot.obj", "Table.obj", "JafetToyHorse.obj"})
+        public String path;
+
+        Model3D model;
+        Ray[] rays;
+
+        /**
+         * Loads the model and creates its rays.
+         */
+        @Setup
+        public void setUp() {
+            model = OBJReader.getModel3D(path, new Vector3D(0.0, 0.0, 0.0), Color.GRAY, 16.0, 0.0, 0.0);
+            rays = createRays(model.getBoundingBox(), new Random(SEED));
+        }
+    }
+
+    /**
+     * A reduced version of the sample scene, with rays aimed at its bounds, primary rays in blocks of
+     * two rows of four pixels as packets are traced, and random pixels to shade.
+     */
+    @State(Scope.Benchmark)
+    public static class SceneState {
+        Scene scene;
+        Ray[] rays;
+        Ray[] primaryRays;
+        RayPacket packet;
+        double[] pixels;
+
+        /**
+         * Builds the scene and creates its rays.
+         */
+        @Setup
+        public void setUp() {
+            scene = createScene();
+            rays = createRays(sceneBounds(scene), new Random(SEED));
+
+            Camera camera = scene.getCamera();
+            int columns = camera.getResolutionWidth() / 4;
+            int blocks = columns * (camera.getResolutionHeight() / 2);
+            primaryRays = new Ray[RAY_COUNT];
+            for (int i = 0; i < RAY_COUNT; i++) {
+                int block = (i / PACKET_SIZE) % blocks;
+                primaryRays[i] = camera.getPrimaryRay((block % columns) * 4 + i % 4, (block / columns) * 2 + (i / 4) % 2);
+            }
+            packet = new RayPacket();
+
+            Random random = new Random(SEED);
+            pixels = new double[PIXEL_COUNT * 2];
+            for (int i = 0; i < PIXEL_COUNT; i++) {
+                pixels[i * 2] = random.nextDouble() * camera.getResolutionWidth();
+                pixels[i * 2 + 1] = random.nextDouble() * camera.getResolutionHeight();
+            }
+        }
+    }
+
+    /**
+     * Loading of a model whose in-memory caches were emptied, either parsed from its OBJ file
+     * or read from its binary cache file.
+     */
+    @State(Scope.Benchmark)
+    public static class LoadState {
+        @Param({"parsed", "cached"})
+        public String source;
+
+        /**
+         * Selects the source and, for the binary cache, writes the cache file.
+         *
+         * @throws IOException If the model cannot be loaded
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            OBJReader.setBinaryCacheEnabled(source.equals("cached"));
+            OBJReader.clearCache();
+            OBJReader.getMesh("JafetToyHorse.obj");
+        }
+
+        /**
+         * Restores the default of using the binary cache.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            OBJReader.setBinaryCacheEnabled(true);
+        }
+    }
+
+    /**
+     * Intersects a single triangle.
+     *
+     * @param state     The triangle and its rays
+     * @param blackhole The sink of the results
+     */
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void triangleGetIntersection(PrimitiveState state, Blackhole blackhole) {
+        for (Ray ray : state.triangleRays) {
+            blackhole.consume(state.triangle.getIntersection(ray));
+        }
+    }
+
+    /**
+     * Intersects a sphere.
+     *
+     * @param state     The sphere and its rays
+     * @param blackhole The sink of the results
+     */
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void sphereGetIntersection(PrimitiveState state, Blackhole blackhole) {
+        for (Ray ray : state.sphereRays) {
+            blackhole.consume(state.sphere.getIntersection(ray));
+        }
+    }
+
+    /**
+     * Intersects a model through its BVH.
+     *
+     * @param state     The model and its rays
+     * @param blackhole The sink of the results
+     */
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void model3DGetIntersection(ModelState state, Blackhole blackhole) {
+        for (Ray ray : state.rays) {
+            blackhole.consume(state.model.getIntersection(ray));
+        }
+    }
+
+    /**
+     * Finds the closest object of the scene hit by rays crossing it.
+     *
+     * @param state     The scene and its rays
+     * @param blackhole The sink of the results
+     */
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void raytracerRaycast(SceneState state, Blackhole blackhole) {
+        for (Ray ray : state.rays) {
+            blackhole.consume(Raytracer.raycast(ray, state.scene, null, null));
+        }
+    }
+
+    /**
+     * Checks whether any object of the scene blocks rays crossing it.
+     *
+     * @param state     The scene and its rays
+     * @param blackhole The sink of the results
+     */
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void raytracerOccluded(SceneState state, Blackhole blackhole) {
+        for (Ray ray : state.rays) {
+            blackhole.consume(Raytracer.occluded(ray, state.scene, null, Double.POSITIVE_INFINITY));
+        }
+    }
+
+    /**
+     * Casts primary rays one at a time, in the order packets would group them.
+     *
+     * @param state     The scene and its primary rays
+     * @param blackhole The sink of the results
+     */
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void raytracerRaycastPrimary(SceneState state, Blackhole blackhole) {
+        for (Ray ray : state.primaryRays) {
+            blackhole.consume(Raytracer.raycast(ray, state.scene, null, null));
+        }
+    }
+
+    /**
+     * Casts the same primary rays in packets.
+     *
+     * @param state     The scene and its primary rays
+     * @param blackhole The sink of the results
+     */
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public void raytracerRaycastPacket(SceneState state, Blackhole blackhole) {
+        RayPacket packet = state.packet;
+        for (int first = 0; first < RAY_COUNT; first += PACKET_SIZE) {
+            packet.clear();
+            for (int ray = first; ray < first + PACKET_SIZE; ray++) {
+                packet.add(state.primaryRays[ray]);
+            }
+            blackhole.consume(Raytracer.raycast(packet, state.scene, null, null));
+        }
+    }
+
+    /**
+     * Shades pixels of the scene, shadows and reflections included.
+     *
+     * @param state     The scene and its pixels
+     * @param blackhole The sink of the results
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIXEL_COUNT)
+    public void raytracerDecideColor(SceneState state, Blackhole blackhole) {
+        for (int pixel = 0; pixel < PIXEL_COUNT; pixel++) {
+            blackhole.consume(Raytracer.decideColor(state.pixels[pixel * 2], state.pixels[pixel * 2 + 1], state.scene).getRGB());
+        }
+    }
+
+    /**
+     * Gets a model whose mesh is already in memory, placing a new instance of it.
+     *
+     * @param state The model
+     * @return The model
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Model3D objReaderGetModel3D(ModelState state) {
+        return OBJReader.getModel3D(state.path, new Vector3D(0.0, 0.0, 0.0), Color.GRAY, 16.0, 0.0, 0.0);
+    }
+
+    /**
+     * Loads the mesh of the largest bundled model after emptying the in-memory caches.
+     *
+     * @param state The source the mesh is loaded from
+     * @return The number of triangles of the mesh
+     * @throws IOException If the mesh cannot be loaded
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int objReaderGetMesh(LoadState state) throws IOException {
+        OBJReader.clearCache();
+        return OBJReader.getMesh("JafetToyHorse.obj").getTriangleCount();
+    }
+
+    /**
+     * Creates rays starting outside a box and aimed at random points inside it.
+     *
+     * @param box    The box the rays are aimed at
+     * @param random The source of randomness
+     * @return The rays
+     */
+    private static Ray[] createRays(BoundingBox box, Random random) {
+        Vector3D min = box.getMin();
+        Vector3D max = box.getMax();
+        Vector3D center = Vector3D.scalarMultiplication(Vector3D.add(min, max), 0.5);
+        double radius = Vector3D.magnitude(Vector3D.substract(max, min)) + 1.0;
+
+        Ray[] rays = new Ray[RAY_COUNT];
+        for (int i = 0; i < rays.length; i++) {
+            Vector3D offset = Vector3D.normalize(new Vector3D(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()));
+            Vector3D origin = Vector3D.add(center, Vector3D.scalarMultiplication(offset, radius));
+            Vector3D target = new Vector3D(
+                    min.getX() + random.nextDouble() * (max.getX() - min.getX()),
+                    min.getY() + random.nextDouble() * (max.getY() - min.getY()),
+                    min.getZ() + random.nextDouble() * (max.getZ() - min.getZ()));
+            rays[i] = new Ray(origin, Vector3D.substract(target, origin));
+        }
+        return rays;
+    }
+
+    /**
+     * Gets the bounds of every bounded object of a scene.
+     *
+     * @param scene The scene
+     * @return The bounds of the scene
+     */
+    private static BoundingBox sceneBounds(Scene scene) {
+        BoundingBox bounds = new BoundingBox();
+        scene.getObjects().forEach(object -> {
+            BoundingBox box = object.getBoundingBox();
+            if (box != null) {
+                bounds.expand(box);
+            }
+        });
+        return bounds;
+    }
+
+    /**
+     * Creates a reduced version of the sample scene of {@link Raytracer}.
+     *
+     * @return The scene
+     */
+    private static Scene createScene() {
+        Scene scene = new Scene();
+        scene.setCamera(new Camera(new Vector3D(0, 1, -6), 100, 60, 640, 338, 0.6, 50.0));
+
+        scene.addLight(new DirectionalLight(new Vector3D(0.0, -1.0, 0.0), Color.WHITE, 0.5));
+        scene.addLight(new PointLight(new Vector3D(4.0, 7.0, 4.0), Color.WHITE, 2.5));
+        scene.addLight(new PointLight(new Vector3D(-4.0, 7.0, 4.0), Color.WHITE, 2.5));
+        scene.addLight(new PointLight(new Vector3D(0.0, 3.5, -2.0), Color.WHITE, 2.5));
+
+        scene.addObject(OBJReader.getModel3D("SmallTeapot.obj", new Vector3D(-1.0, -0.25, -2.0), Color.GRAY, 16.0, 0.0, 0.05, 45.0, 30.0, 0.0, 0.45));
+        scene.addObject(OBJReader.getModel3D("Cube.obj", new Vector3D(1.0, 0.0, 1.0), Color.GRAY, 16.0, 0.0, 1.3, 20.0, 0.0, 30.0, 1.0));
+        scene.addObject(new Sphere(new Vector3D(2.5, -0.25, 0.5), 0.7, Color.GRAY, 16.0, 0.0, 0.0));
+        scene.addObject(OBJReader.getModel3D("JafetToyHorse.obj", new Vector3D(-2.0, 1.5, 1.0), Color.GRAY, 16.0, 0.0, 0.0, -45.0, 30.0, 15.0, 0.25));
+        scene.addObject(OBJReader.getModel3D("Wall.obj", new Vector3D(0.0, 0.0, 6.0), Color.GRAY, 16.0, 0.5, 0.0, 0.0, 0.0, 0.0));
+        scene.addObject(OBJReader.getModel3D("Wall.obj", new Vector3D(0.0, -1.5, 2.0), Color.GRAY, 16.0, 0.5, 0.0, 90.0, 0.0, 0.0));
+        return scene;
+    }
+}
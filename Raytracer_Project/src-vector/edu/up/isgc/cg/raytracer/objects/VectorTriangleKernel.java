@@ -0,0 +1,166 @@
+package edu.up.isgc.cg.raytracer.objects;
+
+import edu.up.isgc.cg.raytracer.RayPacket;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD Möller–Trumbore kernel built on the Java Vector API. It tests one ray against as many triangles
+ * of a leaf as fit in a vector, or one triangle against as many rays of a packet, per instruction.
+ * Every lane performs the same operations in the same order as {@link ScalarTriangleKernel},
+ * so both kernels return the same hits.
+ * <p>
+ * This class lives outside the main source folder because it needs the incubator module.
+ * Compile it after the main sources and run with the module added and the kernel selected, for example:
+ * <pre>
+ * javac -d out $(find src -name '*.java')
+ * javac --add-modules jdk.incubator.vector -cp out -d out src-vector/edu/up/isgc/cg/raytracer/objects/*.java
+ * java --add-modules jdk.incubator.vector -Draytracer.kernel=vector -cp out edu.up.isgc.cg.raytracer.Raytracer
+ * </pre>
+ * Without it, {@link TriangleKernel#load()} falls back to the scalar kernel. Leaves hold at most
+ * {@link edu.up.isgc.cg.raytracer.acceleration.BVH#MAX_LEAF_SIZE} triangles, so 256-bit vectors are used.
+ */
+public class VectorTriangleKernel implements TriangleKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+
+    @Override
+    public int intersect(TriangleMesh mesh, int first, int count, double ox, double oy, double oz,
+                         double dx, double dy, double dz, double maxDistance, double[] hit) {
+        double[] v0x = mesh.getV0X();
+        double[] v0y = mesh.getV0Y();
+        double[] v0z = mesh.getV0Z();
+        double[] e1x = mesh.getE1X();
+        double[] e1y = mesh.getE1Y();
+        double[] e1z = mesh.getE1Z();
+        double[] e2x = mesh.getE2X();
+        double[] e2y = mesh.getE2Y();
+        double[] e2z = mesh.getE2Z();
+
+        int closest = -1;
+        int end = first + count;
+        for (int i = first; i < end; i += SPECIES.length()) {
+            VectorMask<Double> lanes = SPECIES.indexInRange(i, end);
+            DoubleVector v1v0x, v1v0y, v1v0z, v2v0x, v2v0y, v2v0z, ax, ay, az;
+            if (i + SPECIES.length() <= e1x.length) {
+                // Lanes past the leaf belong to other triangles; they are loaded but masked out of the result
+                v1v0x = DoubleVector.fromArray(SPECIES, e1x, i);
+                v1v0y = DoubleVector.fromArray(SPECIES, e1y, i);
+                v1v0z = DoubleVector.fromArray(SPECIES, e1z, i);
+                v2v0x = DoubleVector.fromArray(SPECIES, e2x, i);
+                v2v0y = DoubleVector.fromArray(SPECIES, e2y, i);
+                v2v0z = DoubleVector.fromArray(SPECIES, e2z, i);
+                ax = DoubleVector.fromArray(SPECIES, v0x, i);
+                ay = DoubleVector.fromArray(SPECIES, v0y, i);
+                az = DoubleVector.fromArray(SPECIES, v0z, i);
+            } else {
+                v1v0x = DoubleVector.fromArray(SPECIES, e1x, i, lanes);
+                v1v0y = DoubleVector.fromArray(SPECIES, e1y, i, lanes);
+                v1v0z = DoubleVector.fromArray(SPECIES, e1z, i, lanes);
+                v2v0x = DoubleVector.fromArray(SPECIES, e2x, i, lanes);
+                v2v0y = DoubleVector.fromArray(SPECIES, e2y, i, lanes);
+                v2v0z = DoubleVector.fromArray(SPECIES, e2z, i, lanes);
+                ax = DoubleVector.fromArray(SPECIES, v0x, i, lanes);
+                ay = DoubleVector.fromArray(SPECIES, v0y, i, lanes);
+                az = DoubleVector.fromArray(SPECIES, v0z, i, lanes);
+            }
+
+            DoubleVector px = v1v0z.mul(dy).sub(v1v0y.mul(dz));
+            DoubleVector py = v1v0x.mul(dz).sub(v1v0z.mul(dx));
+            DoubleVector pz = v1v0y.mul(dx).sub(v1v0x.mul(dy));
+            DoubleVector invDet = DoubleVector.broadcast(SPECIES, 1.0)
+                    .div(v2v0x.mul(px).add(v2v0y.mul(py)).add(v2v0z.mul(pz)));
+            DoubleVector tx = DoubleVector.broadcast(SPECIES, ox).sub(ax);
+            DoubleVector ty = DoubleVector.broadcast(SPECIES, oy).sub(ay);
+            DoubleVector tz = DoubleVector.broadcast(SPECIES, oz).sub(az);
+            DoubleVector u = invDet.mul(tx.mul(px).add(ty.mul(py)).add(tz.mul(pz)));
+
+            DoubleVector qx = ty.mul(v2v0z).sub(tz.mul(v2v0y));
+            DoubleVector qy = tz.mul(v2v0x).sub(tx.mul(v2v0z));
+            DoubleVector qz = tx.mul(v2v0y).sub(ty.mul(v2v0x));
+            DoubleVector v = invDet.mul(qx.mul(dx).add(qy.mul(dy)).add(qz.mul(dz)));
+            DoubleVector distance = invDet.mul(qx.mul(v1v0x).add(qy.mul(v1v0y)).add(qz.mul(v1v0z)));
+
+            VectorMask<Double> valid = lanes
+                    .andNot(u.compare(VectorOperators.LT, 0).or(u.compare(VectorOperators.GT, 1)))
+                    .andNot(v.compare(VectorOperators.LT, 0).or(u.add(v).compare(VectorOperators.GT, 1.0 + Triangle.EPSILON)))
+                    .and(distance.compare(VectorOperators.GT, 0))
+                    .and(distance.compare(VectorOperators.LT, maxDistance));
+            if (!valid.anyTrue()) {
+                continue;
+            }
+            double nearest = distance.blend(Double.POSITIVE_INFINITY, valid.not()).reduceLanes(VectorOperators.MIN);
+            int lane = distance.compare(VectorOperators.EQ, nearest).and(valid).firstTrue();
+            closest = i + lane;
+            maxDistance = nearest;
+            hit[1] = u.lane(lane);
+            hit[2] = v.lane(lane);
+        }
+        if (closest != -1) {
+            hit[0] = maxDistance;
+        }
+        return closest;
+    }
+
+    @Override
+    public void intersect(TriangleMesh mesh, int triangle, RayPacket packet, int[] triangles, double[] us, double[] vs) {
+        double ax = mesh.getV0X()[triangle];
+        double ay = mesh.getV0Y()[triangle];
+        double az = mesh.getV0Z()[triangle];
+        double v1v0x = mesh.getE1X()[triangle];
+        double v1v0y = mesh.getE1Y()[triangle];
+        double v1v0z = mesh.getE1Z()[triangle];
+        double v2v0x = mesh.getE2X()[triangle];
+        double v2v0y = mesh.getE2Y()[triangle];
+        double v2v0z = mesh.getE2Z()[triangle];
+        double[] originX = packet.getOriginX();
+        double[] originY = packet.getOriginY();
+        double[] originZ = packet.getOriginZ();
+        double[] directionX = packet.getDirectionX();
+        double[] directionY = packet.getDirectionY();
+        double[] directionZ = packet.getDirectionZ();
+        double[] maxDistances = packet.getMaxDistances();
+
+        int size = packet.getSize();
+        for (int i = 0; i < size; i += SPECIES.length()) {
+            VectorMask<Double> lanes = SPECIES.indexInRange(i, size);
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, directionX, i, lanes);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, directionY, i, lanes);
+            DoubleVector dz = DoubleVector.fromArray(SPECIES, directionZ, i, lanes);
+
+            DoubleVector px = dy.mul(v1v0z).sub(dz.mul(v1v0y));
+            DoubleVector py = dz.mul(v1v0x).sub(dx.mul(v1v0z));
+            DoubleVector pz = dx.mul(v1v0y).sub(dy.mul(v1v0x));
+            DoubleVector invDet = DoubleVector.broadcast(SPECIES, 1.0)
+                    .div(px.mul(v2v0x).add(py.mul(v2v0y)).add(pz.mul(v2v0z)));
+            DoubleVector tx = DoubleVector.fromArray(SPECIES, originX, i, lanes).sub(ax);
+            DoubleVector ty = DoubleVector.fromArray(SPECIES, originY, i, lanes).sub(ay);
+            DoubleVector tz = DoubleVector.fromArray(SPECIES, originZ, i, lanes).sub(az);
+            DoubleVector u = invDet.mul(tx.mul(px).add(ty.mul(py)).add(tz.mul(pz)));
+
+            DoubleVector qx = ty.mul(v2v0z).sub(tz.mul(v2v0y));
+            DoubleVector qy = tz.mul(v2v0x).sub(tx.mul(v2v0z));
+            DoubleVector qz = tx.mul(v2v0y).sub(ty.mul(v2v0x));
+            DoubleVector v = invDet.mul(dx.mul(qx).add(dy.mul(qy)).add(dz.mul(qz)));
+            DoubleVector distance = invDet.mul(qx.mul(v1v0x).add(qy.mul(v1v0y)).add(qz.mul(v1v0z)));
+
+            VectorMask<Double> valid = lanes
+                    .andNot(u.compare(VectorOperators.LT, 0).or(u.compare(VectorOperators.GT, 1)))
+                    .andNot(v.compare(VectorOperators.LT, 0).or(u.add(v).compare(VectorOperators.GT, 1.0 + Triangle.EPSILON)))
+                    .and(distance.compare(VectorOperators.GT, 0))
+                    .and(distance.compare(VectorOperators.LT, DoubleVector.fromArray(SPECIES, maxDistances, i, lanes)));
+            if (!valid.anyTrue()) {
+                continue;
+            }
+            distance.intoArray(maxDistances, i, valid);
+            u.intoArray(us, i, valid);
+            v.intoArray(vs, i, valid);
+            for (int lane = valid.firstTrue(); lane < SPECIES.length(); lane++) {
+                if (valid.laneIsSet(lane)) {
+                    triangles[i + lane] = triangle;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package edu.up.isgc.cg.raytracer;
+
+/**
+ * Represents an immutable 4x4 affine transformation matrix, stored in row-major order.
+ * Points are treated as column vectors with an implicit w of 1, directions with an implicit w of 0.
+ */
+public class Matrix4D {
+    private static final Matrix4D IDENTITY = new Matrix4D(new double[]{
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1});
+
+    private final double[] values;
+
+    /**
+     * Constructs a Matrix4D from its sixteen values.
+     *
+     * @param values The values of the matrix in row-major order
+     */
+    public Matrix4D(double[] values) {
+        if (values.length != 16) {
+            throw new IllegalArgumentException("A 4x4 matrix needs 16 values, got " + values.length);
+        }
+        this.values = values.clone();
+    }
+
+    /**
+     * Gets the identity matrix.
+     *
+     * @return The identity matrix
+     */
+    public static Matrix4D identity() {
+        return IDENTITY;
+    }
+
+    /**
+     * Creates a translation matrix.
+     *
+     * @param translation The translation
+     * @return The translation matrix
+     */
+    public static Matrix4D translation(Vector3D translation) {
+        return new Matrix4D(new double[]{
+                1, 0, 0, translation.getX(),
+                0, 1, 0, translation.getY(),
+                0, 0, 1, translation.getZ(),
+                0, 0, 0, 1});
+    }
+
+    /**
+     * Creates a uniform scale matrix.
+     *
+     * @param scale The scale factor
+     * @return The scale matrix
+     */
+    public static Matrix4D scale(double scale) {
+        return new Matrix4D(new double[]{
+                scale, 0, 0, 0,
+                0, scale, 0, 0,
+                0, 0, scale, 0,
+                0, 0, 0, 1});
+    }
+
+    /**
+     * Creates a rotation matrix around the X-axis.
+     *
+     * @param angle The rotation angle (in degrees)
+     * @return The rotation matrix
+     */
+    public static Matrix4D rotationX(double angle) {
+        double cos = Math.cos(Math.toRadians(angle));
+        double sin = Math.sin(Math.toRadians(angle));
+        return new Matrix4D(new double[]{
+                1, 0, 0, 0,
+                0, cos, -sin, 0,
+                0, sin, cos, 0,
+                0, 0, 0, 1});
+    }
+
+    /**
+     * Creates a rotation matrix around the Y-axis.
+     *
+     * @param angle The rotation angle (in degrees)
+     * @return The rotation matrix
+     */
+    public static Matrix4D rotationY(double angle) {
+        double cos = Math.cos(Math.toRadians(angle));
+        double sin = Math.sin(Math.toRadians(angle));
+        return new Matrix4D(new double[]{
+                cos, 0, sin, 0,
+                0, 1, 0, 0,
+                -sin, 0, cos, 0,
+                0, 0, 0, 1});
+    }
+
+    /**
+     * Creates a rotation matrix around the Z-axis.
+     *
+     * @param angle The rotation angle (in degrees)
+     * @return The rotation matrix
+     */
+    public static Matrix4D rotationZ(double angle) {
+        double cos = Math.cos(Math.toRadians(angle));
+        double sin = Math.sin(Math.toRadians(angle));
+        return new Matrix4D(new double[]{
+                cos, -sin, 0, 0,
+                sin, cos, 0, 0,
+                0, 0, 1, 0,
+                0, 0, 0, 1});
+    }
+
+    /**
+     * Creates the transform used to place models: a rotation around the X, Y and Z axes (in that order),
+     * followed by a uniform scale and a translation.
+     *
+     * @param position The translation
+     * @param angleX   The rotation angle around the X-axis (in degrees)
+     * @param angleY   The rotation angle around the Y-axis (in degrees)
+     * @param angleZ   The rotation angle around the Z-axis (in degrees)
+     * @param scale    The scale factor
+     * @return The transform
+     */
+    public static Matrix4D transform(Vector3D position, double angleX, double angleY, double angleZ, double scale) {
+        Matrix4D rotation = multiply(rotationZ(angleZ), multiply(rotationY(angleY), rotationX(angleX)));
+        return multiply(translation(position), multiply(scale(scale), rotation));
+    }
+
+    /**
+     * Multiplies two matrices. The resulting transform applies matrixB first and then matrixA.
+     *
+     * @param matrixA The left matrix
+     * @param matrixB The right matrix
+     * @return The product of the matrices
+     */
+    public static Matrix4D multiply(Matrix4D matrixA, Matrix4D matrixB) {
+        double[] a = matrixA.values;
+        double[] b = matrixB.values;
+        double[] result = new double[16];
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                double sum = 0;
+                for (int i = 0; i < 4; i++) {
+                    sum += a[row * 4 + i] * b[i * 4 + column];
+                }
+                result[row * 4 + column] = sum;
+            }
+        }
+        return new Matrix4D(result);
+    }
+
+    /**
+     * Gets a value of the matrix.
+     *
+     * @param row    The row of the value
+     * @param column The column of the value
+     * @return The value
+     */
+    public double get(int row, int column) {
+        return values[row * 4 + column];
+    }
+
+    /**
+     * Calculates the inverse of the matrix, assuming its last row is (0, 0, 0, 1).
+     *
+     * @return The inverse matrix
+     * @throws IllegalArgumentException If the matrix is not invertible
+     */
+    public Matrix4D inverse() {
+        double[] m = values;
+        double c00 = m[5] * m[10] - m[6] * m[9];
+        double c01 = m[6] * m[8] - m[4] * m[10];
+        double c02 = m[4] * m[9] - m[5] * m[8];
+        double determinant = m[0] * c00 + m[1] * c01 + m[2] * c02;
+        if (determinant == 0) {
+            throw new IllegalArgumentException("The matrix is not invertible");
+        }
+        double invDet = 1.0 / determinant;
+
+        double i00 = c00 * invDet;
+        double i01 = (m[2] * m[9] - m[1] * m[10]) * invDet;
+        double i02 = (m[1] * m[6] - m[2] * m[5]) * invDet;
+        double i10 = c01 * invDet;
+        double i11 = (m[0] * m[10] - m[2] * m[8]) * invDet;
+        double i12 = (m[2] * m[4] - m[0] * m[6]) * invDet;
+        double i20 = c02 * invDet;
+        double i21 = (m[1] * m[8] - m[0] * m[9]) * invDet;
+        double i22 = (m[0] * m[5] - m[1] * m[4]) * invDet;
+
+        return new Matrix4D(new double[]{
+                i00, i01, i02, -(i00 * m[3] + i01 * m[7] + i02 * m[11]),
+                i10, i11, i12, -(i10 * m[3] + i11 * m[7] + i12 * m[11]),
+                i20, i21, i22, -(i20 * m[3] + i21 * m[7] + i22 * m[11]),
+                0, 0, 0, 1});
+    }
+
+    /**
+     * Calculates the transpose of the matrix.
+     *
+     * @return The transposed matrix
+     */
+    public Matrix4D transpose() {
+        double[] result = new double[16];
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                result[column * 4 + row] = values[row * 4 + column];
+            }
+        }
+        return new Matrix4D(result);
+    }
+
+    /**
+     * Transforms a point, applying the translation of the matrix.
+     *
+     * @param point  The point to transform
+     * @param result The vector where the transformed point is stored
+     * @return The result vector
+     */
+    public Vector3D transformPoint(Vector3D point, Vector3D result) {
+        double x = point.getX();
+        double y = point.getY();
+        double z = point.getZ();
+        return result.set(values[0] * x + values[1] * y + values[2] * z + values[3],
+                values[4] * x + values[5] * y + values[6] * z + values[7],
+                values[8] * x + values[9] * y + values[10] * z + values[11]);
+    }
+
+    /**
+     * Transforms a direction, ignoring the translation of the matrix.
+     *
+     * @param direction The direction to transform
+     * @param result    The vector where the transformed direction is stored
+     * @return The result vector
+     */
+    public Vector3D transformDirection(Vector3D direction, Vector3D result) {
+        double x = direction.getX();
+        double y = direction.getY();
+        double z = direction.getZ();
+        return result.set(values[0] * x + values[1] * y + values[2] * z,
+                values[4] * x + values[5] * y + values[6] * z,
+                values[8] * x + values[9] * y + values[10] * z);
+    }
+}
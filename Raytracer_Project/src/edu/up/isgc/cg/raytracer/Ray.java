@@ -2,10 +2,12 @@ package edu.up.isgc.cg.raytracer;
 
 /**
  * Represents a ray with an origin and a direction.
+ * The ray keeps its own copy of both vectors, with the direction normalized once when it is set,
+ * so a single Ray can be reused for several casts without allocating.
  */
 public class Ray {
-    private Vector3D origin;
-    private Vector3D direction;
+    private final Vector3D origin = Vector3D.ZERO();
+    private final Vector3D direction = Vector3D.ZERO();
 
     /**
      * Constructs a Ray with the given origin and direction.
@@ -27,12 +29,12 @@ public class Ray {
         return origin;
     }
     /**
-     * Sets the origin of the ray.
+     * Sets the origin of the ray, copying the given vector.
      *
      * @param origin The origin to set
      */
     public void setOrigin(Vector3D origin) {
-        this.origin = origin;
+        this.origin.set(origin);
     }
 
     /**
@@ -41,15 +43,15 @@ public class Ray {
      * @return The normalized direction of the ray
      */
     public Vector3D getDirection() {
-        return Vector3D.normalize(direction);
+        return direction;
     }
 
     /**
-     * Sets the direction of the ray.
+     * Sets the direction of the ray, storing a normalized copy of the given vector.
      *
      * @param direction The direction to set
      */
     public void setDirection(Vector3D direction) {
-        this.direction = direction;
+        Vector3D.normalize(direction, this.direction);
     }
 }
@@ -0,0 +1,169 @@
+package edu.up.isgc.cg.raytracer;
+
+/**
+ * Represents a bundle of coherent rays traced together in lockstep, such as the primary rays of a block of pixels.
+ * The rays are stored in structure-of-arrays form, and every ray keeps the maximum distance of interest along it,
+ * which shrinks as closer hits are found.
+ */
+public class RayPacket {
+    public static final int MAX_SIZE = 16;
+
+    private final Ray[] rays = new Ray[MAX_SIZE];
+    private final double[] originX = new double[MAX_SIZE];
+    private final double[] originY = new double[MAX_SIZE];
+    private final double[] originZ = new double[MAX_SIZE];
+    private final double[] directionX = new double[MAX_SIZE];
+    private final double[] directionY = new double[MAX_SIZE];
+    private final double[] directionZ = new double[MAX_SIZE];
+    private final double[] maxDistances = new double[MAX_SIZE];
+    private int size;
+
+    /**
+     * Constructs an empty RayPacket.
+     */
+    public RayPacket() {
+    }
+
+    /**
+     * Constructs a RayPacket holding the given rays.
+     *
+     * @param rays The rays of the packet, at most {@link #MAX_SIZE}
+     */
+    public RayPacket(Ray[] rays) {
+        for (Ray ray : rays) {
+            add(ray);
+        }
+    }
+
+    /**
+     * Adds a ray to the packet, with no limit on the distance of interest.
+     *
+     * @param ray The ray to add
+     */
+    public void add(Ray ray) {
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        add(ray, origin.getX(), origin.getY(), origin.getZ(),
+                direction.getX(), direction.getY(), direction.getZ(), Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Adds a ray to the packet given by its components. The components may differ from those of the ray,
+     * for example when the packet is moved into the object space of a model.
+     *
+     * @param ray         The ray the components belong to
+     * @param ox          The x component of the origin
+     * @param oy          The y component of the origin
+     * @param oz          The z component of the origin
+     * @param dx          The x component of the direction
+     * @param dy          The y component of the direction
+     * @param dz          The z component of the direction
+     * @param maxDistance The maximum distance of interest along the ray
+     */
+    public void add(Ray ray, double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+        if (size == MAX_SIZE) {
+            throw new IllegalStateException("A packet holds at most " + MAX_SIZE + " rays");
+        }
+        rays[size] = ray;
+        originX[size] = ox;
+        originY[size] = oy;
+        originZ[size] = oz;
+        directionX[size] = dx;
+        directionY[size] = dy;
+        directionZ[size] = dz;
+        maxDistances[size] = maxDistance;
+        size++;
+    }
+
+    /**
+     * Removes every ray from the packet.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            rays[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Gets the number of rays in the packet.
+     *
+     * @return The number of rays
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets a ray of the packet.
+     *
+     * @param index The index of the ray
+     * @return The ray
+     */
+    public Ray getRay(int index) {
+        return rays[index];
+    }
+
+    /**
+     * Gets the x components of the origins of the rays. Only the first {@link #getSize()} values are used.
+     *
+     * @return The x components of the origins
+     */
+    public double[] getOriginX() {
+        return originX;
+    }
+
+    /**
+     * Gets the y components of the origins of the rays.
+     *
+     * @return The y components of the origins
+     */
+    public double[] getOriginY() {
+        return originY;
+    }
+
+    /**
+     * Gets the z components of the origins of the rays.
+     *
+     * @return The z components of the origins
+     */
+    public double[] getOriginZ() {
+        return originZ;
+    }
+
+    /**
+     * Gets the x components of the directions of the rays.
+     *
+     * @return The x components of the directions
+     */
+    public double[] getDirectionX() {
+        return directionX;
+    }
+
+    /**
+     * Gets the y components of the directions of the rays.
+     *
+     * @return The y components of the directions
+     */
+    public double[] getDirectionY() {
+        return directionY;
+    }
+
+    /**
+     * Gets the z components of the directions of the rays.
+     *
+     * @return The z components of the directions
+     */
+    public double[] getDirectionZ() {
+        return directionZ;
+    }
+
+    /**
+     * Gets the maximum distances of interest along the rays. Visitors lower them as closer hits are found.
+     *
+     * @return The maximum distances of the rays
+     */
+    public double[] getMaxDistances() {
+        return maxDistances;
+    }
+}
@@ -1,22 +1,35 @@
 package edu.up.isgc.cg.raytracer;
 
+import edu.up.isgc.cg.raytracer.acceleration.BVH;
 import edu.up.isgc.cg.raytracer.lights.DirectionalLight;
 import edu.up.isgc.cg.raytracer.lights.Light;
 import edu.up.isgc.cg.raytracer.lights.PointLight;
 import edu.up.isgc.cg.raytracer.lights.SpotLight;
 import edu.up.isgc.cg.raytracer.objects.*;
+import edu.up.isgc.cg.raytracer.render.CostBuffer;
+import edu.up.isgc.cg.raytracer.render.FrameBuffer;
+import edu.up.isgc.cg.raytracer.render.HeapFrameBuffer;
+import edu.up.isgc.cg.raytracer.render.MappedFrameBuffer;
+import edu.up.isgc.cg.raytracer.render.RenderBudget;
+import edu.up.isgc.cg.raytracer.render.RenderListener;
+import edu.up.isgc.cg.raytracer.render.RenderReport;
+import edu.up.isgc.cg.raytracer.render.RenderStatistics;
+import edu.up.isgc.cg.raytracer.render.Tile;
+import edu.up.isgc.cg.raytracer.render.TileScheduler;
+import edu.up.isgc.cg.raytracer.tools.ImageWriter;
 import edu.up.isgc.cg.raytracer.tools.OBJReader;
 
-import javax.imageio.ImageIO;
 import java.awt.Color;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static edu.up.isgc.cg.raytracer.tools.Clamp.clamp;
 
@@ -30,8 +43,19 @@ import static edu.up.isgc.cg.raytracer.tools.Clamp.clamp;
  */
 
 public class Raytracer {
-    static BufferedImage image;
-    static int threads = 16;
+    private static final int MIN_BUDGETED_PASSES = 4;
+
+    static int threads = Runtime.getRuntime().availableProcessors();
+    static int tileSize = TileScheduler.DEFAULT_TILE_SIZE;
+    static int packetSize = 8;
+    static int passes = 1;
+    static boolean progressiveOutput = false;
+    static int supersamplingGrid = 1;
+    static double contrastThreshold = 0.1;
+    static boolean floatOutput = false;
+    static boolean costHeatmap = false;
+    static File statisticsFile = null;
+    static File frameBufferFile = null;
 
     public static void main(String[] args) {
         Date start = new Date();
@@ -69,12 +93,40 @@ public class Raytracer {
         scene03.addObject(OBJReader.getModel3D("Wall.obj", new Vector3D(6.0,0.0,0.0), Color.GRAY, 16.0, 0.5, 0.0,0.0, 90.0, 0.0));
         scene03.addObject(OBJReader.getModel3D("Wall.obj", new Vector3D(0.0,-1.5,2.0), Color.GRAY, 16.0, 0.5, 0.0,90.0, 0.0, 0.0));
 
-        raytrace(scene03);
         File outputImage = new File("image.png");
+        RenderListener listener = null;
+        if (progressiveOutput) {
+            // Every pass overwrites the image, so it can be looked at while the render goes on
+            listener = (frameBuffer, pass, total) -> {
+                try {
+                    frameBuffer.writePNG(outputImage);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                System.out.println("Pass " + pass + "/" + total + " written: " + new Date());
+                return true;
+            };
+        }
+        RenderReport report = raytrace(scene03, passes, listener, new RenderBudget(), supersamplingGrid, null);
+        System.out.println(report);
         try {
-            ImageIO.write(image, "png", outputImage);
+            if (listener == null) {
+                report.getFrameBuffer().writePNG(outputImage);
+            }
+            if (floatOutput) {
+                report.getFrameBuffer().writePFM(new File("image.pfm"));
+            }
+            if (statisticsFile != null) {
+                Files.writeString(statisticsFile.toPath(), report.getStatistics().getJson());
+            }
+            if (report.getCosts() != null) {
+                ImageWriter.writePNG(new File("heatmap.png"), report.getCosts().toHeatmap());
+                report.getCosts().writePFM(new File("heatmap.pfm"));
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            report.getFrameBuffer().close();
         }
 
         Date end = new Date();
@@ -96,184 +148,790 @@ public class Raytracer {
      * Raytraces the given scene and generates the final image.
      *
      * @param scene Scene to raytrace
+     * @return The frame buffer holding the rendered image
      */
-    public static void raytrace(Scene scene) {
-        Camera mainCamera = scene.getCamera();
-        double[] nearFarPlanes = mainCamera.getNearFarPlanes();
-        image = new BufferedImage(mainCamera.getResolutionWidth(), mainCamera.getResolutionHeight(), BufferedImage.TYPE_INT_RGB);
-        List<Object3D> objects = scene.getObjects();
-        List<Light> lights = scene.getLights();
-        Vector3D[][] posRaytrace = mainCamera.calculatePositionsToRay();
-        Vector3D pos = mainCamera.getPosition();
-        double cameraZ = pos.getZ();
+    public static FrameBuffer raytrace(Scene scene) {
+        return raytrace(scene, 1, null);
+    }
 
-        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    /**
+     * Raytraces the given scene progressively, from a coarse image to the final one.
+     * The first pass traces one pixel out of every 2^(passes-1) in each direction and fills the block it covers;
+     * every following pass halves that spacing and only traces the pixels not traced yet, so the last pass
+     * produces the same image as a single-pass render at no extra cost.
+     *
+     * @param scene Scene to raytrace
+     * @param passes Number of refinement passes, from 1 to 31
+     * @param listener Listener notified after every pass, which can stop the render early (can be null)
+     * @return The frame buffer holding the image of the last pass rendered
+     */
+    public static FrameBuffer raytrace(Scene scene, int passes, RenderListener listener) {
+        return raytrace(scene, passes, listener, new RenderBudget()).getFrameBuffer();
+    }
 
-        for (int i = 0; i < posRaytrace.length; i++) {
-            for (int j = 0; j < posRaytrace[i].length; j++) {
-                Runnable runnable = draw(i, j, posRaytrace, pos, mainCamera, objects, nearFarPlanes, cameraZ, lights);
-                executorService.execute(runnable);
-            }
+    /**
+     * Raytraces the given scene progressively within a time budget.
+     * When the budget has a deadline, at least {@value #MIN_BUDGETED_PASSES} passes are rendered, so the first pass
+     * only traces a small share of the pixels and the deadline is checked over the rest of the image.
+     * The first pass always runs in full at the maximum depth, so every pixel gets a color.
+     * Before each following pass, its time is estimated from the cost per pixel and per depth level measured so far,
+     * and the depth is lowered, down to the minimum of the budget, until the estimate fits in the time left.
+     * The depth is assumed to scale the cost linearly, which is only a rough estimate, so every tile is also checked:
+     * a tile whose estimated time no longer fits before the deadline keeps the colors of the previous pass,
+     * and the render stops after that pass.
+     * The counters of the render are exposed through JMX while it runs and returned with the report,
+     * along with the cost of every pixel when the cost heatmap is enabled.
+     * When a frame buffer file is set, the frame buffer and the scratch buffers of anti-aliasing are mapped
+     * to files instead of living in the heap, see {@link MappedFrameBuffer}; the caller must close the frame buffer.
+     * The image is not anti-aliased, see {@link #raytrace(Scene, int, RenderListener, RenderBudget, int, ForkJoinPool)}.
+     *
+     * @param scene Scene to raytrace
+     * @param passes Number of refinement passes, from 1 to 31
+     * @param listener Listener notified after every pass, which can stop the render early (can be null)
+     * @param budget The deadline and range of depths of the render
+     * @return The report of the render, holding the frame buffer and the quality reached
+     */
+    public static RenderReport raytrace(Scene scene, int passes, RenderListener listener, RenderBudget budget) {
+        return raytrace(scene, passes, listener, budget, 1, null);
+    }
+
+    /**
+     * Raytraces the given scene progressively within a time budget, optionally anti-aliased and on a shared pool,
+     * as a long-running process does to keep its worker threads across renders instead of starting new ones
+     * for every render, see {@link #raytrace(Scene, int, RenderListener, RenderBudget)}.
+     * When supersampling is enabled and every pass completed, an extra anti-aliasing pass follows,
+     * see {@link #antialias(Tile, FrameBuffer, FrameBuffer, FrameBuffer, CostBuffer, Scene, int, int, RenderBudget, double)}.
+     *
+     * @param scene Scene to raytrace
+     * @param passes Number of refinement passes, from 1 to 31
+     * @param listener Listener notified after every pass, including the anti-aliasing one,
+     *                 which can stop the render early (can be null)
+     * @param budget The deadline and range of depths of the render
+     * @param supersamplingGrid The number of samples per side of the grid traced again for pixels on an edge,
+     *                          or 1 to disable anti-aliasing
+     * @param pool The pool rendering the tiles, which is left running, or null to start one for the render
+     * @return The report of the render, holding the frame buffer and the quality reached
+     */
+    public static RenderReport raytrace(Scene scene, int passes, RenderListener listener, RenderBudget budget,
+                                        int supersamplingGrid, ForkJoinPool pool) {
+        if (passes < 1 || passes > 31) {
+            throw new IllegalArgumentException("The number of passes must be between 1 and 31, got " + passes);
         }
+        if (supersamplingGrid < 1) {
+            throw new IllegalArgumentException("The supersampling grid must be at least 1, got " + supersamplingGrid);
+        }
+        if (budget.getDeadline() != RenderBudget.NO_DEADLINE) {
+            // The last pass gives the same image whatever the number of passes, so the extra ones only add checks
+            passes = Math.max(passes, MIN_BUDGETED_PASSES);
+        }
+        long start = System.currentTimeMillis();
+        Camera mainCamera = scene.getCamera();
+        FrameBuffer frameBuffer = createFrameBuffer(mainCamera.getResolutionWidth(), mainCamera.getResolutionHeight());
+        long pixels = (long) frameBuffer.getWidth() * frameBuffer.getHeight();
+        int totalPasses = supersamplingGrid > 1 ? passes + 1 : passes;
+        FrameBuffer objectIds = totalPasses > passes ? frameBuffer.createScratch() : null;
+        CostBuffer costs = costHeatmap ? new CostBuffer(frameBuffer.getWidth(), frameBuffer.getHeight()) : null;
+
+        TileScheduler scheduler = pool == null ? new TileScheduler(tileSize, threads) : new TileScheduler(tileSize, pool);
         System.out.println("Raytrace enter: " + new Date());
-        executorService.shutdown();
+        int[] depths = new int[passes];
+        AtomicLong pixelsTraced = new AtomicLong();
+        AtomicLong pixelsAntialiased = new AtomicLong();
+        AtomicInteger tilesSkipped = new AtomicInteger();
+        int passesCompleted = 0;
+        RenderStatistics statistics = new RenderStatistics(scene.getObjects(), scheduler.getThreads());
+        statistics.register();
         try {
-            if (!executorService.awaitTermination(5, TimeUnit.HOURS)) {
-                executorService.shutdownNow();
+            boolean stopped = false;
+            int depth = budget.getMaxDepth();
+            double costPerPixel = 0;
+            for (int pass = 1; pass <= passes; pass++) {
+                int step = 1 << (passes - pass);
+                boolean refine = pass > 1;
+                if (refine) {
+                    long remaining = budget.getRemainingMillis();
+                    if (remaining <= 0) {
+                        stopped = true;
+                        break;
+                    }
+                    double passPixels = pixels * 3.0 / (4.0 * step * step);
+                    while (depth > budget.getMinDepth() && costPerPixel * passPixels * depth > remaining) {
+                        depth--;
+                    }
+                }
+
+                int passDepth = depth;
+                double tileCostPerPixel = costPerPixel * passDepth * scheduler.getThreads() * 3.0 / (4.0 * step * step);
+                int skippedBefore = tilesSkipped.get();
+                long tracedBefore = pixelsTraced.get();
+                long passStart = System.nanoTime();
+                scheduler.render(frameBuffer.getWidth(), frameBuffer.getHeight(), tile -> {
+                    if (refine && budget.getRemainingMillis() < tileCostPerPixel * tile.getWidth() * tile.getHeight()) {
+                        tilesSkipped.incrementAndGet();
+                    } else {
+                        statistics.recordTile(() -> pixelsTraced.addAndGet(draw(tile, frameBuffer, objectIds, costs, scene, step, refine, passDepth)));
+                    }
+                });
+                double passMillis = (System.nanoTime() - passStart) / 1e6;
+                long passTraced = pixelsTraced.get() - tracedBefore;
+                depths[pass - 1] = passDepth;
+                if (passTraced > 0) {
+                    costPerPixel = passMillis / (passTraced * passDepth);
+                }
+                if (tilesSkipped.get() != skippedBefore) {
+                    stopped = true;
+                    break;
+                }
+                passesCompleted = pass;
+                if (listener != null && !listener.passCompleted(frameBuffer, pass, totalPasses)) {
+                    stopped = true;
+                    break;
+                }
+            }
+
+            if (!stopped && totalPasses > passes) {
+                FrameBuffer colors = frameBuffer.copy();
+                int finalDepth = depth;
+                double costPerSample = costPerPixel * finalDepth * scheduler.getThreads();
+                int skippedBefore = tilesSkipped.get();
+                try {
+                    scheduler.render(frameBuffer.getWidth(), frameBuffer.getHeight(), tile -> statistics.recordTile(() -> {
+                        int antialiased = antialias(tile, frameBuffer, colors, objectIds, costs, scene,
+                                supersamplingGrid, finalDepth, budget, costPerSample);
+                        if (antialiased < 0) {
+                            tilesSkipped.incrementAndGet();
+                        } else {
+                            pixelsAntialiased.addAndGet(antialiased);
+                        }
+                    }));
+                } finally {
+                    colors.close();
+                }
+                if (tilesSkipped.get() == skippedBefore && listener != null) {
+                    listener.passCompleted(frameBuffer, totalPasses, totalPasses);
+                }
             }
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
         } finally {
-            if (!executorService.isTerminated()) {
-                System.err.println("Cancel non-finished");
+            if (objectIds != null) {
+                objectIds.close();
             }
+            statistics.finish();
+            statistics.unregister();
         }
-        executorService.shutdownNow();
+
+        long end = System.currentTimeMillis();
+        return new RenderReport(frameBuffer, passes, passesCompleted, depths, pixelsTraced.get(), pixelsAntialiased.get(),
+                tilesSkipped.get(), end - start, end <= budget.getDeadline(), statistics, costs);
     }
 
     /**
-     * Multiplies the given color by a scalar factor.
+     * Creates the frame buffer of a render, mapped to the frame buffer file if one is set or in the heap otherwise.
      *
-     * @param color Color to multiply
-     * @param factor Scalar factor of multiplication to apply to the color
-     * @return New color resulting from the multiplication
+     * @param width The width of the image in pixels
+     * @param height The height of the image in pixels
+     * @return The black frame buffer
      */
-    private static Color multiplyColor(Color color, double factor) {
-        return new Color(
-                (int) clamp(color.getRed() * factor, 0, 255),
-                (int) clamp(color.getGreen() * factor, 0, 255),
-                (int) clamp(color.getBlue() * factor, 0, 255)
-        );
+    private static FrameBuffer createFrameBuffer(int width, int height) {
+        if (frameBufferFile == null) {
+            return new HeapFrameBuffer(width, height);
+        }
+        try {
+            return new MappedFrameBuffer(frameBufferFile, width, height);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
-     * Adds two colors together.
+     * Multiplies a color channel by a scalar factor.
      *
-     * @param c1 First color of the addition
-     * @param c2 Second color of the addition
-     * @return New color resulting from the addition of both colors
+     * @param channel Color channel to multiply, in the range [0, 255]
+     * @param factor Scalar factor of multiplication to apply to the channel
+     * @return New channel value resulting from the multiplication
      */
-    private static Color addColor(Color c1, Color c2) {
-        return new Color(
-                (int) clamp(c1.getRed() + c2.getRed(), 0, 255),
-                (int) clamp(c1.getGreen() + c2.getGreen(), 0, 255),
-                (int) clamp(c1.getBlue() + c2.getBlue(), 0, 255)
-        );
+    private static int multiplyChannel(int channel, double factor) {
+        return (int) clamp(channel * factor, 0, 255);
     }
 
     /**
-     * Casts a ray through a list of objects and returns the closest intersection.
+     * Adds a normalized color contribution to a color channel.
+     *
+     * @param channel Color channel to add to, in the range [0, 255]
+     * @param contribution Contribution to add, clamped to the range [0, 1]
+     * @return New channel value resulting from the addition
+     */
+    private static int addChannel(int channel, double contribution) {
+        float value = (float) clamp(contribution, 0.0, 1.0);
+        return (int) clamp(channel + (int) (value * 255 + 0.5), 0, 255);
+    }
+
+    /**
+     * Calculates the Blinn-Phong specular term for a light whose half vector is built from the given vector.
+     *
+     * @param viewDirection Direction of the ray that reached the surface
+     * @param normal Normal at the surface
+     * @param wx X component of the vector from the light towards the surface
+     * @param wy Y component of the vector from the light towards the surface
+     * @param wz Z component of the vector from the light towards the surface
+     * @param shininess Shininess of the surface
+     * @return The specular term
+     */
+    private static double specular(Vector3D viewDirection, Vector3D normal, double wx, double wy, double wz, double shininess) {
+        double wMagnitude = Vector3D.magnitude(wx, wy, wz);
+        double lvx = viewDirection.getX() + wx / wMagnitude;
+        double lvy = viewDirection.getY() + wy / wMagnitude;
+        double lvz = viewDirection.getZ() + wz / wMagnitude;
+        double inverse = 1 / Vector3D.magnitude(lvx, lvy, lvz);
+        double nDotH = Vector3D.dotProduct(normal.getX(), normal.getY(), normal.getZ(), lvx * inverse, lvy * inverse, lvz * inverse);
+        return Math.pow(nDotH, shininess);
+    }
+
+    /**
+     * Casts a ray through the objects of a scene and returns the closest intersection.
+     * Only the objects whose bounding boxes are hit by the ray are tested.
      *
      * @param ray The ray to cast
-     * @param objects The list of objects to check for intersections
+     * @param scene The scene whose objects are checked for intersections
      * @param caster The object that is casting the ray (can be null)
      * @param clippingPlanes The near and far clipping planes
      * @return The closest intersection, or null if no intersection is found
      */
-    public static Intersection raycast(Ray ray, List<Object3D> objects, Object3D caster, double[] clippingPlanes) {
-        Intersection closestIntersection = null;
-
-        for (int i = 0; i < objects.size(); i++) {
-            Object3D currObj = objects.get(i);
-            if (caster == null || !currObj.equals(caster)) {
-                Intersection intersection = currObj.getIntersection(ray);
-                if (intersection != null) {
-                    double distance = intersection.getDistance();
-                    double intersectionZ = intersection.getPosition().getZ();
-
-                    if (distance >= 0 &&
-                            (closestIntersection == null || distance < closestIntersection.getDistance()) &&
-                            (clippingPlanes == null || (intersectionZ >= clippingPlanes[0] && intersectionZ <= clippingPlanes[1]))) {
-                        closestIntersection = intersection;
+    public static Intersection raycast(Ray ray, Scene scene, Object3D caster, double[] clippingPlanes) {
+        ClosestIntersection closest = new ClosestIntersection(ray, scene.getObjects(), caster, clippingPlanes);
+        scene.traverse(ray, Double.POSITIVE_INFINITY, closest);
+        return closest.intersection;
+    }
+
+    /**
+     * Casts a packet of rays through the objects of a scene and returns the closest intersection of every ray.
+     * The scene hierarchy and the meshes are traversed once for the whole packet.
+     *
+     * @param packet The packet of rays to cast
+     * @param scene The scene whose objects are checked for intersections
+     * @param caster The object that is casting the rays (can be null)
+     * @param clippingPlanes The near and far clipping planes
+     * @return The closest intersection of every ray of the packet, or null for the rays that hit nothing
+     */
+    public static Intersection[] raycast(RayPacket packet, Scene scene, Object3D caster, double[] clippingPlanes) {
+        ClosestPacketIntersection closest = new ClosestPacketIntersection(packet.getSize(), scene.getObjects(), caster, clippingPlanes);
+        scene.traverse(packet, closest);
+        return closest.intersections;
+    }
+
+    /**
+     * Checks whether any object of a scene blocks a ray before a given distance.
+     * The traversal stops at the first blocking object, and no intersection position or normal is computed.
+     *
+     * @param ray The ray to cast
+     * @param scene The scene whose objects are checked
+     * @param caster The object that is casting the ray (can be null)
+     * @param maxDistance The distance along the ray beyond which objects do not block it
+     * @return True if an object blocks the ray
+     */
+    public static boolean occluded(Ray ray, Scene scene, Object3D caster, double maxDistance) {
+        AnyIntersection any = new AnyIntersection(ray, scene.getObjects(), caster);
+        scene.traverse(ray, maxDistance, any);
+        return any.occluded;
+    }
+
+    /**
+     * Keeps track of the closest intersection found while the objects of a scene are traversed.
+     */
+    private static class ClosestIntersection implements BVH.Visitor {
+        private final Ray ray;
+        private final List<Object3D> objects;
+        private final Object3D caster;
+        private final double[] clippingPlanes;
+        private Intersection intersection;
+
+        private ClosestIntersection(Ray ray, List<Object3D> objects, Object3D caster, double[] clippingPlanes) {
+            this.ray = ray;
+            this.objects = objects;
+            this.caster = caster;
+            this.clippingPlanes = clippingPlanes;
+        }
+
+        @Override
+        public double visit(int primitive, double maxDistance) {
+            Object3D currObj = objects.get(primitive);
+            if (caster != null && currObj.equals(caster)) {
+                return maxDistance;
+            }
+            Intersection candidate = currObj.getIntersection(ray);
+            if (candidate != null) {
+                double distance = candidate.getDistance();
+                double intersectionZ = candidate.getPosition().getZ();
+
+                if (distance >= 0 &&
+                        (intersection == null || distance < intersection.getDistance()) &&
+                        (clippingPlanes == null || (intersectionZ >= clippingPlanes[0] && intersectionZ <= clippingPlanes[1]))) {
+                    intersection = candidate;
+                    return distance;
+                }
+            }
+            return maxDistance;
+        }
+    }
+
+    /**
+     * Keeps track of the closest intersection of every ray of a packet while the objects of a scene are traversed.
+     * The candidates of each object are accepted with the same rules as {@link ClosestIntersection}.
+     */
+    private static class ClosestPacketIntersection implements BVH.PacketVisitor {
+        private final List<Object3D> objects;
+        private final Object3D caster;
+        private final double[] clippingPlanes;
+        private final Intersection[] intersections;
+        private final Intersection[] candidates;
+
+        private ClosestPacketIntersection(int size, List<Object3D> objects, Object3D caster, double[] clippingPlanes) {
+            this.objects = objects;
+            this.caster = caster;
+            this.clippingPlanes = clippingPlanes;
+            this.intersections = new Intersection[size];
+            this.candidates = new Intersection[size];
+        }
+
+        @Override
+        public void visit(int primitive, RayPacket packet) {
+            Object3D currObj = objects.get(primitive);
+            if (caster != null && currObj.equals(caster)) {
+                return;
+            }
+            currObj.getIntersections(packet, candidates);
+            double[] maxDistances = packet.getMaxDistances();
+            for (int i = 0; i < packet.getSize(); i++) {
+                Intersection candidate = candidates[i];
+                if (candidate == null) {
+                    continue;
+                }
+                double distance = candidate.getDistance();
+                double intersectionZ = candidate.getPosition().getZ();
+
+                if (distance >= 0 && distance < maxDistances[i] &&
+                        (clippingPlanes == null || (intersectionZ >= clippingPlanes[0] && intersectionZ <= clippingPlanes[1]))) {
+                    intersections[i] = candidate;
+                    maxDistances[i] = distance;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the traversal of the objects of a scene at the first object that blocks a ray.
+     */
+    private static class AnyIntersection implements BVH.Visitor {
+        private final Ray ray;
+        private final List<Object3D> objects;
+        private final Object3D caster;
+        private boolean occluded;
+
+        private AnyIntersection(Ray ray, List<Object3D> objects, Object3D caster) {
+            this.ray = ray;
+            this.objects = objects;
+            this.caster = caster;
+        }
+
+        @Override
+        public double visit(int primitive, double maxDistance) {
+            Object3D currObj = objects.get(primitive);
+            if (caster != null && currObj.equals(caster)) {
+                return maxDistance;
+            }
+            if (currObj.getHitDistance(ray, maxDistance) >= 0) {
+                occluded = true;
+                return -1;
+            }
+            return maxDistance;
+        }
+    }
+
+    /**
+     * Measures the time, rays and tests spent by the current thread between a start and a stop,
+     * using the counters of the render statistics so no shared state is touched.
+     */
+    private static class CostMeter {
+        private long startNanos;
+        private long startRays;
+        private long startTests;
+        private long nanos;
+        private long rays;
+        private long tests;
+
+        private void start() {
+            startRays = RenderStatistics.getThreadRays();
+            startTests = RenderStatistics.getThreadTests();
+            startNanos = System.nanoTime();
+        }
+
+        private void stop() {
+            nanos = System.nanoTime() - startNanos;
+            rays = RenderStatistics.getThreadRays() - startRays;
+            tests = RenderStatistics.getThreadTests() - startTests;
+        }
+    }
+
+    /**
+     * Draws every pixel of a tile into the frame buffer.
+     *
+     * @param tile The tile to draw
+     * @param frameBuffer The frame buffer to draw into
+     * @param scene The scene being rendered
+     */
+    public static void draw(Tile tile, FrameBuffer frameBuffer, Scene scene) {
+        draw(tile, frameBuffer, null, null, scene, 1, false, RenderBudget.DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Draws the pixels of a tile that lie on a grid with the given spacing, anchored at the top-left corner of the tile,
+     * filling the step x step block to their bottom-right with their color.
+     * When packets are enabled, the primary rays of blocks of grid pixels are traced together as packets.
+     *
+     * @param tile The tile to draw
+     * @param frameBuffer The frame buffer to draw into
+     * @param objectIds The buffer receiving the ids of the objects hit by the primary rays (can be null)
+     * @param costs The buffer receiving the cost of every pixel traced, which needs the tile to be run
+     *              by {@link RenderStatistics#recordTile(Runnable)} to count rays and tests (can be null)
+     * @param scene The scene being rendered
+     * @param step The spacing of the grid, in pixels
+     * @param refine Whether to skip the pixels on the grid of twice the spacing, drawn by the previous pass
+     * @param maxDepth The maximum number of surfaces visited by a ray
+     * @return The number of pixels traced
+     */
+    public static int draw(Tile tile, FrameBuffer frameBuffer, FrameBuffer objectIds, CostBuffer costs, Scene scene,
+                           int step, boolean refine, int maxDepth) {
+        int endX = tile.getX() + tile.getWidth();
+        int endY = tile.getY() + tile.getHeight();
+        int previousStep = step * 2;
+        int traced = 0;
+        Camera mainCamera = scene.getCamera();
+        double[] clippingPlanes = primaryClippingPlanes(mainCamera);
+        CostMeter meter = new CostMeter();
+        if (packetSize <= 1) {
+            for (int j = tile.getY(); j < endY; j += step) {
+                for (int i = tile.getX(); i < endX; i += step) {
+                    if (!refine || (i - tile.getX()) % previousStep != 0 || (j - tile.getY()) % previousStep != 0) {
+                        if (costs != null) {
+                            meter.start();
+                        }
+                        Ray ray = mainCamera.getPrimaryRay(i, j);
+                        Intersection intersection = raycast(ray, scene, null, clippingPlanes);
+                        RenderStatistics.countPrimaryRays(1);
+                        int objectId = objectId(intersection);
+                        fill(frameBuffer, objectIds, i, j, Math.min(i + step, endX), Math.min(j + step, endY),
+                                decideColor(ray, intersection, scene, maxDepth).getRGB(), objectId);
+                        if (costs != null) {
+                            meter.stop();
+                            costs.set(i, j, Math.min(i + step, endX), Math.min(j + step, endY), meter.nanos, meter.rays, meter.tests);
+                        }
+                        traced++;
                     }
                 }
-            } else {
-                if (!caster.equals(currObj)) {
-                    Intersection intersection = currObj.getIntersection(ray);
-                    if (intersection != null) {
-                        double distance = intersection.getDistance();
-                        if (distance >= 0 && (closestIntersection == null || distance < closestIntersection.getDistance())) {
-                            closestIntersection = intersection;
+            }
+            return traced;
+        }
+
+        int packetLimit = Math.min(packetSize, RayPacket.MAX_SIZE);
+        int blockWidth = Integer.highestOneBit((int) Math.ceil(Math.sqrt(packetLimit))) * step;
+        int blockHeight = packetLimit / (blockWidth / step) * step;
+        int[] pixelX = new int[packetLimit];
+        int[] pixelY = new int[packetLimit];
+        RayPacket packet = new RayPacket();
+        for (int blockY = tile.getY(); blockY < endY; blockY += blockHeight) {
+            int blockEndY = Math.min(blockY + blockHeight, endY);
+            for (int blockX = tile.getX(); blockX < endX; blockX += blockWidth) {
+                int blockEndX = Math.min(blockX + blockWidth, endX);
+                packet.clear();
+                for (int j = blockY; j < blockEndY; j += step) {
+                    for (int i = blockX; i < blockEndX; i += step) {
+                        if (!refine || (i - tile.getX()) % previousStep != 0 || (j - tile.getY()) % previousStep != 0) {
+                            pixelX[packet.getSize()] = i;
+                            pixelY[packet.getSize()] = j;
+                            packet.add(mainCamera.getPrimaryRay(i, j));
                         }
                     }
                 }
+                if (packet.getSize() == 0) {
+                    continue;
+                }
+
+                if (costs != null) {
+                    meter.start();
+                }
+                Intersection[] intersections = raycast(packet, scene, null, clippingPlanes);
+                RenderStatistics.countPrimaryRays(packet.getSize());
+                // The packet is traced as a whole, so its cost is shared evenly by its pixels
+                double packetNanos = 0;
+                double packetRays = 0;
+                double packetTests = 0;
+                if (costs != null) {
+                    meter.stop();
+                    packetNanos = meter.nanos / (double) packet.getSize();
+                    packetRays = meter.rays / (double) packet.getSize();
+                    packetTests = meter.tests / (double) packet.getSize();
+                }
+                for (int ray = 0; ray < packet.getSize(); ray++) {
+                    int i = pixelX[ray];
+                    int j = pixelY[ray];
+                    if (costs != null) {
+                        meter.start();
+                    }
+                    int objectId = objectId(intersections[ray]);
+                    fill(frameBuffer, objectIds, i, j, Math.min(i + step, endX), Math.min(j + step, endY),
+                            decideColor(packet.getRay(ray), intersections[ray], scene, maxDepth).getRGB(), objectId);
+                    if (costs != null) {
+                        meter.stop();
+                        costs.set(i, j, Math.min(i + step, endX), Math.min(j + step, endY),
+                                packetNanos + meter.nanos, packetRays + meter.rays, packetTests + meter.tests);
+                    }
+                }
+                traced += packet.getSize();
+            }
+        }
+        return traced;
+    }
+
+    /**
+     * Sets every pixel of a rectangle of the frame buffer to the same color and object id.
+     *
+     * @param frameBuffer The frame buffer to draw into
+     * @param objectIds The buffer of object ids to fill (can be null)
+     * @param x The x-coordinate of the top-left pixel of the rectangle
+     * @param y The y-coordinate of the top-left pixel of the rectangle
+     * @param endX The x-coordinate past the right edge of the rectangle
+     * @param endY The y-coordinate past the bottom edge of the rectangle
+     * @param rgb The packed RGB value to set
+     * @param objectId The object id to set
+     */
+    private static void fill(FrameBuffer frameBuffer, FrameBuffer objectIds, int x, int y, int endX, int endY, int rgb, int objectId) {
+        for (int j = y; j < endY; j++) {
+            for (int i = x; i < endX; i++) {
+                frameBuffer.setRGB(i, j, rgb);
+                if (objectIds != null) {
+                    objectIds.setValue(frameBuffer.indexOf(i, j), objectId);
+                }
             }
         }
-        return closestIntersection;
     }
 
     /**
-     * Creates a Runnable task that performs drawing at a specific pixel.
+     * Gets an id of the object hit by a primary ray, used to find the edges of objects in the image.
+     * Ids are identity hash codes, so two objects may rarely share one; that only hides an edge from anti-aliasing.
      *
-     * @param i X-coordinate of the pixel
-     * @param j Y-coordinate of the pixel
-     * @param posRaytrace Positions to raytrace
-     * @param pos Position vector
-     * @param mainCamera The main camera
-     * @param objects List of objects in the scene
-     * @param nearFarPlanes Near and far clipping planes
-     * @param cameraZ Z-coordinate of the camera
-     * @param lights List of lights in the scene
-     * @return A Runnable task for drawing the specified pixel
+     * @param intersection The closest intersection of the ray, or null if it hit nothing
+     * @return The id of the object hit, or 0 if the ray hit nothing
      */
-    public static Runnable draw(int i, int j, Vector3D[][] posRaytrace, Vector3D pos, Camera mainCamera, List<Object3D> objects,
-                                double[] nearFarPlanes, double cameraZ, List<Light> lights) {
-        Runnable aRunnable = new Runnable() {
-            @Override
-            public void run() {
-                Color color = decideColor(i, j, posRaytrace, pos, mainCamera, objects, nearFarPlanes, cameraZ, lights);
-                setRGB(i, j, color);
+    private static int objectId(Intersection intersection) {
+        return intersection == null ? 0 : System.identityHashCode(intersection.getObject());
+    }
+
+    /**
+     * Anti-aliases the pixels of a tile that lie on an edge: pixels whose color differs from one of their four
+     * neighbors by more than the contrast threshold in any channel, or whose neighbor shows a different object.
+     * Each of those pixels is traced again with a grid of jittered samples spread over its area,
+     * which are averaged with the original sample. The jitter is seeded by the tile, so renders are repeatable.
+     *
+     * @param tile The tile to anti-alias
+     * @param frameBuffer The frame buffer to draw into
+     * @param colors A copy of the colors of the frame buffer before anti-aliasing, used to find the edges
+     * @param objectIds The ids of the objects hit by the primary rays
+     * @param costs The buffer the cost of the extra samples is added to (can be null)
+     * @param scene The scene being rendered
+     * @param supersamplingGrid The number of samples per side of the grid traced for every pixel on an edge
+     * @param maxDepth The maximum number of surfaces visited by a ray
+     * @param budget The budget of the render
+     * @param costPerSample The estimated time of a sample on one thread, in milliseconds
+     * @return The number of pixels anti-aliased, or -1 if the tile was skipped because it would not fit before the deadline
+     */
+    public static int antialias(Tile tile, FrameBuffer frameBuffer, FrameBuffer colors, FrameBuffer objectIds, CostBuffer costs,
+                                Scene scene, int supersamplingGrid, int maxDepth, RenderBudget budget, double costPerSample) {
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+        int threshold = (int) (contrastThreshold * 255);
+        int[] edges = new int[tile.getWidth() * tile.getHeight()];
+        int edgeCount = 0;
+        for (int j = tile.getY(); j < tile.getY() + tile.getHeight(); j++) {
+            for (int i = tile.getX(); i < tile.getX() + tile.getWidth(); i++) {
+                int index = frameBuffer.indexOf(i, j);
+                if ((i > 0 && isEdge(colors, objectIds, index, index - 1, threshold)) ||
+                        (i < width - 1 && isEdge(colors, objectIds, index, index + 1, threshold)) ||
+                        (j > 0 && isEdge(colors, objectIds, index, index - width, threshold)) ||
+                        (j < height - 1 && isEdge(colors, objectIds, index, index + width, threshold))) {
+                    edges[edgeCount++] = index;
+                }
+            }
+        }
+
+        int samples = supersamplingGrid * supersamplingGrid;
+        if (budget.getRemainingMillis() < costPerSample * samples * edgeCount) {
+            return -1;
+        }
+        Camera mainCamera = scene.getCamera();
+        double[] clippingPlanes = primaryClippingPlanes(mainCamera);
+        int packetLimit = Math.max(1, Math.min(packetSize, RayPacket.MAX_SIZE));
+        SplittableRandom random = new SplittableRandom(((long) tile.getY() << 32) | tile.getX());
+        RayPacket packet = new RayPacket();
+        CostMeter meter = new CostMeter();
+        for (int e = 0; e < edgeCount; e++) {
+            if (costs != null) {
+                meter.start();
             }
-        };
-        return aRunnable;
+            int index = edges[e];
+            int x = index % width;
+            int y = index / width;
+            int rgb = colors.getValue(index);
+            int red = (rgb >> 16) & 0xFF;
+            int green = (rgb >> 8) & 0xFF;
+            int blue = rgb & 0xFF;
+            for (int sample = 0; sample < samples; sample++) {
+                double sampleX = x - 0.5 + (sample % supersamplingGrid + random.nextDouble()) / supersamplingGrid;
+                double sampleY = y - 0.5 + (sample / supersamplingGrid + random.nextDouble()) / supersamplingGrid;
+                packet.add(mainCamera.getPrimaryRay(sampleX, sampleY));
+                if (packet.getSize() == packetLimit || sample == samples - 1) {
+                    Intersection[] intersections = raycast(packet, scene, null, clippingPlanes);
+                    RenderStatistics.countPrimaryRays(packet.getSize());
+                    for (int ray = 0; ray < packet.getSize(); ray++) {
+                        Color color = decideColor(packet.getRay(ray), intersections[ray], scene, maxDepth);
+                        red += color.getRed();
+                        green += color.getGreen();
+                        blue += color.getBlue();
+                    }
+                    packet.clear();
+                }
+            }
+            int count = samples + 1;
+            frameBuffer.setRGB(x, y, ((red + count / 2) / count) << 16 | ((green + count / 2) / count) << 8 | (blue + count / 2) / count);
+            if (costs != null) {
+                meter.stop();
+                costs.add(x, y, meter.nanos, meter.rays, meter.tests);
+            }
+        }
+        return edgeCount;
+    }
+
+    /**
+     * Checks whether two pixels are separated by an edge.
+     *
+     * @param colors The packed RGB colors of the image
+     * @param objectIds The ids of the objects hit by the primary rays
+     * @param a The index of the first pixel
+     * @param b The index of the second pixel
+     * @param threshold The largest difference in any channel that is not an edge
+     * @return True if the pixels show different objects or their colors differ by more than the threshold
+     */
+    private static boolean isEdge(FrameBuffer colors, FrameBuffer objectIds, int a, int b, int threshold) {
+        if (objectIds.getValue(a) != objectIds.getValue(b)) {
+            return true;
+        }
+        int colorA = colors.getValue(a);
+        int colorB = colors.getValue(b);
+        return Math.abs(((colorA >> 16) & 0xFF) - ((colorB >> 16) & 0xFF)) > threshold ||
+                Math.abs(((colorA >> 8) & 0xFF) - ((colorB >> 8) & 0xFF)) > threshold ||
+                Math.abs((colorA & 0xFF) - (colorB & 0xFF)) > threshold;
     }
 
     /**
-     * Decides the color of a specific pixel based on the ray tracing algorithm.
+     * Gets the clipping planes applied to the primary rays of a camera, as absolute Z coordinates.
      *
-     * @param i X-coordinate of the pixel
-     * @param j Y-coordinate of the pixel
-     * @param posRaytrace Positions to raytrace
-     * @param pos Position vector
-     * @param mainCamera The main camera
-     * @param objects List of objects in the scene
-     * @param nearFarPlanes Near and far clipping planes
-     * @param cameraZ Z-coordinate of the camera
-     * @param lights List of lights in the scene
+     * @param camera The camera generating the primary rays
+     * @return The near and far clipping planes
+     */
+    private static double[] primaryClippingPlanes(Camera camera) {
+        double[] nearFarPlanes = camera.getNearFarPlanes();
+        double cameraZ = camera.getPosition().getZ();
+        return new double[]{cameraZ + nearFarPlanes[0], cameraZ + nearFarPlanes[1]};
+    }
+
+    /**
+     * Decides the color of an image coordinate based on the ray tracing algorithm.
+     * The primary ray is generated by the camera on demand, so fractional coordinates can be used for sub-pixel samples.
+     *
+     * @param x Horizontal image coordinate, in pixels
+     * @param y Vertical image coordinate, in pixels
+     * @param scene The scene being rendered
      * @return The color of the pixel
      */
-    public static Color decideColor(int i, int j, Vector3D[][] posRaytrace, Vector3D pos, Camera mainCamera, List<Object3D> objects,
-                                    double[] nearFarPlanes, double cameraZ, List<Light> lights) {
-        double x = posRaytrace[i][j].getX() + pos.getX();
-        double y = posRaytrace[i][j].getY() + pos.getY();
-        double z = posRaytrace[i][j].getZ() + pos.getZ();
-
-        Ray ray = new Ray(mainCamera.getPosition(), new Vector3D(x, y, z));
-        Intersection closestIntersection = raycast(ray, objects, null,
-                new double[]{cameraZ + nearFarPlanes[0], cameraZ + nearFarPlanes[1]});
-        Color pixelColor = Color.BLACK;
+    public static Color decideColor(double x, double y, Scene scene) {
+        return decideColor(x, y, scene, RenderBudget.DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Decides the color of an image coordinate, visiting at most the given number of surfaces.
+     *
+     * @param x Horizontal image coordinate, in pixels
+     * @param y Vertical image coordinate, in pixels
+     * @param scene The scene being rendered
+     * @param maxDepth The maximum number of surfaces visited by the ray, counting the first one
+     * @return The color of the pixel
+     */
+    public static Color decideColor(double x, double y, Scene scene, int maxDepth) {
+        Camera mainCamera = scene.getCamera();
+        Ray ray = mainCamera.getPrimaryRay(x, y);
+        RenderStatistics.countPrimaryRays(1);
+        return decideColor(ray, raycast(ray, scene, null, primaryClippingPlanes(mainCamera)), scene, maxDepth);
+    }
+
+    /**
+     * Decides the color of a primary ray whose closest intersection is already known,
+     * following its reflections and refractions and shading every surface it reaches.
+     *
+     * @param ray The primary ray, which is reused for the following bounces
+     * @param closestIntersection The closest intersection of the primary ray, or null if it hit nothing
+     * @param scene The scene being rendered
+     * @return The color of the ray
+     */
+    public static Color decideColor(Ray ray, Intersection closestIntersection, Scene scene) {
+        return decideColor(ray, closestIntersection, scene, RenderBudget.DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Decides the color of a primary ray whose closest intersection is already known,
+     * visiting at most the given number of surfaces.
+     *
+     * @param ray The primary ray, which is reused for the following bounces
+     * @param closestIntersection The closest intersection of the primary ray, or null if it hit nothing
+     * @param scene The scene being rendered
+     * @param maxDepth The maximum number of surfaces visited by the ray, counting the first one
+     * @return The color of the ray
+     */
+    public static Color decideColor(Ray ray, Intersection closestIntersection, Scene scene, int maxDepth) {
+        double[] nearFarPlanes = scene.getCamera().getNearFarPlanes();
+        List<Light> lights = scene.getLights();
+
+        int red = 0;
+        int green = 0;
+        int blue = 0;
         int cont = 0;
         double reflection = 1;
         boolean refraction = false;
         double eta = 1.0;
 
+        Ray rayToLight = null;
+        Vector3D incident = Vector3D.ZERO();
+        Vector3D nextRayDirection = Vector3D.ZERO();
+        Vector3D lightDirection = Vector3D.ZERO();
+
         if (closestIntersection != null) {
             do {
                 if (cont != 0){
                     refraction = false;
-                    Vector3D nextRayDirection = null;
-                    Vector3D incident = Vector3D.normalize(Vector3D.substract(closestIntersection.getPosition(), ray.getOrigin()));
+                    boolean refracted = false;
+                    Vector3D normal = closestIntersection.getNormal();
+                    Vector3D.normalize(Vector3D.substract(closestIntersection.getPosition(), ray.getOrigin(), incident), incident);
 
                     if (closestIntersection.getObject().getRefractionIndex() != 0) {
-                        pixelColor = multiplyColor(pixelColor, 0.5);
+                        red = multiplyChannel(red, 0.5);
+                        green = multiplyChannel(green, 0.5);
+                        blue = multiplyChannel(blue, 0.5);
 
-                        double cosI = Vector3D.dotProduct(Vector3D.scalarMultiplication(incident, -1), closestIntersection.getNormal());
+                        double cosI = Vector3D.dotProduct(-incident.getX(), -incident.getY(), -incident.getZ(),
+                                normal.getX(), normal.getY(), normal.getZ());
                         double etaI = eta;
                         double etaT = closestIntersection.getObject().getRefractionIndex();
 
                         if (cosI < 0) {
                             cosI = -cosI;
-                            closestIntersection.setNormal(Vector3D.scalarMultiplication(closestIntersection.getNormal(), -1));
+                            Vector3D.scalarMultiplication(normal, -1, normal);
                             double temp = etaI;
                             etaI = etaT;
                             etaT = temp;
@@ -284,108 +942,112 @@ public class Raytracer {
 
                         if (sinT2 <= 1.0) {
                             double cosT = Math.sqrt(1.0 - sinT2);
-                            nextRayDirection = Vector3D.add(Vector3D.scalarMultiplication(incident, etaRatio), Vector3D.scalarMultiplication(closestIntersection.getNormal(), etaRatio * cosI - cosT));
+                            double normalFactor = etaRatio * cosI - cosT;
+                            nextRayDirection.set(incident.getX() * etaRatio + normal.getX() * normalFactor,
+                                    incident.getY() * etaRatio + normal.getY() * normalFactor,
+                                    incident.getZ() * etaRatio + normal.getZ() * normalFactor);
+                            refracted = true;
                         }
 
                         eta = etaT;
                     }
 
-                    if (nextRayDirection == null) {
-                        pixelColor = multiplyColor(pixelColor, 1 - closestIntersection.getObject().getReflectivenessIndex());
+                    if (!refracted) {
+                        double reflectiveness = 1 - closestIntersection.getObject().getReflectivenessIndex();
+                        red = multiplyChannel(red, reflectiveness);
+                        green = multiplyChannel(green, reflectiveness);
+                        blue = multiplyChannel(blue, reflectiveness);
 
-                        nextRayDirection = Vector3D.substract(incident,
-                                Vector3D.scalarMultiplication(closestIntersection.getNormal(), 2 * Vector3D.dotProduct(incident, closestIntersection.getNormal())));
+                        double normalFactor = 2 * Vector3D.dotProduct(incident, normal);
+                        nextRayDirection.set(incident.getX() - normal.getX() * normalFactor,
+                                incident.getY() - normal.getY() * normalFactor,
+                                incident.getZ() - normal.getZ() * normalFactor);
                     }
 
-                    ray = new Ray(closestIntersection.getPosition(), Vector3D.normalize(nextRayDirection));
-                    closestIntersection = raycast(ray, objects, closestIntersection.getObject(), new double[]{0.0, nearFarPlanes[1]});
+                    ray.setOrigin(closestIntersection.getPosition());
+                    ray.setDirection(Vector3D.normalize(nextRayDirection, nextRayDirection));
+                    closestIntersection = raycast(ray, scene, closestIntersection.getObject(), new double[]{0.0, nearFarPlanes[1]});
+                    RenderStatistics.countSecondaryRay();
                 }
                 if (closestIntersection != null) {
                     cont += 1;
-                    Color objColor = closestIntersection.getObject().getColor();
+                    Object3D object = closestIntersection.getObject();
+                    RenderStatistics.countHit(object);
+                    Color objColor = object.getColor();
+                    Vector3D position = closestIntersection.getPosition();
+                    Vector3D normal = closestIntersection.getNormal();
                     for (Light light : lights) {
-                        Ray rayToLight;
-                        Intersection intersectionBeforeLight = null;
+                        boolean inShadow = false;
+                        double lightDistance = Double.POSITIVE_INFINITY;
+                        boolean castShadow = true;
                         if (light.getClass().equals(PointLight.class)) {
-                            rayToLight = new Ray(closestIntersection.getPosition(),
-                                    Vector3D.normalize(
-                                            Vector3D.substract(light.getPosition(), closestIntersection.getPosition())));
-                            intersectionBeforeLight = raycast(rayToLight, objects, closestIntersection.getObject(),
-                                    new double[]{0, Vector3D.magnitude(Vector3D.substract(light.getPosition(), closestIntersection.getPosition()))});
+                            Vector3D.substract(light.getPosition(), position, lightDirection);
+                            lightDistance = Vector3D.magnitude(lightDirection);
+                            Vector3D.normalize(lightDirection, lightDirection);
                         } else if (light.getClass().equals(DirectionalLight.class)) {
-                            rayToLight = new Ray(closestIntersection.getPosition(), Vector3D.scalarMultiplication(((DirectionalLight) light).getDirection(), -1));
-                            intersectionBeforeLight = raycast(rayToLight, objects, closestIntersection.getObject(), null);
-                        }  else if (light.getClass().equals(SpotLight.class)) {
-                            rayToLight = new Ray(closestIntersection.getPosition(), Vector3D.scalarMultiplication(((SpotLight) light).getDirection(), -1));
-                            intersectionBeforeLight = raycast(rayToLight, objects, closestIntersection.getObject(), null);
+                            Vector3D.scalarMultiplication(((DirectionalLight) light).getDirection(), -1, lightDirection);
+                        } else if (light.getClass().equals(SpotLight.class)) {
+                            Vector3D.scalarMultiplication(((SpotLight) light).getDirection(), -1, lightDirection);
+                        } else {
+                            castShadow = false;
+                        }
+
+                        if (castShadow) {
+                            if (rayToLight == null) {
+                                rayToLight = new Ray(position, lightDirection);
+                            } else {
+                                rayToLight.setOrigin(position);
+                                rayToLight.setDirection(lightDirection);
+                            }
+                            inShadow = occluded(rayToLight, scene, object, lightDistance);
+                            RenderStatistics.countShadowRay();
                         }
 
-                        if (intersectionBeforeLight == null) {
+                        if (!inShadow) {
                             double nDotL = light.getNDotL(closestIntersection);
                             Color lightColor = light.getColor();
                             double intensity = light.getIntensity() * nDotL;
                             if (light.getClass().equals(PointLight.class)) {
-                                double distance = Vector3D.magnitude(Vector3D.substract(closestIntersection.getPosition(), light.getPosition()));
+                                Vector3D lightPosition = light.getPosition();
+                                double wx = position.getX() - lightPosition.getX();
+                                double wy = position.getY() - lightPosition.getY();
+                                double wz = position.getZ() - lightPosition.getZ();
+                                double distance = Vector3D.magnitude(wx, wy, wz);
                                 double diffuse = intensity / Math.pow(distance, 2);
-                                Vector3D L_V = Vector3D.add(ray.getDirection(),
-                                        Vector3D.normalize(Vector3D.substract(closestIntersection.getPosition(), light.getPosition())));
-                                Vector3D H = Vector3D.scalarMultiplication(L_V, 1 / Vector3D.magnitude(L_V));
-
-                                double specular = Math.pow(Vector3D.dotProduct(closestIntersection.getNormal(), H), closestIntersection.getObject().getShininess());
-                                intensity *= diffuse + specular;
-                            } else if (light.getClass().equals(DirectionalLight.class)) {
-                                double distance = Vector3D.magnitude(Vector3D.scalarMultiplication(((DirectionalLight) light).getDirection(), -1));
+                                intensity *= diffuse + specular(ray.getDirection(), normal, wx, wy, wz, object.getShininess());
+                            } else if (light.getClass().equals(DirectionalLight.class) || light.getClass().equals(SpotLight.class)) {
+                                Vector3D direction = light.getClass().equals(DirectionalLight.class) ?
+                                        ((DirectionalLight) light).getDirection() : ((SpotLight) light).getDirection();
+                                double distance = Vector3D.magnitude(-direction.getX(), -direction.getY(), -direction.getZ());
                                 double diffuse = intensity / Math.pow(distance, 1);
-                                Vector3D L_V = Vector3D.add(ray.getDirection(),
-                                        Vector3D.normalize(Vector3D.substract(closestIntersection.getPosition(), Vector3D.scalarMultiplication(((DirectionalLight) light).getDirection(), -1))));
-                                Vector3D H = Vector3D.scalarMultiplication(L_V, 1 / Vector3D.magnitude(L_V));
-
-                                double specular = Math.pow(Vector3D.dotProduct(closestIntersection.getNormal(), H), closestIntersection.getObject().getShininess());
-                                intensity *= diffuse + specular;
-                            } else if (light.getClass().equals(SpotLight.class)) {
-                                double distance = Vector3D.magnitude(Vector3D.scalarMultiplication(((SpotLight) light).getDirection(), -1));
-                                double diffuse = intensity / Math.pow(distance, 1);
-                                Vector3D L_V = Vector3D.add(ray.getDirection(),
-                                        Vector3D.normalize(Vector3D.substract(closestIntersection.getPosition(), Vector3D.scalarMultiplication(((SpotLight) light).getDirection(), -1))));
-                                Vector3D H = Vector3D.scalarMultiplication(L_V, 1 / Vector3D.magnitude(L_V));
-
-                                double specular = Math.pow(Vector3D.dotProduct(closestIntersection.getNormal(), H), closestIntersection.getObject().getShininess());
-                                intensity *= diffuse + specular;
+                                intensity *= diffuse + specular(ray.getDirection(), normal,
+                                        position.getX() + direction.getX(),
+                                        position.getY() + direction.getY(),
+                                        position.getZ() + direction.getZ(), object.getShininess());
                             }
 
-                            double[] lightColors = new double[]{lightColor.getRed() / 255.0, lightColor.getGreen() / 255.0, lightColor.getBlue() / 255.0};
-                            double[] objColors = new double[]{objColor.getRed() / 255.0, objColor.getGreen() / 255.0, objColor.getBlue() / 255.0};
-
-                            for (int colorIndex = 0; colorIndex < objColors.length; colorIndex++) {
-                                objColors[colorIndex] *= intensity * lightColors[colorIndex] * reflection;
-                            }
-                            Color diffuse = new Color(
-                                    (float) clamp(objColors[0], 0.0, 1.0),
-                                    (float) clamp(objColors[1], 0.0, 1.0),
-                                    (float) clamp(objColors[2], 0.0, 1.0));
-                            pixelColor = addColor(pixelColor, diffuse);
+                            red = addChannel(red, objColor.getRed() / 255.0 * (intensity * (lightColor.getRed() / 255.0) * reflection));
+                            green = addChannel(green, objColor.getGreen() / 255.0 * (intensity * (lightColor.getGreen() / 255.0) * reflection));
+                            blue = addChannel(blue, objColor.getBlue() / 255.0 * (intensity * (lightColor.getBlue() / 255.0) * reflection));
                         }
                     }
-                    if (closestIntersection.getObject().getRefractionIndex() != 0) {
+                    if (object.getRefractionIndex() != 0) {
                         refraction = true;
                     } else {
-                        reflection = reflection * (closestIntersection.getObject().getReflectivenessIndex());
+                        reflection = reflection * (object.getReflectivenessIndex());
                     }
                 }
-            } while (cont < 4 && closestIntersection != null && (reflection > 0 || refraction));
+            } while (cont < maxDepth && closestIntersection != null && (reflection > 0 || refraction));
 
+            // A ray cut short by a reduced depth drops the light it would have gathered further on,
+            // but the surface is still dimmed the way the following bounce would have dimmed it
+            if (maxDepth < RenderBudget.DEFAULT_MAX_DEPTH && cont == maxDepth && closestIntersection != null && (reflection > 0 || refraction)) {
+                double factor = refraction ? 0.5 : 1 - closestIntersection.getObject().getReflectivenessIndex();
+                red = multiplyChannel(red, factor);
+                green = multiplyChannel(green, factor);
+                blue = multiplyChannel(blue, factor);
+            }
         }
-        return pixelColor;
-    }
-
-    /**
-     * Sets the RGB color of a specific pixel.
-     *
-     * @param x The x-coordinate of the pixel
-     * @param y The y-coordinate of the pixel
-     * @param color The color to set
-     */
-    public static synchronized void setRGB(int x, int y, Color color) {
-        image.setRGB(x,y,color.getRGB());
+        return new Color(red, green, blue);
     }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package edu.up.isgc.cg.raytracer;
 
+import edu.up.isgc.cg.raytracer.acceleration.BVH;
+import edu.up.isgc.cg.raytracer.acceleration.BoundingBox;
 import edu.up.isgc.cg.raytracer.lights.Light;
 import edu.up.isgc.cg.raytracer.objects.Object3D;
 import edu.up.isgc.cg.raytracer.objects.Camera;
@@ -14,6 +16,7 @@ public class Scene {
     private Camera camera;
     private List<Object3D> objects;
     private  List<Light> lights;
+    private volatile ObjectHierarchy hierarchy;
 
     /**
      * Constructs an empty scene with no camera, objects, or lights.
@@ -48,6 +51,7 @@ public class Scene {
      */
     public void addObject(Object3D object){
         getObjects().add(object);
+        hierarchy = null;
     }
 
     /**
@@ -69,6 +73,96 @@ public class Scene {
      */
     public void setObjects(List<Object3D> objects) {
         this.objects = objects;
+        hierarchy = null;
+    }
+
+    /**
+     * Visits the objects whose bounding boxes are hit by the ray, nearest first.
+     * Objects without bounds are always visited before the rest.
+     * The visitor receives the index of each object in the list of objects of the scene.
+     *
+     * @param ray         The ray to traverse the scene with
+     * @param maxDistance The initial maximum distance of interest along the ray
+     * @param visitor     The visitor that tests the objects
+     */
+    public void traverse(Ray ray, double maxDistance, BVH.Visitor visitor) {
+        ObjectHierarchy current = getHierarchy();
+        for (int index : current.unbounded) {
+            maxDistance = visitor.visit(index, maxDistance);
+            if (maxDistance < 0) {
+                return;
+            }
+        }
+        if (current.bvh != null) {
+            BVH.Visitor boundedVisitor = (primitive, distance) -> visitor.visit(current.bounded[primitive], distance);
+            current.bvh.traverse(ray, maxDistance, boundedVisitor);
+        }
+    }
+
+    /**
+     * Visits the objects whose bounding boxes are hit by at least one ray of a packet.
+     * Objects without bounds are always visited before the rest.
+     * The visitor receives the index of each object in the list of objects of the scene.
+     *
+     * @param packet  The packet of rays to traverse the scene with
+     * @param visitor The visitor that tests the objects
+     */
+    public void traverse(RayPacket packet, BVH.PacketVisitor visitor) {
+        ObjectHierarchy current = getHierarchy();
+        for (int index : current.unbounded) {
+            visitor.visit(index, packet);
+        }
+        if (current.bvh != null) {
+            current.bvh.traverse(packet, (primitive, rays) -> visitor.visit(current.bounded[primitive], rays));
+        }
+    }
+
+    /**
+     * Gets the top-level hierarchy over the objects, rebuilding it if objects were added since it was built.
+     *
+     * @return The top-level hierarchy of the scene
+     */
+    private ObjectHierarchy getHierarchy() {
+        ObjectHierarchy current = hierarchy;
+        if (current == null || current.objectCount != getObjects().size()) {
+            synchronized (this) {
+                current = hierarchy;
+                if (current == null || current.objectCount != getObjects().size()) {
+                    current = new ObjectHierarchy(getObjects());
+                    hierarchy = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Top-level BVH over the world-space bounding boxes of the objects of a scene.
+     */
+    private static class ObjectHierarchy {
+        private final int objectCount;
+        private final int[] bounded;
+        private final int[] unbounded;
+        private final BVH bvh;
+
+        private ObjectHierarchy(List<Object3D> objects) {
+            objectCount = objects.size();
+            List<BoundingBox> boxes = new ArrayList<>();
+            List<Integer> boundedIndices = new ArrayList<>();
+            List<Integer> unboundedIndices = new ArrayList<>();
+            for (int i = 0; i < objects.size(); i++) {
+                BoundingBox box = objects.get(i).getBoundingBox();
+                if (box == null || box.isEmpty()) {
+                    unboundedIndices.add(i);
+                } else {
+                    boxes.add(box);
+                    boundedIndices.add(i);
+                }
+            }
+            bounded = boundedIndices.stream().mapToInt(Integer::intValue).toArray();
+            unbounded = unboundedIndices.stream().mapToInt(Integer::intValue).toArray();
+            bvh = boxes.isEmpty() ? null : new BVH(boxes.toArray(new BoundingBox[0]));
+        }
     }
 
     /**
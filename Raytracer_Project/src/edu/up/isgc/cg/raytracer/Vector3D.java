@@ -178,4 +178,123 @@ public class Vector3D {
     public static Vector3D scalarMultiplication(Vector3D vectorA, double scalar){
         return new Vector3D(vectorA.getX() * scalar, vectorA.getY() * scalar, vectorA.getZ() * scalar);
     }
+
+    /**
+     * Sets the x, y, and z components of the vector.
+     *
+     * @param x The x component to set
+     * @param y The y component to set
+     * @param z The z component to set
+     * @return This vector, for chaining
+     */
+    public Vector3D set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    /**
+     * Copies the components of another vector into this vector.
+     *
+     * @param vectorA The vector to copy
+     * @return This vector, for chaining
+     */
+    public Vector3D set(Vector3D vectorA) {
+        return set(vectorA.x, vectorA.y, vectorA.z);
+    }
+
+    /**
+     * Calculates the dot product of two vectors given by their components.
+     *
+     * @param ax The x component of the first vector
+     * @param ay The y component of the first vector
+     * @param az The z component of the first vector
+     * @param bx The x component of the second vector
+     * @param by The y component of the second vector
+     * @param bz The z component of the second vector
+     * @return The dot product of the two vectors
+     */
+    public static double dotProduct(double ax, double ay, double az, double bx, double by, double bz) {
+        return (ax * bx) + (ay * by) + (az * bz);
+    }
+
+    /**
+     * Calculates the magnitude (length) of a vector given by its components.
+     *
+     * @param x The x component of the vector
+     * @param y The y component of the vector
+     * @param z The z component of the vector
+     * @return The magnitude of the vector
+     */
+    public static double magnitude(double x, double y, double z) {
+        return Math.sqrt(dotProduct(x, y, z, x, y, z));
+    }
+
+    /**
+     * Calculates the cross product of two vectors and stores it in a result vector without allocating.
+     * The result may be one of the operands.
+     *
+     * @param vectorA The first vector
+     * @param vectorB The second vector
+     * @param result  The vector that receives the cross product
+     * @return The result vector
+     */
+    public static Vector3D crossProduct(Vector3D vectorA, Vector3D vectorB, Vector3D result){
+        return result.set((vectorA.y * vectorB.z) - (vectorA.z * vectorB.y),
+                (vectorA.z * vectorB.x) - (vectorA.x * vectorB.z),
+                (vectorA.x * vectorB.y) - (vectorA.y * vectorB.x));
+    }
+
+    /**
+     * Adds two vectors together and stores the sum in a result vector without allocating.
+     * The result may be one of the operands.
+     *
+     * @param vectorA The first vector
+     * @param vectorB The second vector
+     * @param result  The vector that receives the sum
+     * @return The result vector
+     */
+    public static Vector3D add(Vector3D vectorA, Vector3D vectorB, Vector3D result){
+        return result.set(vectorA.x + vectorB.x, vectorA.y + vectorB.y, vectorA.z + vectorB.z);
+    }
+
+    /**
+     * Subtracts one vector from another and stores the difference in a result vector without allocating.
+     * The result may be one of the operands.
+     *
+     * @param vectorA The vector to subtract from
+     * @param vectorB The vector to subtract
+     * @param result  The vector that receives the difference
+     * @return The result vector
+     */
+    public static Vector3D substract(Vector3D vectorA, Vector3D vectorB, Vector3D result){
+        return result.set(vectorA.x - vectorB.x, vectorA.y - vectorB.y, vectorA.z - vectorB.z);
+    }
+
+    /**
+     * Normalizes a vector and stores it in a result vector without allocating.
+     * The result may be the vector being normalized.
+     *
+     * @param vectorA The vector to normalize
+     * @param result  The vector that receives the normalized vector
+     * @return The result vector
+     */
+    public static Vector3D normalize(Vector3D vectorA, Vector3D result){
+        double mag = Vector3D.magnitude(vectorA);
+        return result.set(vectorA.x / mag, vectorA.y / mag, vectorA.z / mag);
+    }
+
+    /**
+     * Multiplies a vector by a scalar and stores it in a result vector without allocating.
+     * The result may be the vector being multiplied.
+     *
+     * @param vectorA The vector to multiply
+     * @param scalar  The scalar to multiply by
+     * @param result  The vector that receives the multiplication
+     * @return The result vector
+     */
+    public static Vector3D scalarMultiplication(Vector3D vectorA, double scalar, Vector3D result){
+        return result.set(vectorA.x * scalar, vectorA.y * scalar, vectorA.z * scalar);
+    }
 }
@@ -0,0 +1,659 @@
+package edu.up.isgc.cg.raytracer.acceleration;
+
+import edu.up.isgc.cg.raytracer.Ray;
+import edu.up.isgc.cg.raytracer.RayPacket;
+import edu.up.isgc.cg.raytracer.Vector3D;
+import edu.up.isgc.cg.raytracer.render.RenderStatistics;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy built over a set of primitives using a binned surface area heuristic.
+ * The tree is stored in flat arrays so that traversal does not chase object references.
+ * Primitives are referenced by the index they had in the array of bounds used to build the tree.
+ */
+public class BVH {
+    public static final int BIN_COUNT = 12;
+    public static final int MAX_LEAF_SIZE = 4;
+    public static final double TRAVERSAL_COST = 1.0;
+    public static final double BOX_PADDING = 1e-9;
+
+    private double[] nodeBounds;
+    private int[] nodeFirst;
+    private int[] nodeCount;
+    private int nodesUsed;
+    private int[] primitiveIndices;
+
+    /**
+     * Receives the primitives stored in the leaves reached by a ray during a traversal.
+     */
+    public interface Visitor {
+        /**
+         * Tests a primitive against the ray being traversed.
+         *
+         * @param primitive   The index of the primitive
+         * @param maxDistance The current maximum distance of interest along the ray
+         * @return The new maximum distance of interest, or a negative value to stop the traversal
+         */
+        double visit(int primitive, double maxDistance);
+    }
+
+    /**
+     * Receives the leaves reached by a ray during a traversal, so their primitives can be tested together.
+     */
+    public interface LeafVisitor {
+        /**
+         * Tests the primitives of a leaf against the ray being traversed.
+         *
+         * @param first       The position in {@link #getPrimitiveIndices()} of the first primitive of the leaf
+         * @param count       The number of primitives of the leaf
+         * @param maxDistance The current maximum distance of interest along the ray
+         * @return The new maximum distance of interest, or a negative value to stop the traversal
+         */
+        double visit(int first, int count, double maxDistance);
+    }
+
+    /**
+     * Receives the primitives stored in the leaves reached by a packet of rays during a traversal.
+     */
+    public interface PacketVisitor {
+        /**
+         * Tests a primitive against every ray of the packet, lowering the maximum distances of the rays it hits.
+         *
+         * @param primitive The index of the primitive
+         * @param packet    The packet being traversed
+         */
+        void visit(int primitive, RayPacket packet);
+    }
+
+    /**
+     * Builds a hierarchy over the given primitive bounds.
+     *
+     * @param primitiveBounds The bounds of every primitive, indexed by primitive
+     */
+    public BVH(BoundingBox[] primitiveBounds) {
+        build(primitiveBounds);
+    }
+
+    /**
+     * Restores a hierarchy from the arrays of a hierarchy built earlier, such as one read from a mesh cache file.
+     * The primitives are taken to be already stored in leaf order, as after {@link #useLeafOrder()}.
+     *
+     * @param nodeBounds     The minimum and maximum corners of every node, six values per node
+     * @param nodeFirst      The first child of every inner node, or the position of the first primitive of every leaf
+     * @param nodeCount      The number of primitives of every leaf, 0 for inner nodes
+     * @param primitiveCount The number of primitives stored in the hierarchy
+     */
+    public BVH(double[] nodeBounds, int[] nodeFirst, int[] nodeCount, int primitiveCount) {
+        if (nodeBounds.length != nodeFirst.length * 6 || nodeCount.length != nodeFirst.length) {
+            throw new IllegalArgumentException("Node arrays of a BVH must describe the same number of nodes");
+        }
+        this.nodeBounds = nodeBounds;
+        this.nodeFirst = nodeFirst;
+        this.nodeCount = nodeCount;
+        this.nodesUsed = nodeFirst.length;
+        this.primitiveIndices = new int[primitiveCount];
+        useLeafOrder();
+    }
+
+    /**
+     * Gets the number of primitives stored in the hierarchy.
+     *
+     * @return The number of primitives
+     */
+    public int getPrimitiveCount() {
+        return primitiveIndices.length;
+    }
+
+    /**
+     * Gets the number of nodes of the hierarchy.
+     *
+     * @return The number of nodes
+     */
+    public int getNodeCount() {
+        return nodesUsed;
+    }
+
+    /**
+     * Gets the order in which the primitives are stored in the leaves.
+     *
+     * @return The primitive indices in leaf order
+     */
+    public int[] getPrimitiveIndices() {
+        return primitiveIndices;
+    }
+
+    /**
+     * Gets the minimum and maximum corners of every node.
+     *
+     * @return The bounds of the nodes, six values per node
+     */
+    public double[] getNodeBounds() {
+        return Arrays.copyOf(nodeBounds, nodesUsed * 6);
+    }
+
+    /**
+     * Gets the first child of every inner node, or the position in leaf order of the first primitive of every leaf.
+     *
+     * @return The first child or primitive of the nodes
+     */
+    public int[] getNodeFirst() {
+        return Arrays.copyOf(nodeFirst, nodesUsed);
+    }
+
+    /**
+     * Gets the number of primitives of every node.
+     *
+     * @return The number of primitives of the leaves, 0 for inner nodes
+     */
+    public int[] getNodeCounts() {
+        return Arrays.copyOf(nodeCount, nodesUsed);
+    }
+
+    /**
+     * Renumbers the primitives so each one is identified by its position in leaf order.
+     * Callers must have stored their primitives in the order given by {@link #getPrimitiveIndices()} first;
+     * afterwards every leaf references a contiguous range of that storage.
+     */
+    public void useLeafOrder() {
+        for (int i = 0; i < primitiveIndices.length; i++) {
+            primitiveIndices[i] = i;
+        }
+    }
+
+    /**
+     * Gets the bounds of the whole hierarchy.
+     *
+     * @return The bounds of the root node
+     */
+    public BoundingBox getBounds() {
+        BoundingBox bounds = new BoundingBox();
+        if (nodesUsed > 0) {
+            bounds.expand(nodeBounds[0], nodeBounds[1], nodeBounds[2]);
+            bounds.expand(nodeBounds[3], nodeBounds[4], nodeBounds[5]);
+        }
+        return bounds;
+    }
+
+    /**
+     * Visits the primitives of every leaf whose bounds are hit by the ray, nearest nodes first.
+     * Nodes farther away than the maximum distance returned by the visitor are skipped.
+     *
+     * @param ray         The ray to traverse the hierarchy with
+     * @param maxDistance The initial maximum distance of interest along the ray
+     * @param visitor     The visitor that tests the primitives
+     */
+    public void traverse(Ray ray, double maxDistance, Visitor visitor) {
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        traverse(origin.getX(), origin.getY(), origin.getZ(),
+                direction.getX(), direction.getY(), direction.getZ(), maxDistance, visitor);
+    }
+
+    /**
+     * Visits the primitives of every leaf whose bounds are hit by a ray given by its components.
+     * The direction does not need to be normalized; distances are then measured in multiples of its length.
+     *
+     * @param ox          The x component of the ray origin
+     * @param oy          The y component of the ray origin
+     * @param oz          The z component of the ray origin
+     * @param dx          The x component of the ray direction
+     * @param dy          The y component of the ray direction
+     * @param dz          The z component of the ray direction
+     * @param maxDistance The initial maximum distance of interest along the ray
+     * @param visitor     The visitor that tests the primitives
+     */
+    public void traverse(double ox, double oy, double oz, double dx, double dy, double dz,
+                         double maxDistance, Visitor visitor) {
+        traverseLeaves(ox, oy, oz, dx, dy, dz, maxDistance, (first, count, distance) -> {
+            for (int i = first; i < first + count; i++) {
+                distance = visitor.visit(primitiveIndices[i], distance);
+                if (distance < 0) {
+                    break;
+                }
+            }
+            return distance;
+        });
+    }
+
+    /**
+     * Visits every leaf whose bounds are hit by a ray given by its components, nearest nodes first.
+     * The direction does not need to be normalized; distances are then measured in multiples of its length.
+     *
+     * @param ox          The x component of the ray origin
+     * @param oy          The y component of the ray origin
+     * @param oz          The z component of the ray origin
+     * @param dx          The x component of the ray direction
+     * @param dy          The y component of the ray direction
+     * @param dz          The z component of the ray direction
+     * @param maxDistance The initial maximum distance of interest along the ray
+     * @param visitor     The visitor that tests the leaves
+     */
+    public void traverseLeaves(double ox, double oy, double oz, double dx, double dy, double dz,
+                               double maxDistance, LeafVisitor visitor) {
+        if (nodesUsed == 0) {
+            return;
+        }
+        double invX = 1.0 / dx;
+        double invY = 1.0 / dy;
+        double invZ = 1.0 / dz;
+
+        double rootEntry = intersectNode(0, ox, oy, oz, invX, invY, invZ, maxDistance);
+        if (rootEntry < 0) {
+            RenderStatistics.countNodeTests(1);
+            return;
+        }
+
+        int[] stack = new int[64];
+        double[] entries = new double[64];
+        int size = 0;
+        int tests = 1;
+        stack[size] = 0;
+        entries[size++] = rootEntry;
+
+        while (size > 0) {
+            size--;
+            int node = stack[size];
+            if (entries[size] > maxDistance) {
+                continue;
+            }
+
+            int count = nodeCount[node];
+            if (count > 0) {
+                maxDistance = visitor.visit(nodeFirst[node], count, maxDistance);
+                if (maxDistance < 0) {
+                    break;
+                }
+                continue;
+            }
+
+            int left = nodeFirst[node];
+            int right = left + 1;
+            tests += 2;
+            double leftEntry = intersectNode(left, ox, oy, oz, invX, invY, invZ, maxDistance);
+            double rightEntry = intersectNode(right, ox, oy, oz, invX, invY, invZ, maxDistance);
+
+            if (size + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            if (leftEntry >= 0 && rightEntry >= 0) {
+                int near = leftEntry <= rightEntry ? left : right;
+                int far = near == left ? right : left;
+                stack[size] = far;
+                entries[size++] = Math.max(leftEntry, rightEntry);
+                stack[size] = near;
+                entries[size++] = Math.min(leftEntry, rightEntry);
+            } else if (leftEntry >= 0) {
+                stack[size] = left;
+                entries[size++] = leftEntry;
+            } else if (rightEntry >= 0) {
+                stack[size] = right;
+                entries[size++] = rightEntry;
+            }
+        }
+        RenderStatistics.countNodeTests(tests);
+    }
+
+    /**
+     * Visits the primitives of every leaf whose bounds are hit by at least one ray of a packet.
+     * Every node is fetched once for the whole packet and tested against all its rays in lockstep,
+     * and children are visited in the order of the closest entry distance over the rays.
+     *
+     * @param packet  The packet to traverse the hierarchy with
+     * @param visitor The visitor that tests the primitives
+     */
+    public void traverse(RayPacket packet, PacketVisitor visitor) {
+        int rays = packet.getSize();
+        if (nodesUsed == 0 || rays == 0) {
+            return;
+        }
+        double[] invX = new double[rays];
+        double[] invY = new double[rays];
+        double[] invZ = new double[rays];
+        double[] directionX = packet.getDirectionX();
+        double[] directionY = packet.getDirectionY();
+        double[] directionZ = packet.getDirectionZ();
+        for (int i = 0; i < rays; i++) {
+            invX[i] = 1.0 / directionX[i];
+            invY[i] = 1.0 / directionY[i];
+            invZ[i] = 1.0 / directionZ[i];
+        }
+
+        double rootEntry = intersectNode(0, packet, invX, invY, invZ);
+        if (rootEntry < 0) {
+            RenderStatistics.countNodeTests(rays);
+            return;
+        }
+
+        int[] stack = new int[64];
+        double[] entries = new double[64];
+        int size = 0;
+        int tests = rays;
+        stack[size] = 0;
+        entries[size++] = rootEntry;
+
+        while (size > 0) {
+            size--;
+            int node = stack[size];
+            if (entries[size] > farthest(packet)) {
+                continue;
+            }
+
+            int count = nodeCount[node];
+            if (count > 0) {
+                int first = nodeFirst[node];
+                for (int i = first; i < first + count; i++) {
+                    visitor.visit(primitiveIndices[i], packet);
+                }
+                continue;
+            }
+
+            int left = nodeFirst[node];
+            int right = left + 1;
+            tests += 2 * rays;
+            double leftEntry = intersectNode(left, packet, invX, invY, invZ);
+            double rightEntry = intersectNode(right, packet, invX, invY, invZ);
+
+            if (size + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            if (leftEntry >= 0 && rightEntry >= 0) {
+                int near = leftEntry <= rightEntry ? left : right;
+                int far = near == left ? right : left;
+                stack[size] = far;
+                entries[size++] = Math.max(leftEntry, rightEntry);
+                stack[size] = near;
+                entries[size++] = Math.min(leftEntry, rightEntry);
+            } else if (leftEntry >= 0) {
+                stack[size] = left;
+                entries[size++] = leftEntry;
+            } else if (rightEntry >= 0) {
+                stack[size] = right;
+                entries[size++] = rightEntry;
+            }
+        }
+        RenderStatistics.countNodeTests(tests);
+    }
+
+    /**
+     * Gets the largest maximum distance of interest among the rays of a packet.
+     *
+     * @param packet The packet
+     * @return The largest maximum distance
+     */
+    private static double farthest(RayPacket packet) {
+        double[] maxDistances = packet.getMaxDistances();
+        double farthest = -1;
+        for (int i = 0; i < packet.getSize(); i++) {
+            farthest = maxDistances[i] > farthest ? maxDistances[i] : farthest;
+        }
+        return farthest;
+    }
+
+    /**
+     * Intersects the bounds of a node with every ray of a packet using the slab method.
+     *
+     * @param node   The index of the node
+     * @param packet The packet of rays
+     * @param invX   The inverse of the x components of the directions of the rays
+     * @param invY   The inverse of the y components of the directions of the rays
+     * @param invZ   The inverse of the z components of the directions of the rays
+     * @return The smallest entry distance among the rays that hit the node, or -1 if none does
+     */
+    private double intersectNode(int node, RayPacket packet, double[] invX, double[] invY, double[] invZ) {
+        int offset = node * 6;
+        double minX = nodeBounds[offset];
+        double minY = nodeBounds[offset + 1];
+        double minZ = nodeBounds[offset + 2];
+        double maxX = nodeBounds[offset + 3];
+        double maxY = nodeBounds[offset + 4];
+        double maxZ = nodeBounds[offset + 5];
+        double[] originX = packet.getOriginX();
+        double[] originY = packet.getOriginY();
+        double[] originZ = packet.getOriginZ();
+        double[] maxDistances = packet.getMaxDistances();
+
+        double closest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < packet.getSize(); i++) {
+            double tEnter = 0.0;
+            double tExit = maxDistances[i];
+
+            double t1 = (minX - originX[i]) * invX[i];
+            double t2 = (maxX - originX[i]) * invX[i];
+            double tNear = t1 < t2 ? t1 : t2;
+            double tFar = t1 < t2 ? t2 : t1;
+            tEnter = tNear > tEnter ? tNear : tEnter;
+            tExit = tFar < tExit ? tFar : tExit;
+
+            t1 = (minY - originY[i]) * invY[i];
+            t2 = (maxY - originY[i]) * invY[i];
+            tNear = t1 < t2 ? t1 : t2;
+            tFar = t1 < t2 ? t2 : t1;
+            tEnter = tNear > tEnter ? tNear : tEnter;
+            tExit = tFar < tExit ? tFar : tExit;
+
+            t1 = (minZ - originZ[i]) * invZ[i];
+            t2 = (maxZ - originZ[i]) * invZ[i];
+            tNear = t1 < t2 ? t1 : t2;
+            tFar = t1 < t2 ? t2 : t1;
+            tEnter = tNear > tEnter ? tNear : tEnter;
+            tExit = tFar < tExit ? tFar : tExit;
+
+            if (tEnter <= tExit && tEnter < closest) {
+                closest = tEnter;
+            }
+        }
+        return closest == Double.POSITIVE_INFINITY ? -1 : closest;
+    }
+
+    /**
+     * Intersects a ray, given by its origin and inverse direction, with the bounds of a node.
+     *
+     * @param node        The node to test
+     * @param ox          The x component of the ray origin
+     * @param oy          The y component of the ray origin
+     * @param oz          The z component of the ray origin
+     * @param invX        The inverse of the x component of the ray direction
+     * @param invY        The inverse of the y component of the ray direction
+     * @param invZ        The inverse of the z component of the ray direction
+     * @param maxDistance The maximum distance of interest along the ray
+     * @return The distance at which the ray enters the node, or -1 if it misses it
+     */
+    private double intersectNode(int node, double ox, double oy, double oz,
+                                 double invX, double invY, double invZ, double maxDistance) {
+        int offset = node * 6;
+        double tEnter = 0.0;
+        double tExit = maxDistance;
+
+        double t1 = (nodeBounds[offset] - ox) * invX;
+        double t2 = (nodeBounds[offset + 3] - ox) * invX;
+        double tNear = t1 < t2 ? t1 : t2;
+        double tFar = t1 < t2 ? t2 : t1;
+        tEnter = tNear > tEnter ? tNear : tEnter;
+        tExit = tFar < tExit ? tFar : tExit;
+
+        t1 = (nodeBounds[offset + 1] - oy) * invY;
+        t2 = (nodeBounds[offset + 4] - oy) * invY;
+        tNear = t1 < t2 ? t1 : t2;
+        tFar = t1 < t2 ? t2 : t1;
+        tEnter = tNear > tEnter ? tNear : tEnter;
+        tExit = tFar < tExit ? tFar : tExit;
+
+        t1 = (nodeBounds[offset + 2] - oz) * invZ;
+        t2 = (nodeBounds[offset + 5] - oz) * invZ;
+        tNear = t1 < t2 ? t1 : t2;
+        tFar = t1 < t2 ? t2 : t1;
+        tEnter = tNear > tEnter ? tNear : tEnter;
+        tExit = tFar < tExit ? tFar : tExit;
+
+        return tEnter <= tExit ? tEnter : -1;
+    }
+
+    /**
+     * Builds the hierarchy, splitting nodes with the binned surface area heuristic.
+     *
+     * @param primitiveBounds The bounds of every primitive
+     */
+    private void build(BoundingBox[] primitiveBounds) {
+        int primitiveCount = primitiveBounds.length;
+        primitiveIndices = new int[primitiveCount];
+        double[] bounds = new double[primitiveCount * 6];
+        double[] centroids = new double[primitiveCount * 3];
+        for (int i = 0; i < primitiveCount; i++) {
+            primitiveIndices[i] = i;
+            BoundingBox box = primitiveBounds[i];
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[i * 6 + axis] = box.getMin(axis);
+                bounds[i * 6 + 3 + axis] = box.getMax(axis);
+                centroids[i * 3 + axis] = box.getCentroid(axis);
+            }
+        }
+
+        int maxNodes = Math.max(1, primitiveCount * 2 - 1);
+        nodeBounds = new double[maxNodes * 6];
+        nodeFirst = new int[maxNodes];
+        nodeCount = new int[maxNodes];
+        nodesUsed = 0;
+        if (primitiveCount == 0) {
+            return;
+        }
+
+        nodesUsed = 1;
+        int[] pending = new int[64];
+        int size = 0;
+        pending[size++] = 0;
+        nodeFirst[0] = 0;
+        nodeCount[0] = primitiveCount;
+
+        int[] binCounts = new int[BIN_COUNT];
+        BoundingBox[] binBounds = new BoundingBox[BIN_COUNT];
+        for (int i = 0; i < BIN_COUNT; i++) {
+            binBounds[i] = new BoundingBox();
+        }
+        double[] rightAreas = new double[BIN_COUNT];
+        int[] rightCounts = new int[BIN_COUNT];
+        BoundingBox nodeBox = new BoundingBox();
+        BoundingBox centroidBox = new BoundingBox();
+        BoundingBox accumulated = new BoundingBox();
+
+        while (size > 0) {
+            int node = pending[--size];
+            int first = nodeFirst[node];
+            int count = nodeCount[node];
+
+            nodeBox.reset();
+            centroidBox.reset();
+            for (int i = first; i < first + count; i++) {
+                int primitive = primitiveIndices[i];
+                nodeBox.expand(bounds[primitive * 6], bounds[primitive * 6 + 1], bounds[primitive * 6 + 2]);
+                nodeBox.expand(bounds[primitive * 6 + 3], bounds[primitive * 6 + 4], bounds[primitive * 6 + 5]);
+                centroidBox.expand(centroids[primitive * 3], centroids[primitive * 3 + 1], centroids[primitive * 3 + 2]);
+            }
+            nodeBox.pad(BOX_PADDING);
+            for (int axis = 0; axis < 3; axis++) {
+                nodeBounds[node * 6 + axis] = nodeBox.getMin(axis);
+                nodeBounds[node * 6 + 3 + axis] = nodeBox.getMax(axis);
+            }
+
+            if (count <= 1) {
+                continue;
+            }
+
+            int bestAxis = -1;
+            int bestSplit = -1;
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int axis = 0; axis < 3; axis++) {
+                double minCentroid = centroidBox.getMin(axis);
+                double extent = centroidBox.getMax(axis) - minCentroid;
+                if (extent <= 0) {
+                    continue;
+                }
+                double scale = BIN_COUNT / extent;
+                Arrays.fill(binCounts, 0);
+                for (BoundingBox binBox : binBounds) {
+                    binBox.reset();
+                }
+                for (int i = first; i < first + count; i++) {
+                    int primitive = primitiveIndices[i];
+                    int bin = Math.min(BIN_COUNT - 1, (int) ((centroids[primitive * 3 + axis] - minCentroid) * scale));
+                    binCounts[bin]++;
+                    binBounds[bin].expand(bounds[primitive * 6], bounds[primitive * 6 + 1], bounds[primitive * 6 + 2]);
+                    binBounds[bin].expand(bounds[primitive * 6 + 3], bounds[primitive * 6 + 4], bounds[primitive * 6 + 5]);
+                }
+
+                accumulated.reset();
+                int accumulatedCount = 0;
+                for (int bin = BIN_COUNT - 1; bin > 0; bin--) {
+                    accumulated.expand(binBounds[bin]);
+                    accumulatedCount += binCounts[bin];
+                    rightAreas[bin] = accumulated.getSurfaceArea();
+                    rightCounts[bin] = accumulatedCount;
+                }
+
+                accumulated.reset();
+                accumulatedCount = 0;
+                for (int bin = 0; bin < BIN_COUNT - 1; bin++) {
+                    accumulated.expand(binBounds[bin]);
+                    accumulatedCount += binCounts[bin];
+                    if (accumulatedCount == 0 || rightCounts[bin + 1] == 0) {
+                        continue;
+                    }
+                    double cost = accumulated.getSurfaceArea() * accumulatedCount + rightAreas[bin + 1] * rightCounts[bin + 1];
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestSplit = bin + 1;
+                    }
+                }
+            }
+
+            int leftCount;
+            if (bestAxis == -1) {
+                if (count <= MAX_LEAF_SIZE) {
+                    continue;
+                }
+                leftCount = count / 2;
+            } else {
+                double splitCost = TRAVERSAL_COST + bestCost / nodeBox.getSurfaceArea();
+                if (splitCost >= count && count <= MAX_LEAF_SIZE) {
+                    continue;
+                }
+                double minCentroid = centroidBox.getMin(bestAxis);
+                double scale = BIN_COUNT / (centroidBox.getMax(bestAxis) - minCentroid);
+                int i = first;
+                int j = first + count - 1;
+                while (i <= j) {
+                    int primitive = primitiveIndices[i];
+                    int bin = Math.min(BIN_COUNT - 1, (int) ((centroids[primitive * 3 + bestAxis] - minCentroid) * scale));
+                    if (bin < bestSplit) {
+                        i++;
+                    } else {
+                        primitiveIndices[i] = primitiveIndices[j];
+                        primitiveIndices[j--] = primitive;
+                    }
+                }
+                leftCount = i - first;
+                if (leftCount == 0 || leftCount == count) {
+                    leftCount = count / 2;
+                }
+            }
+
+            int left = nodesUsed;
+            nodesUsed += 2;
+            nodeFirst[left] = first;
+            nodeCount[left] = leftCount;
+            nodeFirst[left + 1] = first + leftCount;
+            nodeCount[left + 1] = count - leftCount;
+            nodeFirst[node] = left;
+            nodeCount[node] = 0;
+
+            if (size + 2 > pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            pending[size++] = left + 1;
+            pending[size++] = left;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package edu.up.isgc.cg.raytracer.acceleration;
+
+import edu.up.isgc.cg.raytracer.Vector3D;
+
+/**
+ * Represents an axis-aligned bounding box defined by its minimum and maximum corners.
+ */
+public class BoundingBox {
+    private double minX, minY, minZ;
+    private double maxX, maxY, maxZ;
+
+    /**
+     * Constructs an empty bounding box that contains no points.
+     */
+    public BoundingBox() {
+        reset();
+    }
+
+    /**
+     * Constructs a bounding box with the given corners.
+     *
+     * @param min The minimum corner of the box
+     * @param max The maximum corner of the box
+     */
+    public BoundingBox(Vector3D min, Vector3D max) {
+        reset();
+        expand(min);
+        expand(max);
+    }
+
+    /**
+     * Empties the bounding box so it contains no points.
+     */
+    public void reset() {
+        minX = minY = minZ = Double.POSITIVE_INFINITY;
+        maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Checks whether the bounding box contains no points.
+     *
+     * @return True if the box is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return minX > maxX || minY > maxY || minZ > maxZ;
+    }
+
+    /**
+     * Gets the minimum corner of the box.
+     *
+     * @return The minimum corner
+     */
+    public Vector3D getMin() {
+        return new Vector3D(minX, minY, minZ);
+    }
+
+    /**
+     * Gets the maximum corner of the box.
+     *
+     * @return The maximum corner
+     */
+    public Vector3D getMax() {
+        return new Vector3D(maxX, maxY, maxZ);
+    }
+
+    /**
+     * Gets the minimum value of the box along an axis.
+     *
+     * @param axis The axis (0 = X, 1 = Y, 2 = Z)
+     * @return The minimum value along the axis
+     */
+    public double getMin(int axis) {
+        return axis == 0 ? minX : (axis == 1 ? minY : minZ);
+    }
+
+    /**
+     * Gets the maximum value of the box along an axis.
+     *
+     * @param axis The axis (0 = X, 1 = Y, 2 = Z)
+     * @return The maximum value along the axis
+     */
+    public double getMax(int axis) {
+        return axis == 0 ? maxX : (axis == 1 ? maxY : maxZ);
+    }
+
+    /**
+     * Gets the center of the box along an axis.
+     *
+     * @param axis The axis (0 = X, 1 = Y, 2 = Z)
+     * @return The center of the box along the axis
+     */
+    public double getCentroid(int axis) {
+        return (getMin(axis) + getMax(axis)) * 0.5;
+    }
+
+    /**
+     * Grows the box so it contains the given point.
+     *
+     * @param x The x component of the point
+     * @param y The y component of the point
+     * @param z The z component of the point
+     */
+    public void expand(double x, double y, double z) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+    }
+
+    /**
+     * Grows the box so it contains the given point.
+     *
+     * @param point The point to contain
+     */
+    public void expand(Vector3D point) {
+        expand(point.getX(), point.getY(), point.getZ());
+    }
+
+    /**
+     * Grows the box so it contains another box.
+     *
+     * @param box The box to contain
+     */
+    public void expand(BoundingBox box) {
+        if (box.isEmpty()) {
+            return;
+        }
+        expand(box.minX, box.minY, box.minZ);
+        expand(box.maxX, box.maxY, box.maxZ);
+    }
+
+    /**
+     * Enlarges the box by a margin in every direction.
+     *
+     * @param margin The margin to add on each side
+     */
+    public void pad(double margin) {
+        minX -= margin;
+        minY -= margin;
+        minZ -= margin;
+        maxX += margin;
+        maxY += margin;
+        maxZ += margin;
+    }
+
+    /**
+     * Calculates the surface area of the box.
+     *
+     * @return The surface area, or 0 if the box is empty
+     */
+    public double getSurfaceArea() {
+        if (isEmpty()) {
+            return 0.0;
+        }
+        double dx = maxX - minX;
+        double dy = maxY - minY;
+        double dz = maxZ - minZ;
+        return 2.0 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Gets the axis along which the box is the widest.
+     *
+     * @return The widest axis (0 = X, 1 = Y, 2 = Z)
+     */
+    public int getLongestAxis() {
+        double dx = maxX - minX;
+        double dy = maxY - minY;
+        double dz = maxZ - minZ;
+        if (dx >= dy && dx >= dz) {
+            return 0;
+        }
+        return dy >= dz ? 1 : 2;
+    }
+
+    @Override
+    public String toString() {
+        return "BoundingBox{" +
+                "min=" + getMin() +
+                ", max=" + getMax() +
+                "}";
+    }
+}
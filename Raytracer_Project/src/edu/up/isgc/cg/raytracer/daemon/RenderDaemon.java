@@ -0,0 +1,626 @@
+package edu.up.isgc.cg.raytracer.daemon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.up.isgc.cg.raytracer.Raytracer;
+import edu.up.isgc.cg.raytracer.Scene;
+import edu.up.isgc.cg.raytracer.Vector3D;
+import edu.up.isgc.cg.raytracer.objects.Camera;
+import edu.up.isgc.cg.raytracer.render.FrameBuffer;
+import edu.up.isgc.cg.raytracer.render.RenderBudget;
+import edu.up.isgc.cg.raytracer.render.RenderReport;
+import edu.up.isgc.cg.raytracer.tools.LRUCache;
+import edu.up.isgc.cg.raytracer.tools.SceneFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running render process serving jobs from a local HTTP API, so renders skip the startup of the JVM,
+ * the warm-up of the JIT compiler and the loading of their scenes.
+ * Built scenes stay in memory with the BVHs of their models, and are only rebuilt when their scene file changes;
+ * every job renders on the same pool of worker threads. Jobs wait in a priority queue and run one at a time,
+ * each on every thread of the pool, highest priority first and in submission order within a priority.
+ * <p>
+ * The API listens on the loopback address only. Every request must name the daemon in its Host header
+ * (127.0.0.1 or localhost with its port), carry no Origin header, and send the token printed at startup in the
+ * {@value #TOKEN_HEADER} header, so web pages opened in a browser can neither submit jobs nor read the answers.
+ * Scene files and images are confined to the root directory given at startup, and relative paths are resolved
+ * against it. Parameters are taken from the query string and from request bodies of type {@value #FORM_TYPE}:
+ * <pre>
+ * POST /jobs      Queues a job: scene and output (paths to the .scene file and the .png file to write),
+ *                 and optionally width, height, x, y, z (camera position), fovH, fovV, passes, maxDepth,
+ *                 budget (milliseconds), supersampling (samples per side for anti-aliased edges, 1 for none),
+ *                 priority, and wait=true to answer once the job is finished
+ * GET  /jobs/{id} Gets the state of a job
+ * GET  /status    Gets the number of queued jobs and cached scenes
+ * </pre>
+ * Answers are JSON objects.
+ */
+public class RenderDaemon {
+    public static final int DEFAULT_PORT = 7430;
+    public static final int DEFAULT_SCENE_CACHE_CAPACITY = 16;
+    public static final int DEFAULT_JOB_HISTORY = 4096;
+    public static final String TOKEN_HEADER = "X-Render-Token";
+    public static final String FORM_TYPE = "application/x-www-form-urlencoded";
+    public static final String SCENE_EXTENSION = ".scene";
+    public static final String IMAGE_EXTENSION = ".png";
+
+    private final ForkJoinPool pool;
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+    private final LRUCache<String, WarmScene> scenes = new LRUCache<>(DEFAULT_SCENE_CACHE_CAPACITY);
+    private final LRUCache<Long, Job> jobs = new LRUCache<>(DEFAULT_JOB_HISTORY);
+    private final AtomicLong jobIds = new AtomicLong();
+    private final Path root;
+    private final String token;
+    private HttpServer server;
+    private int port;
+    private Thread dispatcher;
+
+    /**
+     * Constructs a RenderDaemon rendering on a pool with the given number of threads, with a new random token.
+     *
+     * @param threads The number of worker threads
+     * @param root    The directory scene files are read from and images are written to
+     * @throws IOException If the root directory cannot be resolved
+     * @throws IllegalArgumentException If the root is not a directory
+     */
+    public RenderDaemon(int threads, File root) throws IOException {
+        if (!root.isDirectory()) {
+            throw new IllegalArgumentException("The root " + root + " is not a directory");
+        }
+        this.root = root.toPath().toRealPath();
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        this.token = hex.toString();
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+    }
+
+    /**
+     * Gets the token clients must send in the {@value #TOKEN_HEADER} header.
+     *
+     * @return The token
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Starts serving the API on the loopback address and running queued jobs.
+     *
+     * @param port The port of the API, or 0 for any free port
+     * @return The port the API listens on
+     * @throws IOException If the port cannot be bound
+     */
+    public synchronized int start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("The daemon is already running");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Render daemon API");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/jobs", this::handleJobs);
+        server.createContext("/status", this::handleStatus);
+        server.start();
+        dispatcher = new Thread(this::dispatch, "Render daemon dispatcher");
+        dispatcher.start();
+        this.port = server.getAddress().getPort();
+        return this.port;
+    }
+
+    /**
+     * Stops serving the API and running jobs. The job running, if any, is finished first;
+     * queued jobs are dropped.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.shutdown();
+        server = null;
+    }
+
+    /**
+     * Queues a render job.
+     *
+     * @param parameters The parameters of the job, see the API
+     * @return The job
+     * @throws IllegalArgumentException If a parameter is missing or malformed
+     */
+    public Job submit(Map<String, String> parameters) {
+        Job job = new Job(jobIds.incrementAndGet(), parameters);
+        jobs.put(job.id, job);
+        queue.add(job);
+        return job;
+    }
+
+    /**
+     * Runs the queued jobs one at a time until the dispatcher is interrupted.
+     */
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            job.run();
+        }
+    }
+
+    /**
+     * Gets the built scene of a scene file, building it if it is not cached or its file changed since.
+     * Only the dispatcher uses the scenes, so their camera can be replaced for every job.
+     *
+     * @param file The scene file
+     * @return The scene with the camera of its file
+     * @throws IOException If the scene file cannot be read
+     */
+    private WarmScene getScene(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        WarmScene warm = scenes.get(key);
+        if (warm == null || warm.length != length || warm.lastModified != lastModified) {
+            SceneFile sceneFile = SceneFile.read(file);
+            warm = new WarmScene(sceneFile.build(), sceneFile.createCamera(), length, lastModified);
+            scenes.put(key, warm);
+        }
+        return warm;
+    }
+
+    /**
+     * Answers the requests on jobs.
+     *
+     * @param exchange The request and its response
+     * @throws IOException If the response cannot be sent
+     */
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        if (!authorize(exchange)) {
+            return;
+        }
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/jobs") && method.equals("POST")) {
+                String type = exchange.getRequestHeaders().getFirst("Content-Type");
+                if (type == null || !type.split(";")[0].trim().equalsIgnoreCase(FORM_TYPE)) {
+                    respond(exchange, 415, "{\"error\": \"Jobs must be posted as " + FORM_TYPE + "\"}");
+                    return;
+                }
+                Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+                parameters.putAll(parseParameters(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+                Job job = submit(parameters);
+                if (Boolean.parseBoolean(parameters.get("wait"))) {
+                    try {
+                        job.done.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    respond(exchange, job.state == State.FAILED ? 500 : 200, job.toJson());
+                } else {
+                    respond(exchange, 202, job.toJson());
+                }
+            } else if (path.startsWith("/jobs/") && method.equals("GET")) {
+                Job job = jobs.get(Long.parseLong(path.substring("/jobs/".length())));
+                if (job == null) {
+                    respond(exchange, 404, "{\"error\": \"Unknown job\"}");
+                } else {
+                    respond(exchange, 200, job.toJson());
+                }
+            } else {
+                respond(exchange, 404, "{\"error\": \"Unknown request\"}");
+            }
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "{\"error\": " + quote(e.getMessage()) + "}");
+        }
+    }
+
+    /**
+     * Answers the requests on the state of the daemon.
+     *
+     * @param exchange The request and its response
+     * @throws IOException If the response cannot be sent
+     */
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        if (!authorize(exchange)) {
+            return;
+        }
+        respond(exchange, 200, "{\"queued\": " + queue.size() + ", \"scenes\": " + scenes.size()
+                + ", \"threads\": " + pool.getParallelism() + "}");
+    }
+
+    /**
+     * Checks that a request was sent to the daemon by a local client holding the token, answering it otherwise.
+     * Checking the Host header refuses pages reaching the daemon through DNS rebinding, and browsers only send
+     * the token header, or any Origin header, after asking the server, which never agrees.
+     *
+     * @param exchange The request and its response
+     * @return True if the request may be served
+     * @throws IOException If the refusal cannot be sent
+     */
+    private boolean authorize(HttpExchange exchange) throws IOException {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host == null || !(host.equals("127.0.0.1:" + port) || host.equals("localhost:" + port) || host.equals("[::1]:" + port))) {
+            respond(exchange, 403, "{\"error\": \"Unexpected host\"}");
+            return false;
+        }
+        if (exchange.getRequestHeaders().containsKey("Origin")) {
+            respond(exchange, 403, "{\"error\": \"Cross-origin requests are refused\"}");
+            return false;
+        }
+        String supplied = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        if (supplied == null || !MessageDigest.isEqual(supplied.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            respond(exchange, 403, "{\"error\": \"Missing or wrong " + TOKEN_HEADER + " header\"}");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Resolves the scene file of a job, which must be an existing scene file inside the root directory.
+     * Files that are not scene files are refused before they are read, so their content never shows up in errors.
+     *
+     * @param path The path given for the scene file, relative to the root directory or absolute
+     * @return The scene file, with links resolved
+     * @throws IllegalArgumentException If the path does not name a scene file inside the root directory
+     */
+    private File resolveScene(String path) {
+        Path file;
+        try {
+            file = root.resolve(path).toRealPath();
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Scene file " + path + " not found");
+        }
+        if (!file.startsWith(root) || !file.getFileName().toString().endsWith(SCENE_EXTENSION) || !Files.isRegularFile(file)) {
+            throw new IllegalArgumentException("scene must be a " + SCENE_EXTENSION + " file inside the root directory");
+        }
+        return file.toFile();
+    }
+
+    /**
+     * Resolves the image file of a job, which must be a PNG file in an existing directory inside the root directory.
+     *
+     * @param path The path given for the image file, relative to the root directory or absolute
+     * @return The image file, in its directory with links resolved
+     * @throws IllegalArgumentException If the path does not name a PNG file inside the root directory, or names a link
+     */
+    private File resolveOutput(String path) {
+        Path file;
+        try {
+            Path normalized = root.resolve(path).normalize();
+            file = normalized.getParent().toRealPath().resolve(normalized.getFileName());
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Directory of output " + path + " not found");
+        }
+        if (!file.startsWith(root) || !file.getFileName().toString().endsWith(IMAGE_EXTENSION)
+                || Files.isSymbolicLink(file) || Files.isDirectory(file)) {
+            throw new IllegalArgumentException("output must be a " + IMAGE_EXTENSION + " file inside the root directory");
+        }
+        return file.toFile();
+    }
+
+    /**
+     * Sends a JSON response and closes the exchange.
+     *
+     * @param exchange The request and its response
+     * @param status   The HTTP status code
+     * @param json     The body of the response
+     * @throws IOException If the response cannot be sent
+     */
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Parses form-encoded parameters.
+     *
+     * @param encoded The parameters, as in a query string (can be null)
+     * @return The parameters by name
+     */
+    private static Map<String, String> parseParameters(String encoded) {
+        Map<String, String> parameters = new HashMap<>();
+        if (encoded == null || encoded.isBlank()) {
+            return parameters;
+        }
+        for (String pair : encoded.trim().split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    /**
+     * Quotes a string for a JSON document.
+     *
+     * @param value The string to quote (can be null)
+     * @return The quoted string, or null
+     */
+    private static String quote(String value) {
+        return value == null ? "null" : "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Built scene kept between jobs, with the camera written in its file and the size and modification time
+     * the file had when it was built.
+     */
+    private static class WarmScene {
+        private final Scene scene;
+        private final Camera camera;
+        private final long length;
+        private final long lastModified;
+
+        private WarmScene(Scene scene, Camera camera, long length, long lastModified) {
+            this.scene = scene;
+            this.camera = camera;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * States of a job.
+     */
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    /**
+     * Render job, ordered by priority and then by submission.
+     */
+    public class Job implements Comparable<Job> {
+        private final long id;
+        private final String scene;
+        private final String output;
+        private final File sceneFile;
+        private final File outputFile;
+        private final int priority;
+        private final Integer width;
+        private final Integer height;
+        private final Double x;
+        private final Double y;
+        private final Double z;
+        private final Double fovH;
+        private final Double fovV;
+        private final int passes;
+        private final int maxDepth;
+        private final Long budget;
+        private final int supersampling;
+        private final CompletableFuture<Job> done = new CompletableFuture<>();
+        private volatile State state = State.QUEUED;
+        private volatile long queueMillis;
+        private volatile long renderMillis;
+        private volatile String error;
+        private final long submitted = System.currentTimeMillis();
+
+        private Job(long id, Map<String, String> parameters) {
+            this.id = id;
+            this.scene = required(parameters, "scene");
+            this.output = required(parameters, "output");
+            this.sceneFile = resolveScene(scene);
+            this.outputFile = resolveOutput(output);
+            this.priority = parameters.containsKey("priority") ? parseInt(parameters, "priority") : 0;
+            this.width = parameters.containsKey("width") ? parseInt(parameters, "width") : null;
+            this.height = parameters.containsKey("height") ? parseInt(parameters, "height") : null;
+            this.x = parseDouble(parameters, "x");
+            this.y = parseDouble(parameters, "y");
+            this.z = parseDouble(parameters, "z");
+            this.fovH = parseDouble(parameters, "fovH");
+            this.fovV = parseDouble(parameters, "fovV");
+            this.passes = parameters.containsKey("passes") ? parseInt(parameters, "passes") : 1;
+            this.maxDepth = parameters.containsKey("maxDepth") ? parseInt(parameters, "maxDepth") : RenderBudget.DEFAULT_MAX_DEPTH;
+            this.budget = parameters.containsKey("budget") ? (long) parseInt(parameters, "budget") : null;
+            this.supersampling = parameters.containsKey("supersampling") ? parseInt(parameters, "supersampling") : 1;
+            if (passes < 1 || passes > 31 || maxDepth < 1 || supersampling < 1 ||
+                    (width != null && width < 1) || (height != null && height < 1)) {
+                throw new IllegalArgumentException("passes must be from 1 to 31, and maxDepth, supersampling, width and height positive");
+            }
+        }
+
+        /**
+         * Gets the id of the job.
+         *
+         * @return The id of the job
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the state of the job.
+         *
+         * @return The state of the job
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Gets a future completed once the job is done or failed.
+         *
+         * @return The future of the job
+         */
+        public CompletableFuture<Job> getDone() {
+            return done;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            return priority != other.priority ? Integer.compare(other.priority, priority) : Long.compare(id, other.id);
+        }
+
+        /**
+         * Renders the job with the camera of its scene adjusted to its parameters and writes the image.
+         */
+        private void run() {
+            state = State.RUNNING;
+            long start = System.currentTimeMillis();
+            queueMillis = start - submitted;
+            try {
+                WarmScene warm = getScene(sceneFile);
+                warm.scene.setCamera(createCamera(warm.camera));
+                RenderBudget renderBudget = budget == null ? new RenderBudget() : RenderBudget.fromNow(budget);
+                renderBudget.setMaxDepth(maxDepth);
+                RenderReport report = Raytracer.raytrace(warm.scene, passes, null, renderBudget, supersampling, pool);
+                try (FrameBuffer frameBuffer = report.getFrameBuffer()) {
+                    frameBuffer.writePNG(outputFile);
+                }
+                state = State.DONE;
+            } catch (IOException | RuntimeException e) {
+                error = e.toString();
+                state = State.FAILED;
+                System.err.println("Job " + id + " failed: " + e);
+            } finally {
+                renderMillis = System.currentTimeMillis() - start;
+                done.complete(this);
+            }
+            System.out.println("Job " + id + " " + state + " in " + renderMillis + " ms: " + new Date());
+        }
+
+        /**
+         * Creates the camera of the job from the camera of its scene file.
+         *
+         * @param base The camera of the scene file
+         * @return The camera with the parameters of the job applied
+         */
+        private Camera createCamera(Camera base) {
+            Vector3D position = base.getPosition();
+            double[] planes = base.getNearFarPlanes();
+            return new Camera(new Vector3D(x != null ? x : position.getX(), y != null ? y : position.getY(), z != null ? z : position.getZ()),
+                    fovH != null ? fovH : base.getFOVHorizontal(), fovV != null ? fovV : base.getFOVVertical(),
+                    width != null ? width : base.getResolutionWidth(), height != null ? height : base.getResolutionHeight(),
+                    planes[0], planes[1]);
+        }
+
+        /**
+         * Formats the job as a JSON object.
+         *
+         * @return The JSON object
+         */
+        private String toJson() {
+            return "{\"id\": " + id + ", \"state\": " + quote(state.name()) + ", \"priority\": " + priority
+                    + ", \"scene\": " + quote(scene) + ", \"output\": " + quote(output)
+                    + ", \"queueMillis\": " + queueMillis + ", \"renderMillis\": " + renderMillis
+                    + ", \"error\": " + quote(error) + "}";
+        }
+    }
+
+    /**
+     * Gets a required parameter.
+     *
+     * @param parameters The parameters
+     * @param name       The name of the parameter
+     * @return The value of the parameter
+     * @throws IllegalArgumentException If the parameter is missing
+     */
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Parses an integer parameter.
+     *
+     * @param parameters The parameters
+     * @param name       The name of the parameter
+     * @return The value of the parameter
+     * @throws IllegalArgumentException If the parameter is malformed
+     */
+    private static int parseInt(Map<String, String> parameters, String name) {
+        try {
+            return Integer.parseInt(parameters.get(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed parameter " + name, e);
+        }
+    }
+
+    /**
+     * Parses an optional decimal parameter.
+     *
+     * @param parameters The parameters
+     * @param name       The name of the parameter
+     * @return The value of the parameter, or null if it is missing
+     * @throws IllegalArgumentException If the parameter is malformed
+     */
+    private static Double parseDouble(Map<String, String> parameters, String name) {
+        if (!parameters.containsKey(name)) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(parameters.get(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed parameter " + name, e);
+        }
+    }
+
+    /**
+     * Runs the daemon until the process is stopped.
+     * Arguments: the root directory of scene files and images, and optionally the port of the API and the number
+     * of worker threads.
+     *
+     * @param args The command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: RenderDaemon <root directory> [port] [threads]");
+            System.exit(2);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        RenderDaemon daemon;
+        try {
+            daemon = new RenderDaemon(threads, new File(args[0]));
+            int boundPort = daemon.start(port);
+            System.out.println("Render daemon listening on 127.0.0.1:" + boundPort + " with " + threads + " threads: " + new Date());
+            System.out.println(TOKEN_HEADER + ": " + daemon.getToken());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop));
+    }
+}
@@ -0,0 +1,142 @@
+package edu.up.isgc.cg.raytracer.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Messages exchanged by a {@link RenderCoordinator} and its {@link RenderWorker}s over a socket.
+ * Every message starts with its type byte, followed by its fields written with {@link DataOutputStream}.
+ * <p>
+ * A worker opens with HELLO (magic number, version, threads), to which the coordinator answers with SCENE
+ * (text of the scene file, maximum depth, then the path, SHA-256 hash and size of every OBJ file it uses).
+ * The worker asks with ASSET_REQUEST (asset index) for every file it does not hold with the same hash,
+ * receives it in an ASSET message (asset index, size, bytes), and sends READY once the scene is built.
+ * The coordinator then sends TILE messages (tile id, x, y, width, height), keeping a few per worker thread
+ * in flight, and the worker answers each with RESULT (tile id, then the packed RGB pixels of the tile row by row).
+ * The worker sends HEARTBEAT at a fixed interval, so a silent worker is known to be dead, and FAILURE (message)
+ * when it cannot go on. DONE tells the worker that every tile of the frame is done.
+ */
+abstract class Protocol {
+    static final int MAGIC = 0x52545244;
+    static final int VERSION = 1;
+
+    static final byte SCENE = 1;
+    static final byte ASSET = 2;
+    static final byte TILE = 3;
+    static final byte DONE = 4;
+
+    static final byte HELLO = 10;
+    static final byte ASSET_REQUEST = 11;
+    static final byte READY = 12;
+    static final byte RESULT = 13;
+    static final byte HEARTBEAT = 14;
+    static final byte FAILURE = 15;
+
+    static final int HEARTBEAT_INTERVAL_MILLIS = 1000;
+    static final int MAX_ASSETS = 1 << 16;
+
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Writes a string of any length as its number of UTF-8 bytes followed by the bytes.
+     *
+     * @param out   The stream to write to
+     * @param value The string to write
+     * @throws IOException If the stream cannot be written
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in The stream to read from
+     * @return The string
+     * @throws IOException If the stream cannot be read
+     */
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Malformed string length " + length);
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies an exact number of bytes from a stream to another.
+     *
+     * @param in   The stream to read from
+     * @param out  The stream to write to
+     * @param size The number of bytes to copy
+     * @throws IOException If the input ends early or a stream fails
+     */
+    static void copy(InputStream in, OutputStream out, long size) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        while (size > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, size));
+            if (read < 0) {
+                throw new IOException("Stream ended with " + size + " bytes left to copy");
+            }
+            out.write(buffer, 0, read);
+            size -= read;
+        }
+    }
+
+    /**
+     * Checks whether a string is a hash as computed by {@link #hash(File)}, so it can be used as a file name.
+     *
+     * @param value The string to check
+     * @return True if the string is exactly 64 lowercase hexadecimal digits
+     */
+    static boolean isHash(String value) {
+        if (value.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file.
+     *
+     * @param file The file to hash
+     * @return The hash as lowercase hexadecimal digits
+     * @throws IOException If the file cannot be read
+     */
+    static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
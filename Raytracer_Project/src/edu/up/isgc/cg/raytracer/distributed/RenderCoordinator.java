@@ -0,0 +1,357 @@
+package edu.up.isgc.cg.raytracer.distributed;
+
+import edu.up.isgc.cg.raytracer.objects.Camera;
+import edu.up.isgc.cg.raytracer.render.FrameBuffer;
+import edu.up.isgc.cg.raytracer.render.HeapFrameBuffer;
+import edu.up.isgc.cg.raytracer.render.RenderBudget;
+import edu.up.isgc.cg.raytracer.render.Tile;
+import edu.up.isgc.cg.raytracer.render.TileScheduler;
+import edu.up.isgc.cg.raytracer.tools.SceneFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders a frame across worker processes, which may run on other machines or on this one.
+ * The coordinator accepts workers on a server socket, ships each one the scene file and the hashes of its assets,
+ * hands out tiles and assembles the pixels it gets back into the frame buffer, see {@link Protocol}.
+ * Workers may join at any time during the frame. A worker whose connection fails or that stays silent
+ * longer than the worker timeout is dropped, and its unfinished tiles are handed out again.
+ * Frames are rendered in a single pass at full resolution, without anti-aliasing.
+ */
+public class RenderCoordinator {
+    public static final int DEFAULT_PORT = 7420;
+    public static final int DEFAULT_WORKER_TIMEOUT_MILLIS = 10000;
+    public static final int TILES_PER_THREAD = 2;
+
+    private final SceneFile sceneFile;
+    private final List<String> assetPaths;
+    private final List<File> assetFiles = new ArrayList<>();
+    private final List<String> assetHashes = new ArrayList<>();
+    private int maxDepth = RenderBudget.DEFAULT_MAX_DEPTH;
+    private int tileSize = TileScheduler.DEFAULT_TILE_SIZE;
+    private int workerTimeout = DEFAULT_WORKER_TIMEOUT_MILLIS;
+
+    private List<Tile> tiles;
+    private Deque<Integer> pendingTiles;
+    private int completedTiles;
+    private FrameBuffer frameBuffer;
+
+    /**
+     * Constructs a RenderCoordinator for a scene file, hashing the OBJ files of its models.
+     *
+     * @param sceneFile The scene to render
+     * @throws IOException If an OBJ file cannot be read
+     */
+    public RenderCoordinator(SceneFile sceneFile) throws IOException {
+        this.sceneFile = sceneFile;
+        this.assetPaths = sceneFile.getModelPaths();
+        for (String path : assetPaths) {
+            File file = sceneFile.resolve(path);
+            assetFiles.add(file);
+            assetHashes.add(Protocol.hash(file));
+        }
+    }
+
+    /**
+     * Gets the maximum number of surfaces visited by a ray.
+     *
+     * @return The maximum depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the maximum number of surfaces visited by a ray.
+     *
+     * @param maxDepth The maximum depth to set
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(1, maxDepth);
+    }
+
+    /**
+     * Gets the width and height of the tiles handed out to workers, in pixels.
+     *
+     * @return The tile size
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Sets the width and height of the tiles handed out to workers, in pixels.
+     *
+     * @param tileSize The tile size to set
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = Math.max(1, tileSize);
+    }
+
+    /**
+     * Gets how long a worker may stay silent before it is considered dead.
+     *
+     * @return The worker timeout in milliseconds
+     */
+    public int getWorkerTimeout() {
+        return workerTimeout;
+    }
+
+    /**
+     * Sets how long a worker may stay silent before it is considered dead.
+     * It should be several times the heartbeat interval of the workers.
+     *
+     * @param workerTimeout The worker timeout to set, in milliseconds
+     */
+    public void setWorkerTimeout(int workerTimeout) {
+        this.workerTimeout = Math.max(Protocol.HEARTBEAT_INTERVAL_MILLIS, workerTimeout);
+    }
+
+    /**
+     * Renders the frame, accepting workers on the given server socket until every tile is done.
+     * The server socket is left open. A coordinator renders one frame at a time.
+     *
+     * @param server      The server socket workers connect to
+     * @param frameBuffer The frame buffer receiving the frame, with the resolution of the camera of the scene
+     * @throws IOException If the server socket fails
+     */
+    public void render(ServerSocket server, FrameBuffer frameBuffer) throws IOException {
+        Camera camera = sceneFile.createCamera();
+        if (frameBuffer.getWidth() != camera.getResolutionWidth() || frameBuffer.getHeight() != camera.getResolutionHeight()) {
+            throw new IllegalArgumentException("The frame buffer must match the resolution of the camera");
+        }
+        this.frameBuffer = frameBuffer;
+        this.tiles = new TileScheduler(tileSize, 1).createTiles(frameBuffer.getWidth(), frameBuffer.getHeight());
+        this.pendingTiles = new ArrayDeque<>();
+        for (int id = 0; id < tiles.size(); id++) {
+            pendingTiles.add(id);
+        }
+        this.completedTiles = 0;
+
+        List<Thread> connections = new ArrayList<>();
+        int acceptTimeout = server.getSoTimeout();
+        server.setSoTimeout(Protocol.HEARTBEAT_INTERVAL_MILLIS);
+        try {
+            while (!isFinished()) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                Thread connection = new Thread(() -> serve(socket), "Worker " + socket.getRemoteSocketAddress());
+                connection.setDaemon(true);
+                connection.start();
+                connections.add(connection);
+            }
+        } finally {
+            server.setSoTimeout(acceptTimeout);
+        }
+        for (Thread connection : connections) {
+            try {
+                connection.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Serves a worker until the frame is done or the worker fails, handing its unfinished tiles out again if it fails.
+     *
+     * @param socket The connection to the worker
+     */
+    private void serve(Socket socket) {
+        Map<Integer, Tile> inFlight = new HashMap<>();
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(workerTimeout);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            int threads = handshake(in, out);
+            System.out.println(Thread.currentThread().getName() + " ready with " + threads + " threads: " + new Date());
+
+            int limit = Math.max(1, threads * TILES_PER_THREAD);
+            while (!isFinished()) {
+                Integer id;
+                while (inFlight.size() < limit && (id = pollTile()) != null) {
+                    Tile tile = tiles.get(id);
+                    inFlight.put(id, tile);
+                    out.writeByte(Protocol.TILE);
+                    out.writeInt(id);
+                    out.writeInt(tile.getX());
+                    out.writeInt(tile.getY());
+                    out.writeInt(tile.getWidth());
+                    out.writeInt(tile.getHeight());
+                }
+                out.flush();
+
+                byte type = in.readByte();
+                if (type == Protocol.RESULT) {
+                    Tile tile = inFlight.remove(in.readInt());
+                    if (tile == null) {
+                        throw new IOException("Result for a tile that was not handed out");
+                    }
+                    for (int j = tile.getY(); j < tile.getY() + tile.getHeight(); j++) {
+                        for (int i = tile.getX(); i < tile.getX() + tile.getWidth(); i++) {
+                            frameBuffer.setRGB(i, j, in.readInt());
+                        }
+                    }
+                    completeTile();
+                } else if (type == Protocol.FAILURE) {
+                    throw new IOException("Worker failed: " + Protocol.readString(in));
+                } else if (type != Protocol.HEARTBEAT) {
+                    throw new IOException("Unexpected message " + type);
+                }
+            }
+            out.writeByte(Protocol.DONE);
+            out.flush();
+        } catch (IOException e) {
+            System.err.println(Thread.currentThread().getName() + " dropped with " + inFlight.size() + " tiles in flight: " + e);
+            requeueTiles(inFlight.keySet());
+        }
+    }
+
+    /**
+     * Exchanges the greeting, the scene and the assets the worker asks for, until the worker is ready.
+     *
+     * @param in  The stream from the worker
+     * @param out The stream to the worker
+     * @return The number of threads of the worker
+     * @throws IOException If the worker fails or does not follow the protocol
+     */
+    private int handshake(DataInputStream in, DataOutputStream out) throws IOException {
+        if (in.readByte() != Protocol.HELLO || in.readInt() != Protocol.MAGIC) {
+            throw new IOException("Not a render worker");
+        }
+        int version = in.readInt();
+        if (version != Protocol.VERSION) {
+            throw new IOException("Worker speaks protocol version " + version + " instead of " + Protocol.VERSION);
+        }
+        int threads = in.readInt();
+
+        out.writeByte(Protocol.SCENE);
+        Protocol.writeString(out, sceneFile.getText());
+        out.writeInt(maxDepth);
+        out.writeInt(assetPaths.size());
+        for (int i = 0; i < assetPaths.size(); i++) {
+            Protocol.writeString(out, assetPaths.get(i));
+            Protocol.writeString(out, assetHashes.get(i));
+            out.writeLong(assetFiles.get(i).length());
+        }
+        out.flush();
+
+        while (true) {
+            byte type = in.readByte();
+            if (type == Protocol.READY) {
+                return threads;
+            } else if (type == Protocol.ASSET_REQUEST) {
+                int index = in.readInt();
+                if (index < 0 || index >= assetFiles.size()) {
+                    throw new IOException("Request for unknown asset " + index);
+                }
+                File file = assetFiles.get(index);
+                long size = file.length();
+                out.writeByte(Protocol.ASSET);
+                out.writeInt(index);
+                out.writeLong(size);
+                try (InputStream asset = Files.newInputStream(file.toPath())) {
+                    Protocol.copy(asset, out, size);
+                }
+                out.flush();
+            } else if (type == Protocol.FAILURE) {
+                throw new IOException("Worker failed: " + Protocol.readString(in));
+            } else if (type != Protocol.HEARTBEAT) {
+                throw new IOException("Unexpected message " + type);
+            }
+        }
+    }
+
+    /**
+     * Takes the next tile to hand out.
+     *
+     * @return The id of the tile, or null if no tile is waiting
+     */
+    private synchronized Integer pollTile() {
+        return pendingTiles.pollFirst();
+    }
+
+    /**
+     * Puts tiles back at the front of the queue, so they are handed out before the tiles no worker has started.
+     *
+     * @param ids The ids of the tiles
+     */
+    private synchronized void requeueTiles(Iterable<Integer> ids) {
+        for (Integer id : ids) {
+            pendingTiles.addFirst(id);
+        }
+    }
+
+    /**
+     * Counts a tile as done.
+     */
+    private synchronized void completeTile() {
+        completedTiles++;
+    }
+
+    /**
+     * Checks whether every tile of the frame is done.
+     *
+     * @return True if the frame is done
+     */
+    private synchronized boolean isFinished() {
+        return completedTiles == tiles.size();
+    }
+
+    /**
+     * Renders a scene file across workers and writes it as a PNG file.
+     * Arguments: the scene file, the output PNG file, and optionally the port, tile size and maximum depth.
+     *
+     * @param args The command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: RenderCoordinator <scene file> <output png> [port] [tile size] [max depth]");
+            System.exit(2);
+        }
+        try {
+            RenderCoordinator coordinator = new RenderCoordinator(SceneFile.read(new File(args[0])));
+            int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+            if (args.length > 3) {
+                coordinator.setTileSize(Integer.parseInt(args[3]));
+            }
+            if (args.length > 4) {
+                coordinator.setMaxDepth(Integer.parseInt(args[4]));
+            }
+            Camera camera = coordinator.sceneFile.createCamera();
+            try (ServerSocket server = new ServerSocket(port);
+                 FrameBuffer frameBuffer = new HeapFrameBuffer(camera.getResolutionWidth(), camera.getResolutionHeight())) {
+                System.out.println("Waiting for workers on port " + server.getLocalPort() + ": " + new Date());
+                long start = System.currentTimeMillis();
+                coordinator.render(server, frameBuffer);
+                System.out.println("Frame rendered in " + (System.currentTimeMillis() - start) + " ms");
+                frameBuffer.writePNG(new File(args[1]));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
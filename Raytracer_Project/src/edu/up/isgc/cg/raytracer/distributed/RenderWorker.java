@@ -0,0 +1,315 @@
+package edu.up.isgc.cg.raytracer.distributed;
+
+import edu.up.isgc.cg.raytracer.Raytracer;
+import edu.up.isgc.cg.raytracer.Scene;
+import edu.up.isgc.cg.raytracer.objects.Camera;
+import edu.up.isgc.cg.raytracer.render.FrameBuffer;
+import edu.up.isgc.cg.raytracer.render.HeapFrameBuffer;
+import edu.up.isgc.cg.raytracer.render.MappedFrameBuffer;
+import edu.up.isgc.cg.raytracer.render.Tile;
+import edu.up.isgc.cg.raytracer.tools.SceneFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker process rendering the tiles a {@link RenderCoordinator} hands out, on a pool of its own threads.
+ * The OBJ files of the scene are taken from the paths written in the scene file when they are present
+ * with the hash the coordinator announced, or else fetched from the coordinator once and kept in the asset
+ * directory under their hash, so later frames reuse them.
+ * The worker renders into a frame buffer of the whole image, of which only its own tiles are ever written;
+ * large images are mapped to a temporary file, which stays sparse on disk.
+ */
+public class RenderWorker {
+    public static final int MAX_HEAP_PIXELS = 1 << 24;
+
+    private final int threads;
+    private final File assetDirectory;
+
+    /**
+     * Constructs a RenderWorker.
+     *
+     * @param threads        The number of threads rendering tiles
+     * @param assetDirectory The directory keeping the OBJ files fetched from coordinators
+     */
+    public RenderWorker(int threads, File assetDirectory) {
+        this.threads = Math.max(1, threads);
+        this.assetDirectory = assetDirectory;
+    }
+
+    /**
+     * Connects to a coordinator and renders tiles until its frame is done.
+     *
+     * @param host The host of the coordinator
+     * @param port The port of the coordinator
+     * @throws IOException If the connection fails or the coordinator does not follow the protocol
+     */
+    public void run(String host, int port) throws IOException {
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Worker heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        FrameBuffer frameBuffer = null;
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeByte(Protocol.HELLO);
+            out.writeInt(Protocol.MAGIC);
+            out.writeInt(Protocol.VERSION);
+            out.writeInt(threads);
+            out.flush();
+            heartbeat.scheduleAtFixedRate(() -> send(out, Protocol.HEARTBEAT), Protocol.HEARTBEAT_INTERVAL_MILLIS,
+                    Protocol.HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (in.readByte() != Protocol.SCENE) {
+                throw new IOException("Expected the scene");
+            }
+            SceneFile sceneFile = new SceneFile(Protocol.readString(in));
+            int maxDepth = in.readInt();
+            Map<String, File> assets = fetchAssets(in, out);
+            Scene scene;
+            try {
+                scene = sceneFile.build(assets::get);
+            } catch (RuntimeException e) {
+                fail(out, e);
+                throw e;
+            }
+            frameBuffer = createFrameBuffer(scene.getCamera());
+            send(out, Protocol.READY);
+            System.out.println("Scene loaded, rendering tiles: " + new Date());
+
+            FrameBuffer target = frameBuffer;
+            int rendered = 0;
+            byte type;
+            while ((type = in.readByte()) != Protocol.DONE) {
+                if (type != Protocol.TILE) {
+                    throw new IOException("Unexpected message " + type);
+                }
+                int id = in.readInt();
+                Tile tile = new Tile(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                pool.execute(() -> renderTile(out, id, tile, target, scene, maxDepth));
+                rendered++;
+            }
+            System.out.println("Frame done, " + rendered + " tiles rendered: " + new Date());
+        } finally {
+            pool.shutdownNow();
+            heartbeat.shutdownNow();
+            if (frameBuffer != null) {
+                frameBuffer.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the assets of the scene, asking the coordinator for every one not held locally with the same hash.
+     *
+     * @param in  The stream from the coordinator
+     * @param out The stream to the coordinator
+     * @return The local file of every asset, by path as written in the scene file
+     * @throws IOException If an asset cannot be fetched or the coordinator announces malformed assets
+     */
+    private Map<String, File> fetchAssets(DataInputStream in, DataOutputStream out) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > Protocol.MAX_ASSETS) {
+            throw new IOException("Malformed asset count " + count);
+        }
+        String[] paths = new String[count];
+        String[] hashes = new String[count];
+        long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            paths[i] = Protocol.readString(in);
+            hashes[i] = Protocol.readString(in);
+            sizes[i] = in.readLong();
+            if (!Protocol.isHash(hashes[i]) || sizes[i] < 0) {
+                throw new IOException("Malformed asset " + i);
+            }
+        }
+
+        Map<String, File> files = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            File local = new File(paths[i]);
+            if (!matches(local, sizes[i], hashes[i])) {
+                String name = local.getName();
+                int dot = name.lastIndexOf('.');
+                local = new File(assetDirectory, hashes[i] + (dot >= 0 ? name.substring(dot) : ""));
+                if (!matches(local, sizes[i], hashes[i])) {
+                    synchronized (out) {
+                        out.writeByte(Protocol.ASSET_REQUEST);
+                        out.writeInt(i);
+                        out.flush();
+                    }
+                    receiveAsset(in, i, local, hashes[i]);
+                }
+            }
+            files.put(paths[i], local);
+        }
+        return files;
+    }
+
+    /**
+     * Receives an asset from the coordinator and stores it, checking its hash.
+     *
+     * @param in    The stream from the coordinator
+     * @param index The index of the asset requested
+     * @param file  The file to store the asset in
+     * @param hash  The hash announced for the asset
+     * @throws IOException If the asset cannot be received or does not match its hash
+     */
+    private static void receiveAsset(DataInputStream in, int index, File file, String hash) throws IOException {
+        if (in.readByte() != Protocol.ASSET || in.readInt() != index) {
+            throw new IOException("Expected asset " + index);
+        }
+        long size = in.readLong();
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Path target = file.toPath();
+        Path temporary = target.resolveSibling(target.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (OutputStream asset = Files.newOutputStream(temporary)) {
+                Protocol.copy(in, asset, size);
+            }
+            if (!Protocol.hash(temporary.toFile()).equals(hash)) {
+                throw new IOException("Asset " + index + " does not match its hash");
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Checks whether a local file holds an asset.
+     *
+     * @param file The local file
+     * @param size The size of the asset
+     * @param hash The hash of the asset
+     * @return True if the file exists with the size and hash of the asset
+     * @throws IOException If the file cannot be read
+     */
+    private static boolean matches(File file, long size, String hash) throws IOException {
+        return file.isFile() && file.length() == size && Protocol.hash(file).equals(hash);
+    }
+
+    /**
+     * Creates the frame buffer tiles are rendered into, in the heap unless the image is too large for it.
+     *
+     * @param camera The camera of the scene
+     * @return The frame buffer
+     * @throws IOException If the temporary file of a mapped buffer cannot be created
+     */
+    private FrameBuffer createFrameBuffer(Camera camera) throws IOException {
+        int width = camera.getResolutionWidth();
+        int height = camera.getResolutionHeight();
+        if ((long) width * height <= MAX_HEAP_PIXELS) {
+            return new HeapFrameBuffer(width, height);
+        }
+        return MappedFrameBuffer.createTemporary(null, width, height);
+    }
+
+    /**
+     * Renders a tile and sends its pixels to the coordinator, or a failure if it cannot be rendered.
+     *
+     * @param out         The stream to the coordinator
+     * @param id          The id of the tile
+     * @param tile        The tile to render
+     * @param frameBuffer The frame buffer to render into
+     * @param scene       The scene being rendered
+     * @param maxDepth    The maximum number of surfaces visited by a ray
+     */
+    private static void renderTile(DataOutputStream out, int id, Tile tile, FrameBuffer frameBuffer, Scene scene, int maxDepth) {
+        try {
+            Raytracer.draw(tile, frameBuffer, null, null, scene, 1, false, maxDepth);
+        } catch (RuntimeException e) {
+            fail(out, e);
+            return;
+        }
+        try {
+            synchronized (out) {
+                out.writeByte(Protocol.RESULT);
+                out.writeInt(id);
+                for (int j = tile.getY(); j < tile.getY() + tile.getHeight(); j++) {
+                    for (int i = tile.getX(); i < tile.getX() + tile.getWidth(); i++) {
+                        out.writeInt(frameBuffer.getRGB(i, j));
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println(e.toString());
+        }
+    }
+
+    /**
+     * Sends a message without fields to the coordinator, ignoring failures, which the main loop runs into as well.
+     *
+     * @param out  The stream to the coordinator
+     * @param type The type of the message
+     */
+    private static void send(DataOutputStream out, byte type) {
+        try {
+            synchronized (out) {
+                out.writeByte(type);
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println(e.toString());
+        }
+    }
+
+    /**
+     * Tells the coordinator that the worker cannot go on.
+     *
+     * @param out   The stream to the coordinator
+     * @param error The error that stopped the worker
+     */
+    private static void fail(DataOutputStream out, Exception error) {
+        error.printStackTrace();
+        try {
+            synchronized (out) {
+                out.writeByte(Protocol.FAILURE);
+                Protocol.writeString(out, error.toString());
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println(e.toString());
+        }
+    }
+
+    /**
+     * Runs a worker for a single frame.
+     * Arguments: the host and port of the coordinator, and optionally the number of threads and the asset directory.
+     *
+     * @param args The command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: RenderWorker <host> <port> [threads] [asset directory]");
+            System.exit(2);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        File assetDirectory = new File(args.length > 3 ? args[3] : "assets");
+        try {
+            new RenderWorker(threads, assetDirectory).run(args[0], Integer.parseInt(args[1]));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -50,6 +50,9 @@ public class DirectionalLight extends Light {
      */
     @Override
     public double getNDotL(Intersection intersection) {
-        return Math.max(Vector3D.dotProduct(intersection.getNormal(), Vector3D.scalarMultiplication(getDirection(),-1.0)), 0.0);
+        Vector3D normal = intersection.getNormal();
+        Vector3D direction = getDirection();
+        return Math.max(Vector3D.dotProduct(normal.getX(), normal.getY(), normal.getZ(),
+                -direction.getX(), -direction.getY(), -direction.getZ()), 0.0);
     }
 }
@@ -30,8 +30,14 @@ public class PointLight extends Light {
      */
     @Override
     public double getNDotL(Intersection intersection) {
+        Vector3D normal = intersection.getNormal();
+        Vector3D position = intersection.getPosition();
+        double lx = getPosition().getX() - position.getX();
+        double ly = getPosition().getY() - position.getY();
+        double lz = getPosition().getZ() - position.getZ();
+        double magnitude = Vector3D.magnitude(lx, ly, lz);
         return Math.max(
-                Vector3D.dotProduct(intersection.getNormal(),
-                        Vector3D.normalize(Vector3D.substract(getPosition(), intersection.getPosition()))), 0.0);
+                Vector3D.dotProduct(normal.getX(), normal.getY(), normal.getZ(),
+                        lx / magnitude, ly / magnitude, lz / magnitude), 0.0);
     }
 }
@@ -14,6 +14,7 @@ public class Camera extends Object3D {
     private double defaultZ = 15.0;
     private int[] resolution = new int[2];
     private double[] nearFarPlanes = new double[2];
+    private double[] viewport = new double[4];
 
     /**
      * Constructs a Camera with specified position, field of view, resolution, and near and far planes.
@@ -76,6 +77,7 @@ public class Camera extends Object3D {
      */
     public void setFOVHorizontal(double fovH) {
         fieldOfView[0] = fovH;
+        updateViewport();
     }
 
     /**
@@ -85,6 +87,7 @@ public class Camera extends Object3D {
      */
     public void setFOVVertical(double fovV) {
         fieldOfView[1] = fovV;
+        updateViewport();
     }
 
     /**
@@ -114,6 +117,7 @@ public class Camera extends Object3D {
      */
     public void setDefaultZ(double defaultZ) {
         this.defaultZ = defaultZ;
+        updateViewport();
     }
 
     /**
@@ -132,6 +136,7 @@ public class Camera extends Object3D {
      */
     public void setResolutionWidth(int width) {
         resolution[0] = width;
+        updateViewport();
     }
 
     /**
@@ -141,6 +146,7 @@ public class Camera extends Object3D {
      */
     public void setResolutionHeight(int height) {
         resolution[1] = height;
+        updateViewport();
     }
 
     /**
@@ -200,11 +206,10 @@ public class Camera extends Object3D {
     }
 
     /**
-     * Calculates the positions for rays to be traced from the camera.
-     *
-     * @return A 2D array of positions for rays
+     * Recalculates the bounds of the viewport and the size of a pixel on it.
+     * Called whenever the field of view, resolution or default Z coordinate changes.
      */
-    public Vector3D[][] calculatePositionsToRay() {
+    private void updateViewport() {
         double angleMaxX = getFOVHorizontal() / 2.0;
         double radiusMaxX = getDefaultZ() / Math.cos(Math.toRadians(angleMaxX));
 
@@ -217,19 +222,36 @@ public class Camera extends Object3D {
         double maxY = Math.sin(Math.toRadians(angleMaxY)) * radiusMaxY;
         double minY = -maxY;
 
-        Vector3D[][] positions = new Vector3D[getResolutionWidth()][getResolutionHeight()];
-        double posZ = defaultZ;
-
-        double stepX = (maxX - minX) / getResolutionWidth();
-        double stepY = (maxY - minY) / getResolutionHeight();
-        for (int x = 0; x < positions.length; x++) {
-            for (int y = 0; y < positions[x].length; y++) {
-                double posX = minX + (stepX * x);
-                double posY = maxY - (stepY * y);
-                positions[x][y] = new Vector3D(posX, posY, posZ);
-            }
-        }
-        return positions;
+        viewport[0] = minX;
+        viewport[1] = maxY;
+        viewport[2] = (maxX - minX) / getResolutionWidth();
+        viewport[3] = (maxY - minY) / getResolutionHeight();
+    }
+
+    /**
+     * Calculates the position on the viewport a ray has to be traced through for an image coordinate.
+     * Integer coordinates correspond to the top-left corner of a pixel, fractional ones to sub-pixel offsets.
+     *
+     * @param x The horizontal image coordinate, in pixels
+     * @param y The vertical image coordinate, in pixels
+     * @return The position on the viewport relative to the camera
+     */
+    public Vector3D calculatePositionToRay(double x, double y) {
+        double posX = viewport[0] + (viewport[2] * x);
+        double posY = viewport[1] - (viewport[3] * y);
+        return new Vector3D(posX, posY, getDefaultZ());
+    }
+
+    /**
+     * Generates the primary ray for an image coordinate.
+     *
+     * @param x The horizontal image coordinate, in pixels
+     * @param y The vertical image coordinate, in pixels
+     * @return The ray leaving the camera through the given image coordinate
+     */
+    public Ray getPrimaryRay(double x, double y) {
+        Vector3D position = getPosition();
+        return new Ray(position, Vector3D.add(calculatePositionToRay(x, y), position));
     }
 
     @Override
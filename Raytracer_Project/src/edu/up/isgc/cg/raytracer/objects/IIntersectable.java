@@ -2,6 +2,7 @@ package edu.up.isgc.cg.raytracer.objects;
 
 import edu.up.isgc.cg.raytracer.Intersection;
 import edu.up.isgc.cg.raytracer.Ray;
+import edu.up.isgc.cg.raytracer.RayPacket;
 
 /**
  * Interface for objects that can be intersected by a ray.
@@ -14,4 +15,35 @@ public interface IIntersectable {
      * @return The intersection of the ray with the object
      */
     Intersection getIntersection(Ray ray);
+
+    /**
+     * Gets the distance to a hit of a ray with the object before a given distance, as needed by shadow rays.
+     * Implementations should stop at the first hit found and skip computing positions and normals;
+     * by default the closest intersection is used.
+     *
+     * @param ray         The ray to test
+     * @param maxDistance The distance along the ray beyond which hits are ignored
+     * @return The distance along the ray to the hit, in [0, maxDistance), or -1 if there is none
+     */
+    default double getHitDistance(Ray ray, double maxDistance) {
+        Intersection intersection = getIntersection(ray);
+        if (intersection == null || !(intersection.getDistance() >= 0 && intersection.getDistance() < maxDistance)) {
+            return -1;
+        }
+        return intersection.getDistance();
+    }
+
+    /**
+     * Gets the closest intersections of the object with every ray of a packet.
+     * Implementations may ignore hits that are not closer than the maximum distance of their ray,
+     * but must not change the maximum distances of the packet; by default every ray is intersected on its own.
+     *
+     * @param packet        The packet of rays to intersect with the object
+     * @param intersections Where the closest intersection of every ray is stored, or null if it misses the object
+     */
+    default void getIntersections(RayPacket packet, Intersection[] intersections) {
+        for (int i = 0; i < packet.getSize(); i++) {
+            intersections[i] = getIntersection(packet.getRay(i));
+        }
+    }
 }
\ No newline at end of file
@@ -1,21 +1,30 @@
 package edu.up.isgc.cg.raytracer.objects;
 
 import edu.up.isgc.cg.raytracer.Intersection;
+import edu.up.isgc.cg.raytracer.Matrix4D;
 import edu.up.isgc.cg.raytracer.Ray;
+import edu.up.isgc.cg.raytracer.RayPacket;
 import edu.up.isgc.cg.raytracer.Vector3D;
-import edu.up.isgc.cg.raytracer.tools.Barycentric;
+import edu.up.isgc.cg.raytracer.acceleration.BVH;
+import edu.up.isgc.cg.raytracer.acceleration.BoundingBox;
+import edu.up.isgc.cg.raytracer.render.RenderStatistics;
 
 import java.awt.*;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Represents a 3D model composed of multiple triangles.
+ * The triangles are kept in a packed {@link TriangleMesh} with its own BVH. A model can also be an instance
+ * of a mesh shared with other models: the mesh is then kept in object space and placed in the world by a
+ * transform, and rays are transformed into object space when they are intersected with it.
  */
 public class Model3D extends Object3D {
-    private List<Triangle> triangles;
+    private TriangleMesh mesh;
+    private Matrix4D transform;
+    private Matrix4D inverseTransform;
+    private Matrix4D normalTransform;
 
     /**
      * Constructs a 3D model with specified position, triangles, color, shininess, reflectivity, and refraction.
@@ -33,60 +42,314 @@ public class Model3D extends Object3D {
     }
 
     /**
-     * Gets the triangles composing the model.
+     * Constructs a 3D model from a mesh that is already placed in world space.
+     * The mesh is not copied, so it can be shared by several models.
+     *
+     * @param position    The position of the model
+     * @param mesh        The mesh of the model, in world space
+     * @param color       The color of the model
+     * @param shininess   The shininess of the model
+     * @param reflectivity The reflectivity of the model
+     * @param refraction  The refraction index of the model
+     */
+    public Model3D(Vector3D position, TriangleMesh mesh, Color color, double shininess, double reflectivity, double refraction) {
+        super(position, color, shininess, reflectivity, refraction);
+        setMesh(mesh);
+    }
+
+    /**
+     * Constructs an instance of a mesh placed in the world by a transform.
+     * The mesh is not copied, so any number of instances can share it and its BVH.
+     *
+     * @param position    The position of the model
+     * @param mesh        The mesh of the model, in object space
+     * @param transform   The transform from object space to world space
+     * @param color       The color of the model
+     * @param shininess   The shininess of the model
+     * @param reflectivity The reflectivity of the model
+     * @param refraction  The refraction index of the model
+     */
+    public Model3D(Vector3D position, TriangleMesh mesh, Matrix4D transform, Color color, double shininess, double reflectivity, double refraction) {
+        super(position, color, shininess, reflectivity, refraction);
+        setMesh(mesh);
+        setTransform(transform);
+    }
+
+    /**
+     * Gets the triangles composing the model, in world space.
+     * The triangles are rebuilt from the packed mesh on every call, in the order the mesh stores them.
      *
      * @return The list of triangles
      */
     public List<Triangle> getTriangles() {
+        TriangleMesh mesh = getMesh();
+        List<Triangle> triangles = new ArrayList<>(mesh.getTriangleCount());
+        for (int i = 0; i < mesh.getTriangleCount(); i++) {
+            Triangle triangle = mesh.getTriangle(i);
+            if (transform != null) {
+                Vector3D[] vertices = triangle.getVertices();
+                Vector3D[] normals = triangle.getNormals();
+                for (int corner = 0; corner < vertices.length; corner++) {
+                    transform.transformPoint(vertices[corner], vertices[corner]);
+                    transformNormal(normals[corner], normals[corner]);
+                }
+                triangle = new Triangle(vertices, normals);
+            }
+            triangles.add(triangle);
+        }
         return triangles;
     }
 
     /**
-     * Sets the triangles composing the model.
+     * Sets the triangles composing the model, packing them into a mesh translated to the position of the model.
+     * Any instance transform of the model is removed.
      *
      * @param triangles The triangles to set
      */
     public void setTriangles(Triangle[] triangles) {
-        Vector3D position = getPosition();
-        Set<Vector3D> uniqueVertices = new HashSet<>();
-        for (Triangle triangle : triangles) {
-            uniqueVertices.addAll(Arrays.asList(triangle.getVertices()));
+        setMesh(new TriangleMesh(triangles, getPosition()));
+        setTransform(null);
+    }
+
+    /**
+     * Gets the packed mesh of the model.
+     *
+     * @return The mesh of the model
+     */
+    public TriangleMesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * Sets the packed mesh of the model.
+     *
+     * @param mesh The mesh to set
+     */
+    private void setMesh(TriangleMesh mesh) {
+        this.mesh = mesh;
+    }
+
+    /**
+     * Gets the transform from object space to world space of the model.
+     *
+     * @return The transform of the model, or null if its mesh is already in world space
+     */
+    public Matrix4D getTransform() {
+        return transform;
+    }
+
+    /**
+     * Sets the transform from object space to world space of the model.
+     *
+     * @param transform The transform to set, or null if the mesh is already in world space
+     */
+    public void setTransform(Matrix4D transform) {
+        this.transform = transform;
+        this.inverseTransform = transform == null ? null : transform.inverse();
+        this.normalTransform = inverseTransform == null ? null : inverseTransform.transpose();
+    }
+
+    /**
+     * Transforms a normal from object space to world space, keeping its length so shading matches
+     * a mesh whose normals were transformed when it was built.
+     *
+     * @param normal The normal in object space
+     * @param result The vector where the world space normal is stored
+     * @return The result vector
+     */
+    private Vector3D transformNormal(Vector3D normal, Vector3D result) {
+        double length = Vector3D.magnitude(normal);
+        normalTransform.transformDirection(normal, result);
+        double transformedLength = Vector3D.magnitude(result);
+        if (transformedLength == 0) {
+            return result;
         }
+        return Vector3D.scalarMultiplication(result, length / transformedLength, result);
+    }
+
+    /**
+     * Gets the bounding volume hierarchy built over the triangles of the model.
+     *
+     * @return The bounding volume hierarchy of the model
+     */
+    public BVH getBVH() {
+        return getMesh().getBVH();
+    }
 
-        for (Vector3D vertex : uniqueVertices) {
-            vertex.setX(vertex.getX() + position.getX());
-            vertex.setY(vertex.getY() + position.getY());
-            vertex.setZ(vertex.getZ() + position.getZ());
+    @Override
+    public BoundingBox getBoundingBox() {
+        BoundingBox box = getBVH().getBounds();
+        if (transform == null || box.isEmpty()) {
+            return box;
+        }
+        BoundingBox worldBox = new BoundingBox();
+        Vector3D corner = Vector3D.ZERO();
+        for (int i = 0; i < 8; i++) {
+            corner.set((i & 1) == 0 ? box.getMin(0) : box.getMax(0),
+                    (i & 2) == 0 ? box.getMin(1) : box.getMax(1),
+                    (i & 4) == 0 ? box.getMin(2) : box.getMax(2));
+            worldBox.expand(transform.transformPoint(corner, corner));
         }
-        this.triangles = Arrays.asList(triangles);
+        return worldBox;
     }
 
     @Override
     public Intersection getIntersection(Ray ray) {
-        double distance = -1;
-        Vector3D position = Vector3D.ZERO();
-        Vector3D normal = Vector3D.ZERO();
-
-        for (Triangle triangle : getTriangles()) {
-            Intersection intersection = triangle.getIntersection(ray);
-            double intersectionDistance = intersection.getDistance();
-            if (intersectionDistance > 0 &&
-                    (intersectionDistance < distance || distance < 0)) {
-                distance = intersectionDistance;
-                position = Vector3D.add(ray.getOrigin(), Vector3D.scalarMultiplication(ray.getDirection(), distance));
-                normal = Vector3D.ZERO();
-                double[] uvw = Barycentric.CalculateBarycentricCoordinates(position, triangle);
-                Vector3D[] normals = triangle.getNormals();
-                for (int i = 0; i < uvw.length; i++) {
-                    normal = Vector3D.add(normal, Vector3D.scalarMultiplication(normals[i], uvw[i]));
-                }
-            }
-        }
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        Vector3D objectOrigin = toObjectOrigin(origin);
+        Vector3D objectDirection = toObjectDirection(direction);
 
-        if (distance == -1) {
+        TriangleHit closest = new TriangleHit(objectOrigin, objectDirection, getMesh(), false);
+        getBVH().traverseLeaves(objectOrigin.getX(), objectOrigin.getY(), objectOrigin.getZ(),
+                objectDirection.getX(), objectDirection.getY(), objectDirection.getZ(),
+                Double.POSITIVE_INFINITY, closest);
+        RenderStatistics.countTriangleTests(closest.tests);
+
+        if (closest.triangle == -1) {
             return null;
         }
 
+        double distance = closest.distance;
+        Vector3D position = new Vector3D(origin.getX() + direction.getX() * distance,
+                origin.getY() + direction.getY() * distance,
+                origin.getZ() + direction.getZ() * distance);
+        Vector3D normal = getMesh().interpolateNormal(closest.triangle, closest.u, closest.v);
+        if (transform != null) {
+            transformNormal(normal, normal);
+        }
+
         return new Intersection(position, distance, normal, this);
     }
+
+    @Override
+    public void getIntersections(RayPacket packet, Intersection[] intersections) {
+        int size = packet.getSize();
+        double[] originX = packet.getOriginX();
+        double[] originY = packet.getOriginY();
+        double[] originZ = packet.getOriginZ();
+        double[] directionX = packet.getDirectionX();
+        double[] directionY = packet.getDirectionY();
+        double[] directionZ = packet.getDirectionZ();
+
+        // The maximum distances of the packet belong to the caller, so the search runs on a copy
+        RayPacket objectPacket = new RayPacket();
+        Vector3D objectOrigin = Vector3D.ZERO();
+        Vector3D objectDirection = Vector3D.ZERO();
+        for (int i = 0; i < size; i++) {
+            objectOrigin.set(originX[i], originY[i], originZ[i]);
+            objectDirection.set(directionX[i], directionY[i], directionZ[i]);
+            if (transform != null) {
+                inverseTransform.transformPoint(objectOrigin, objectOrigin);
+                inverseTransform.transformDirection(objectDirection, objectDirection);
+            }
+            objectPacket.add(packet.getRay(i), objectOrigin.getX(), objectOrigin.getY(), objectOrigin.getZ(),
+                    objectDirection.getX(), objectDirection.getY(), objectDirection.getZ(), packet.getMaxDistances()[i]);
+        }
+
+        int[] triangles = new int[size];
+        double[] us = new double[size];
+        double[] vs = new double[size];
+        Arrays.fill(triangles, -1);
+        TriangleMesh mesh = getMesh();
+        getBVH().traverse(objectPacket, (primitive, rays) -> {
+            mesh.intersect(primitive, rays, triangles, us, vs);
+            RenderStatistics.countTriangleTests(rays.getSize());
+        });
+
+        double[] distances = objectPacket.getMaxDistances();
+        for (int i = 0; i < size; i++) {
+            if (triangles[i] == -1) {
+                intersections[i] = null;
+                continue;
+            }
+            double distance = distances[i];
+            Vector3D position = new Vector3D(originX[i] + directionX[i] * distance,
+                    originY[i] + directionY[i] * distance,
+                    originZ[i] + directionZ[i] * distance);
+            Vector3D normal = mesh.interpolateNormal(triangles[i], us[i], vs[i]);
+            if (transform != null) {
+                transformNormal(normal, normal);
+            }
+            intersections[i] = new Intersection(position, distance, normal, this);
+        }
+    }
+
+    @Override
+    public double getHitDistance(Ray ray, double maxDistance) {
+        Vector3D objectOrigin = toObjectOrigin(ray.getOrigin());
+        Vector3D objectDirection = toObjectDirection(ray.getDirection());
+
+        TriangleHit hit = new TriangleHit(objectOrigin, objectDirection, getMesh(), true);
+        getBVH().traverseLeaves(objectOrigin.getX(), objectOrigin.getY(), objectOrigin.getZ(),
+                objectDirection.getX(), objectDirection.getY(), objectDirection.getZ(),
+                maxDistance, hit);
+        RenderStatistics.countTriangleTests(hit.tests);
+        return hit.triangle == -1 ? -1 : hit.distance;
+    }
+
+    /**
+     * Moves the origin of a ray into the object space of the model.
+     *
+     * @param origin The origin of the ray, in world space
+     * @return The origin in object space
+     */
+    private Vector3D toObjectOrigin(Vector3D origin) {
+        return transform == null ? origin : inverseTransform.transformPoint(origin, Vector3D.ZERO());
+    }
+
+    /**
+     * Moves the direction of a ray into the object space of the model.
+     * The direction is not normalized, so distances in object space are distances in world space.
+     *
+     * @param direction The direction of the ray, in world space
+     * @return The direction in object space
+     */
+    private Vector3D toObjectDirection(Vector3D direction) {
+        return transform == null ? direction : inverseTransform.transformDirection(direction, Vector3D.ZERO());
+    }
+
+    /**
+     * Keeps track of the triangle hit by a ray while the BVH is traversed: either the closest one,
+     * or the first one found when only occlusion matters. Triangles are stored in leaf order, so every
+     * leaf is a contiguous range of triangles tested at once by the triangle kernel. The barycentric
+     * coordinates of the hit are kept so the normal is interpolated only once, for the final hit,
+     * and the triangles tested are counted for the render statistics.
+     */
+    private static class TriangleHit implements BVH.LeafVisitor {
+        private final TriangleMesh mesh;
+        private final double ox, oy, oz;
+        private final double dx, dy, dz;
+        private final boolean anyHit;
+        private final double[] hit = new double[3];
+        private int triangle = -1;
+        private double distance = -1;
+        private double u, v;
+        private int tests;
+
+        private TriangleHit(Vector3D origin, Vector3D direction, TriangleMesh mesh, boolean anyHit) {
+            this.mesh = mesh;
+            this.anyHit = anyHit;
+            ox = origin.getX();
+            oy = origin.getY();
+            oz = origin.getZ();
+            dx = direction.getX();
+            dy = direction.getY();
+            dz = direction.getZ();
+        }
+
+        @Override
+        public double visit(int first, int count, double maxDistance) {
+            tests += count;
+            int hitTriangle = mesh.intersect(first, count, ox, oy, oz, dx, dy, dz, maxDistance, hit);
+            if (hitTriangle != -1) {
+                triangle = hitTriangle;
+                distance = hit[0];
+                u = hit[1];
+                v = hit[2];
+                return anyHit ? -1 : distance;
+            }
+            return maxDistance;
+        }
+    }
 }
\ No newline at end of file
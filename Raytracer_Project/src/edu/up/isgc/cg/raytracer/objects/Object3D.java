@@ -3,6 +3,7 @@ package edu.up.isgc.cg.raytracer.objects;
 import edu.up.isgc.cg.raytracer.Intersection;
 import edu.up.isgc.cg.raytracer.Ray;
 import edu.up.isgc.cg.raytracer.Vector3D;
+import edu.up.isgc.cg.raytracer.acceleration.BoundingBox;
 
 import java.awt.*;
 
@@ -124,4 +125,14 @@ public abstract class Object3D implements IIntersectable {
         this.refractionIndex = refractionIndex;
         if (getReflectivenessIndex() != 0) this.refractionIndex = 0;
     }
+
+    /**
+     * Gets the world-space axis-aligned bounding box of the object.
+     * Objects without finite bounds return null and are tested against every ray.
+     *
+     * @return The bounding box of the object, or null if the object is unbounded
+     */
+    public BoundingBox getBoundingBox() {
+        return null;
+    }
 }
\ No newline at end of file
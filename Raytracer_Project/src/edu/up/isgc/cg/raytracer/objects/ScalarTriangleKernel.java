@@ -0,0 +1,83 @@
+package edu.up.isgc.cg.raytracer.objects;
+
+import edu.up.isgc.cg.raytracer.RayPacket;
+import edu.up.isgc.cg.raytracer.Vector3D;
+
+/**
+ * Scalar Möller–Trumbore kernel that tests one ray against one triangle at a time.
+ */
+public class ScalarTriangleKernel implements TriangleKernel {
+    @Override
+    public int intersect(TriangleMesh mesh, int first, int count, double ox, double oy, double oz,
+                         double dx, double dy, double dz, double maxDistance, double[] hit) {
+        int closest = -1;
+        double u = 0;
+        double v = 0;
+        for (int i = first; i < first + count; i++) {
+            double distance = mesh.intersect(i, ox, oy, oz, dx, dy, dz, hit);
+            if (distance > 0 && distance < maxDistance) {
+                closest = i;
+                maxDistance = distance;
+                u = hit[0];
+                v = hit[1];
+            }
+        }
+        if (closest != -1) {
+            hit[0] = maxDistance;
+            hit[1] = u;
+            hit[2] = v;
+        }
+        return closest;
+    }
+
+    @Override
+    public void intersect(TriangleMesh mesh, int triangle, RayPacket packet, int[] triangles, double[] us, double[] vs) {
+        double ax = mesh.getV0X()[triangle];
+        double ay = mesh.getV0Y()[triangle];
+        double az = mesh.getV0Z()[triangle];
+        double v1v0x = mesh.getE1X()[triangle];
+        double v1v0y = mesh.getE1Y()[triangle];
+        double v1v0z = mesh.getE1Z()[triangle];
+        double v2v0x = mesh.getE2X()[triangle];
+        double v2v0y = mesh.getE2Y()[triangle];
+        double v2v0z = mesh.getE2Z()[triangle];
+        double[] originX = packet.getOriginX();
+        double[] originY = packet.getOriginY();
+        double[] originZ = packet.getOriginZ();
+        double[] directionX = packet.getDirectionX();
+        double[] directionY = packet.getDirectionY();
+        double[] directionZ = packet.getDirectionZ();
+        double[] maxDistances = packet.getMaxDistances();
+
+        for (int i = 0; i < packet.getSize(); i++) {
+            double dx = directionX[i];
+            double dy = directionY[i];
+            double dz = directionZ[i];
+            double px = (dy * v1v0z) - (dz * v1v0y);
+            double py = (dz * v1v0x) - (dx * v1v0z);
+            double pz = (dx * v1v0y) - (dy * v1v0x);
+            double invDet = 1.0 / Vector3D.dotProduct(v2v0x, v2v0y, v2v0z, px, py, pz);
+            double tx = originX[i] - ax;
+            double ty = originY[i] - ay;
+            double tz = originZ[i] - az;
+            double u = invDet * Vector3D.dotProduct(tx, ty, tz, px, py, pz);
+            if (u < 0 || u > 1) {
+                continue;
+            }
+            double qx = (ty * v2v0z) - (tz * v2v0y);
+            double qy = (tz * v2v0x) - (tx * v2v0z);
+            double qz = (tx * v2v0y) - (ty * v2v0x);
+            double v = invDet * Vector3D.dotProduct(dx, dy, dz, qx, qy, qz);
+            if (v < 0 || (u + v) > (1.0 + Triangle.EPSILON)) {
+                continue;
+            }
+            double distance = invDet * Vector3D.dotProduct(qx, qy, qz, v1v0x, v1v0y, v1v0z);
+            if (distance > 0 && distance < maxDistances[i]) {
+                maxDistances[i] = distance;
+                triangles[i] = triangle;
+                us[i] = u;
+                vs[i] = v;
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package edu.up.isgc.cg.raytracer.objects;
 import edu.up.isgc.cg.raytracer.Intersection;
 import edu.up.isgc.cg.raytracer.Ray;
 import edu.up.isgc.cg.raytracer.Vector3D;
+import edu.up.isgc.cg.raytracer.acceleration.BoundingBox;
 
 import java.awt.*;
 
@@ -45,11 +46,22 @@ public class Sphere extends Object3D {
         this.radius = radius;
     }
 
+    @Override
+    public BoundingBox getBoundingBox() {
+        Vector3D extent = new Vector3D(getRadius(), getRadius(), getRadius());
+        return new BoundingBox(Vector3D.substract(getPosition(), extent), Vector3D.add(getPosition(), extent));
+    }
+
     @Override
     public Intersection getIntersection(Ray ray) {
-        Vector3D L = Vector3D.substract(getPosition(), ray.getOrigin());
-        double tca = Vector3D.dotProduct(L, ray.getDirection());
-        double L2 = Math.pow(Vector3D.magnitude(L), 2);
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        Vector3D center = getPosition();
+        double lx = center.getX() - origin.getX();
+        double ly = center.getY() - origin.getY();
+        double lz = center.getZ() - origin.getZ();
+        double tca = Vector3D.dotProduct(lx, ly, lz, direction.getX(), direction.getY(), direction.getZ());
+        double L2 = Math.pow(Vector3D.magnitude(lx, ly, lz), 2);
         double d2 = L2 - Math.pow(tca, 2);
         if (d2 >= 0) {
             double d = Math.sqrt(d2);
@@ -57,11 +69,32 @@ public class Sphere extends Object3D {
             double t1 = tca + Math.sqrt(Math.pow(getRadius(), 2) - Math.pow(d, 2));
 
             double distance = Math.min(t0, t1);
-            Vector3D position = Vector3D.add(ray.getOrigin(), Vector3D.scalarMultiplication(ray.getDirection(), distance));
-            Vector3D normal = Vector3D.normalize(Vector3D.substract(position, getPosition()));
+            Vector3D position = new Vector3D(origin.getX() + direction.getX() * distance,
+                    origin.getY() + direction.getY() * distance,
+                    origin.getZ() + direction.getZ() * distance);
+            Vector3D normal = Vector3D.substract(position, center);
+            Vector3D.normalize(normal, normal);
             return new Intersection(position, distance, normal, this);
         }
 
         return null;
     }
+
+    @Override
+    public double getHitDistance(Ray ray, double maxDistance) {
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        Vector3D center = getPosition();
+        double lx = center.getX() - origin.getX();
+        double ly = center.getY() - origin.getY();
+        double lz = center.getZ() - origin.getZ();
+        double tca = Vector3D.dotProduct(lx, ly, lz, direction.getX(), direction.getY(), direction.getZ());
+        double d2 = Math.pow(Vector3D.magnitude(lx, ly, lz), 2) - Math.pow(tca, 2);
+        if (d2 < 0) {
+            return -1;
+        }
+        double thc = Math.sqrt(Math.pow(getRadius(), 2) - d2);
+        double distance = Math.min(tca - thc, tca + thc);
+        return distance >= 0 && distance < maxDistance ? distance : -1;
+    }
 }
@@ -3,8 +3,7 @@ package edu.up.isgc.cg.raytracer.objects;
 import edu.up.isgc.cg.raytracer.Intersection;
 import edu.up.isgc.cg.raytracer.Ray;
 import edu.up.isgc.cg.raytracer.Vector3D;
-
-import javax.management.ValueExp;
+import edu.up.isgc.cg.raytracer.acceleration.BoundingBox;
 
 /**
  * Represents a triangular 3D object.
@@ -128,28 +127,72 @@ public class Triangle implements IIntersectable {
         setNormals(new Vector3D[]{n0, n1, n2});
     }
 
+    /**
+     * Gets the axis-aligned bounding box enclosing the vertices of the triangle.
+     *
+     * @return The bounding box of the triangle
+     */
+    public BoundingBox getBoundingBox() {
+        BoundingBox box = new BoundingBox();
+        for (Vector3D vertex : getVertices()) {
+            box.expand(vertex);
+        }
+        return box;
+    }
+
     @Override
     public Intersection getIntersection(Ray ray) {
-        Intersection intersection = new Intersection(null, -1, null, null);
+        return new Intersection(null, intersect(ray), null, null);
+    }
+
+    @Override
+    public double getHitDistance(Ray ray, double maxDistance) {
+        double distance = intersect(ray);
+        return distance >= 0 && distance < maxDistance ? distance : -1;
+    }
 
+    /**
+     * Intersects the triangle with a ray using the Möller–Trumbore algorithm without allocating.
+     *
+     * @param ray The ray to intersect with the triangle
+     * @return The distance along the ray to the intersection, or -1 if the ray misses the triangle
+     */
+    public double intersect(Ray ray) {
         Vector3D[] vert = getVertices();
-        Vector3D v2v0 = Vector3D.substract(vert[2], vert[0]);
-        Vector3D v1v0 = Vector3D.substract(vert[1], vert[0]);
-        Vector3D vectorP = Vector3D.crossProduct(ray.getDirection(), v1v0);
-        double det = Vector3D.dotProduct(v2v0, vectorP);
+        Vector3D v0 = vert[0];
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        double dx = direction.getX();
+        double dy = direction.getY();
+        double dz = direction.getZ();
+
+        double v2v0x = vert[2].getX() - v0.getX();
+        double v2v0y = vert[2].getY() - v0.getY();
+        double v2v0z = vert[2].getZ() - v0.getZ();
+        double v1v0x = vert[1].getX() - v0.getX();
+        double v1v0y = vert[1].getY() - v0.getY();
+        double v1v0z = vert[1].getZ() - v0.getZ();
+
+        double px = (dy * v1v0z) - (dz * v1v0y);
+        double py = (dz * v1v0x) - (dx * v1v0z);
+        double pz = (dx * v1v0y) - (dy * v1v0x);
+        double det = Vector3D.dotProduct(v2v0x, v2v0y, v2v0z, px, py, pz);
         double invDet = 1.0 / det;
-        Vector3D vectorT = Vector3D.substract(ray.getOrigin(), vert[0]);
-        double u = invDet * Vector3D.dotProduct(vectorT, vectorP);
+        double tx = origin.getX() - v0.getX();
+        double ty = origin.getY() - v0.getY();
+        double tz = origin.getZ() - v0.getZ();
+        double u = invDet * Vector3D.dotProduct(tx, ty, tz, px, py, pz);
 
         if (!(u < 0 || u > 1)) {
-            Vector3D vectorQ = Vector3D.crossProduct(vectorT, v2v0);
-            double v = invDet * Vector3D.dotProduct(ray.getDirection(), vectorQ);
+            double qx = (ty * v2v0z) - (tz * v2v0y);
+            double qy = (tz * v2v0x) - (tx * v2v0z);
+            double qz = (tx * v2v0y) - (ty * v2v0x);
+            double v = invDet * Vector3D.dotProduct(dx, dy, dz, qx, qy, qz);
             if (!(v < 0 || (u + v) > (1.0 + EPSILON))) {
-                double t = invDet * Vector3D.dotProduct(vectorQ, v1v0);
-                intersection.setDistance(t);
+                return invDet * Vector3D.dotProduct(qx, qy, qz, v1v0x, v1v0y, v1v0z);
             }
         }
 
-        return intersection;
+        return -1;
     }
 }
@@ -0,0 +1,70 @@
+package edu.up.isgc.cg.raytracer.objects;
+
+import edu.up.isgc.cg.raytracer.RayPacket;
+
+/**
+ * Intersection kernel run over the packed triangles of a {@link TriangleMesh}.
+ * The scalar kernel is always available. A SIMD kernel built on the Java Vector API can be selected by setting
+ * the system property {@value #KERNEL_PROPERTY} to "vector"; it is used when it was compiled in and the
+ * jdk.incubator.vector module is present at runtime, and the scalar kernel is used otherwise.
+ */
+public interface TriangleKernel {
+    /**
+     * Name of the class of the SIMD kernel, compiled from the src-vector source folder.
+     */
+    String VECTOR_KERNEL = "edu.up.isgc.cg.raytracer.objects.VectorTriangleKernel";
+
+    /**
+     * Name of the system property that selects the kernel: "scalar" (the default) or "vector".
+     */
+    String KERNEL_PROPERTY = "raytracer.kernel";
+
+    /**
+     * Finds the closest triangle of a contiguous range of triangles hit by a ray.
+     * The direction need not be normalized; distances are measured in multiples of its length.
+     *
+     * @param mesh        The mesh holding the triangles
+     * @param first       The index of the first triangle of the range
+     * @param count       The number of triangles of the range
+     * @param ox          The x component of the ray origin
+     * @param oy          The y component of the ray origin
+     * @param oz          The z component of the ray origin
+     * @param dx          The x component of the ray direction
+     * @param dy          The y component of the ray direction
+     * @param dz          The z component of the ray direction
+     * @param maxDistance The distance along the ray beyond which hits are ignored
+     * @param hit         Where the distance and the weights of the third and second vertices of the hit are stored
+     * @return The index of the closest triangle hit, or -1 if no triangle is hit closer than the maximum distance
+     */
+    int intersect(TriangleMesh mesh, int first, int count, double ox, double oy, double oz,
+                  double dx, double dy, double dz, double maxDistance, double[] hit);
+
+    /**
+     * Intersects a triangle with every ray of a packet. Every ray that hits the triangle closer than
+     * its maximum distance gets its maximum distance lowered and its hit recorded.
+     *
+     * @param mesh      The mesh holding the triangle
+     * @param triangle  The index of the triangle
+     * @param packet    The packet of rays
+     * @param triangles The index of the triangle hit by every ray, updated on closer hits
+     * @param us        The weight of the third vertex of the hit of every ray, updated on closer hits
+     * @param vs        The weight of the second vertex of the hit of every ray, updated on closer hits
+     */
+    void intersect(TriangleMesh mesh, int triangle, RayPacket packet, int[] triangles, double[] us, double[] vs);
+
+    /**
+     * Loads the kernel selected by the {@value #KERNEL_PROPERTY} system property, falling back to the scalar kernel.
+     *
+     * @return The kernel to use
+     */
+    static TriangleKernel load() {
+        if ("vector".equals(System.getProperty(KERNEL_PROPERTY))) {
+            try {
+                return (TriangleKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // The SIMD kernel was not compiled in, or the jdk.incubator.vector module is not available
+            }
+        }
+        return new ScalarTriangleKernel();
+    }
+}
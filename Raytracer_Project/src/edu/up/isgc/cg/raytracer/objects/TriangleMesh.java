@@ -0,0 +1,457 @@
+package edu.up.isgc.cg.raytracer.objects;
+
+import edu.up.isgc.cg.raytracer.RayPacket;
+import edu.up.isgc.cg.raytracer.Vector3D;
+import edu.up.isgc.cg.raytracer.acceleration.BVH;
+import edu.up.isgc.cg.raytracer.acceleration.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packed triangle mesh stored as primitive arrays instead of Triangle and Vector3D objects.
+ * Vertices and normals are deduplicated into position and normal buffers referenced by index buffers,
+ * and every triangle keeps its first vertex and two edge vectors in structure-of-arrays form so the
+ * intersection kernel streams through contiguous memory. Triangles are stored in the leaf order of the
+ * mesh BVH, so each leaf covers a contiguous range of triangles.
+ */
+public class TriangleMesh {
+    private static final TriangleKernel KERNEL = TriangleKernel.load();
+
+    private double[] positions;
+    private double[] normals;
+    private int[] vertexIndices;
+    private int[] normalIndices;
+
+    private double[] v0x, v0y, v0z;
+    private double[] e1x, e1y, e1z;
+    private double[] e2x, e2y, e2z;
+
+    private BVH bvh;
+
+    /**
+     * Constructs a packed mesh from triangles, translating every vertex by an offset.
+     * The triangles are not modified.
+     *
+     * @param triangles The triangles composing the mesh
+     * @param offset    The translation applied to the vertices
+     */
+    public TriangleMesh(Triangle[] triangles, Vector3D offset) {
+        Map<Vector3D, Integer> vertexIds = new IdentityHashMap<>();
+        Map<Vector3D, Integer> normalIds = new IdentityHashMap<>();
+        List<Vector3D> uniqueVertices = new ArrayList<>();
+        List<Vector3D> uniqueNormals = new ArrayList<>();
+        int[] triangleVertices = new int[triangles.length * 3];
+        int[] triangleNormals = new int[triangles.length * 3];
+
+        for (int i = 0; i < triangles.length; i++) {
+            Vector3D[] vertices = triangles[i].getVertices();
+            Vector3D[] cornerNormals = triangles[i].getNormals();
+            for (int corner = 0; corner < 3; corner++) {
+                triangleVertices[i * 3 + corner] = indexOf(vertices[corner], vertexIds, uniqueVertices);
+                triangleNormals[i * 3 + corner] = indexOf(cornerNormals[corner], normalIds, uniqueNormals);
+            }
+        }
+
+        positions = new double[uniqueVertices.size() * 3];
+        for (int i = 0; i < uniqueVertices.size(); i++) {
+            Vector3D vertex = uniqueVertices.get(i);
+            positions[i * 3] = vertex.getX() + offset.getX();
+            positions[i * 3 + 1] = vertex.getY() + offset.getY();
+            positions[i * 3 + 2] = vertex.getZ() + offset.getZ();
+        }
+        normals = new double[uniqueNormals.size() * 3];
+        for (int i = 0; i < uniqueNormals.size(); i++) {
+            Vector3D normal = uniqueNormals.get(i);
+            normals[i * 3] = normal.getX();
+            normals[i * 3 + 1] = normal.getY();
+            normals[i * 3 + 2] = normal.getZ();
+        }
+
+        BoundingBox[] triangleBounds = new BoundingBox[triangles.length];
+        for (int i = 0; i < triangles.length; i++) {
+            BoundingBox box = new BoundingBox();
+            for (int corner = 0; corner < 3; corner++) {
+                int vertex = triangleVertices[i * 3 + corner];
+                box.expand(positions[vertex * 3], positions[vertex * 3 + 1], positions[vertex * 3 + 2]);
+            }
+            triangleBounds[i] = box;
+        }
+        bvh = new BVH(triangleBounds);
+
+        int[] order = bvh.getPrimitiveIndices();
+        vertexIndices = new int[triangleVertices.length];
+        normalIndices = new int[triangleNormals.length];
+        for (int i = 0; i < order.length; i++) {
+            System.arraycopy(triangleVertices, order[i] * 3, vertexIndices, i * 3, 3);
+            System.arraycopy(triangleNormals, order[i] * 3, normalIndices, i * 3, 3);
+        }
+        bvh.useLeafOrder();
+        packEdges();
+    }
+
+    /**
+     * Constructs a packed mesh from the buffers of a mesh built earlier, such as one read from a mesh cache file.
+     * The triangles must be stored in the leaf order of the hierarchy.
+     *
+     * @param positions     The components of the unique vertices, three per vertex
+     * @param normals       The components of the unique normals, three per normal
+     * @param vertexIndices The vertices of every triangle, three per triangle
+     * @param normalIndices The normals of every triangle, three per triangle
+     * @param bvh           The bounding volume hierarchy built over the triangles
+     */
+    public TriangleMesh(double[] positions, double[] normals, int[] vertexIndices, int[] normalIndices, BVH bvh) {
+        if (vertexIndices.length != normalIndices.length || vertexIndices.length != bvh.getPrimitiveCount() * 3) {
+            throw new IllegalArgumentException("Index buffers of a mesh must hold three indices per triangle of its BVH");
+        }
+        this.positions = positions;
+        this.normals = normals;
+        this.vertexIndices = vertexIndices;
+        this.normalIndices = normalIndices;
+        this.bvh = bvh;
+        packEdges();
+    }
+
+    /**
+     * Gets the index of a vector in a list of unique vectors, adding it if it is not there yet.
+     *
+     * @param vector  The vector to look up
+     * @param ids     The indices of the vectors already added, by identity
+     * @param uniques The unique vectors
+     * @return The index of the vector
+     */
+    private static int indexOf(Vector3D vector, Map<Vector3D, Integer> ids, List<Vector3D> uniques) {
+        Integer id = ids.get(vector);
+        if (id == null) {
+            id = uniques.size();
+            ids.put(vector, id);
+            uniques.add(vector);
+        }
+        return id;
+    }
+
+    /**
+     * Precomputes the first vertex and the two edge vectors of every triangle.
+     */
+    private void packEdges() {
+        int count = getTriangleCount();
+        v0x = new double[count];
+        v0y = new double[count];
+        v0z = new double[count];
+        e1x = new double[count];
+        e1y = new double[count];
+        e1z = new double[count];
+        e2x = new double[count];
+        e2y = new double[count];
+        e2z = new double[count];
+        for (int i = 0; i < count; i++) {
+            int a = vertexIndices[i * 3] * 3;
+            int b = vertexIndices[i * 3 + 1] * 3;
+            int c = vertexIndices[i * 3 + 2] * 3;
+            v0x[i] = positions[a];
+            v0y[i] = positions[a + 1];
+            v0z[i] = positions[a + 2];
+            e1x[i] = positions[b] - positions[a];
+            e1y[i] = positions[b + 1] - positions[a + 1];
+            e1z[i] = positions[b + 2] - positions[a + 2];
+            e2x[i] = positions[c] - positions[a];
+            e2y[i] = positions[c + 1] - positions[a + 1];
+            e2z[i] = positions[c + 2] - positions[a + 2];
+        }
+    }
+
+    /**
+     * Gets the kernel used to intersect rays with the triangles of every mesh.
+     *
+     * @return The triangle kernel
+     */
+    public static TriangleKernel getKernel() {
+        return KERNEL;
+    }
+
+    /**
+     * Gets the x components of the first vertices of the triangles.
+     *
+     * @return The x components, indexed by triangle
+     */
+    double[] getV0X() {
+        return v0x;
+    }
+
+    /**
+     * Gets the y components of the first vertices of the triangles.
+     *
+     * @return The y components, indexed by triangle
+     */
+    double[] getV0Y() {
+        return v0y;
+    }
+
+    /**
+     * Gets the z components of the first vertices of the triangles.
+     *
+     * @return The z components, indexed by triangle
+     */
+    double[] getV0Z() {
+        return v0z;
+    }
+
+    /**
+     * Gets the x components of the edges from the first to the second vertices of the triangles.
+     *
+     * @return The x components, indexed by triangle
+     */
+    double[] getE1X() {
+        return e1x;
+    }
+
+    /**
+     * Gets the y components of the edges from the first to the second vertices of the triangles.
+     *
+     * @return The y components, indexed by triangle
+     */
+    double[] getE1Y() {
+        return e1y;
+    }
+
+    /**
+     * Gets the z components of the edges from the first to the second vertices of the triangles.
+     *
+     * @return The z components, indexed by triangle
+     */
+    double[] getE1Z() {
+        return e1z;
+    }
+
+    /**
+     * Gets the x components of the edges from the first to the third vertices of the triangles.
+     *
+     * @return The x components, indexed by triangle
+     */
+    double[] getE2X() {
+        return e2x;
+    }
+
+    /**
+     * Gets the y components of the edges from the first to the third vertices of the triangles.
+     *
+     * @return The y components, indexed by triangle
+     */
+    double[] getE2Y() {
+        return e2y;
+    }
+
+    /**
+     * Gets the z components of the edges from the first to the third vertices of the triangles.
+     *
+     * @return The z components, indexed by triangle
+     */
+    double[] getE2Z() {
+        return e2z;
+    }
+
+    /**
+     * Gets the number of triangles of the mesh.
+     *
+     * @return The number of triangles
+     */
+    public int getTriangleCount() {
+        return vertexIndices.length / 3;
+    }
+
+    /**
+     * Gets the number of unique vertices of the mesh.
+     *
+     * @return The number of vertices
+     */
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    /**
+     * Gets the components of the unique vertices of the mesh.
+     *
+     * @return The vertex components, three per vertex
+     */
+    public double[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * Gets the components of the unique normals of the mesh.
+     *
+     * @return The normal components, three per normal
+     */
+    public double[] getNormals() {
+        return normals;
+    }
+
+    /**
+     * Gets the vertices of every triangle of the mesh.
+     *
+     * @return The indices of the vertices, three per triangle
+     */
+    public int[] getVertexIndices() {
+        return vertexIndices;
+    }
+
+    /**
+     * Gets the normals of every triangle of the mesh.
+     *
+     * @return The indices of the normals, three per triangle
+     */
+    public int[] getNormalIndices() {
+        return normalIndices;
+    }
+
+    /**
+     * Gets the bounding volume hierarchy built over the triangles of the mesh.
+     * Primitive indices of the hierarchy are triangle indices of the mesh.
+     *
+     * @return The bounding volume hierarchy of the mesh
+     */
+    public BVH getBVH() {
+        return bvh;
+    }
+
+    /**
+     * Intersects a triangle of the mesh with a ray using the Möller–Trumbore algorithm.
+     *
+     * @param triangle The index of the triangle
+     * @param ox       The x component of the ray origin
+     * @param oy       The y component of the ray origin
+     * @param oz       The z component of the ray origin
+     * @param dx       The x component of the ray direction, which need not be normalized
+     * @param dy       The y component of the ray direction, which need not be normalized
+     * @param dz       The z component of the ray direction, which need not be normalized
+     * @return The distance along the ray to the intersection, in multiples of the length of the direction,
+     * or -1 if the ray misses the triangle
+     */
+    public double intersect(int triangle, double ox, double oy, double oz, double dx, double dy, double dz) {
+        return intersect(triangle, ox, oy, oz, dx, dy, dz, null);
+    }
+
+    /**
+     * Intersects a triangle of the mesh with a ray using the Möller–Trumbore algorithm, keeping the
+     * barycentric coordinates of the hit so surface attributes can be interpolated later without recomputing them.
+     *
+     * @param triangle The index of the triangle
+     * @param ox       The x component of the ray origin
+     * @param oy       The y component of the ray origin
+     * @param oz       The z component of the ray origin
+     * @param dx       The x component of the ray direction, which need not be normalized
+     * @param dy       The y component of the ray direction, which need not be normalized
+     * @param dz       The z component of the ray direction, which need not be normalized
+     * @param uv       Where the weights of the third and second vertices are stored on a hit (can be null)
+     * @return The distance along the ray to the intersection, in multiples of the length of the direction,
+     * or -1 if the ray misses the triangle
+     */
+    public double intersect(int triangle, double ox, double oy, double oz, double dx, double dy, double dz, double[] uv) {
+        double v1v0x = e1x[triangle];
+        double v1v0y = e1y[triangle];
+        double v1v0z = e1z[triangle];
+        double v2v0x = e2x[triangle];
+        double v2v0y = e2y[triangle];
+        double v2v0z = e2z[triangle];
+
+        double px = (dy * v1v0z) - (dz * v1v0y);
+        double py = (dz * v1v0x) - (dx * v1v0z);
+        double pz = (dx * v1v0y) - (dy * v1v0x);
+        double det = Vector3D.dotProduct(v2v0x, v2v0y, v2v0z, px, py, pz);
+        double invDet = 1.0 / det;
+        double tx = ox - v0x[triangle];
+        double ty = oy - v0y[triangle];
+        double tz = oz - v0z[triangle];
+        double u = invDet * Vector3D.dotProduct(tx, ty, tz, px, py, pz);
+
+        if (!(u < 0 || u > 1)) {
+            double qx = (ty * v2v0z) - (tz * v2v0y);
+            double qy = (tz * v2v0x) - (tx * v2v0z);
+            double qz = (tx * v2v0y) - (ty * v2v0x);
+            double v = invDet * Vector3D.dotProduct(dx, dy, dz, qx, qy, qz);
+            if (!(v < 0 || (u + v) > (1.0 + Triangle.EPSILON))) {
+                if (uv != null) {
+                    uv[0] = u;
+                    uv[1] = v;
+                }
+                return invDet * Vector3D.dotProduct(qx, qy, qz, v1v0x, v1v0y, v1v0z);
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the closest triangle of a contiguous range of triangles, such as a leaf of the mesh BVH, hit by a ray.
+     * The range is tested by the kernel returned by {@link #getKernel()}.
+     *
+     * @param first       The index of the first triangle of the range
+     * @param count       The number of triangles of the range
+     * @param ox          The x component of the ray origin
+     * @param oy          The y component of the ray origin
+     * @param oz          The z component of the ray origin
+     * @param dx          The x component of the ray direction
+     * @param dy          The y component of the ray direction
+     * @param dz          The z component of the ray direction
+     * @param maxDistance The distance along the ray beyond which hits are ignored
+     * @param hit         Where the distance and the weights of the third and second vertices of the hit are stored
+     * @return The index of the closest triangle hit, or -1 if no triangle is hit closer than the maximum distance
+     */
+    public int intersect(int first, int count, double ox, double oy, double oz,
+                         double dx, double dy, double dz, double maxDistance, double[] hit) {
+        return KERNEL.intersect(this, first, count, ox, oy, oz, dx, dy, dz, maxDistance, hit);
+    }
+
+    /**
+     * Intersects a triangle of the mesh with every ray of a packet, using the kernel returned by {@link #getKernel()}.
+     * Every ray that hits the triangle closer than its maximum distance gets its maximum distance lowered and its hit recorded.
+     *
+     * @param triangle  The index of the triangle
+     * @param packet    The packet of rays
+     * @param triangles The index of the triangle hit by every ray, updated on closer hits
+     * @param us        The weight of the third vertex of the hit of every ray, updated on closer hits
+     * @param vs        The weight of the second vertex of the hit of every ray, updated on closer hits
+     */
+    public void intersect(int triangle, RayPacket packet, int[] triangles, double[] us, double[] vs) {
+        KERNEL.intersect(this, triangle, packet, triangles, us, vs);
+    }
+
+    /**
+     * Interpolates the vertex normals of a triangle at a hit given by the coordinates returned by
+     * {@link #intersect(int, double, double, double, double, double, double, double[])}.
+     *
+     * @param triangle The index of the triangle
+     * @param u        The weight of the third vertex of the triangle
+     * @param v        The weight of the second vertex of the triangle
+     * @return The interpolated normal
+     */
+    public Vector3D interpolateNormal(int triangle, double u, double v) {
+        double w = 1.0 - u - v;
+        int n0 = normalIndices[triangle * 3] * 3;
+        int n1 = normalIndices[triangle * 3 + 1] * 3;
+        int n2 = normalIndices[triangle * 3 + 2] * 3;
+        return new Vector3D(normals[n0] * w + normals[n1] * v + normals[n2] * u,
+                normals[n0 + 1] * w + normals[n1 + 1] * v + normals[n2 + 1] * u,
+                normals[n0 + 2] * w + normals[n1 + 2] * v + normals[n2 + 2] * u);
+    }
+
+    /**
+     * Builds a Triangle object for a triangle of the mesh.
+     *
+     * @param triangle The index of the triangle
+     * @return A new Triangle with the vertices and normals of the triangle
+     */
+    public Triangle getTriangle(int triangle) {
+        Vector3D[] vertices = new Vector3D[3];
+        Vector3D[] cornerNormals = new Vector3D[3];
+        for (int corner = 0; corner < 3; corner++) {
+            int vertex = vertexIndices[triangle * 3 + corner] * 3;
+            int normal = normalIndices[triangle * 3 + corner] * 3;
+            vertices[corner] = new Vector3D(positions[vertex], positions[vertex + 1], positions[vertex + 2]);
+            cornerNormals[corner] = new Vector3D(normals[normal], normals[normal + 1], normals[normal + 2]);
+        }
+        return new Triangle(vertices, cornerNormals);
+    }
+}
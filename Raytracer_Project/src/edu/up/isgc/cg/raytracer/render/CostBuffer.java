@@ -0,0 +1,208 @@
+package edu.up.isgc.cg.raytracer.render;
+
+import edu.up.isgc.cg.raytracer.tools.ImageWriter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Diagnostic side buffer recording what every pixel of a render cost: the time spent on it,
+ * the rays cast for it and the BVH node and triangle tests they made.
+ * Like {@link FrameBuffer}, writes are not synchronized and every pixel must be written by a single thread.
+ */
+public class CostBuffer {
+    private final int width;
+    private final int height;
+    private final float[] nanos;
+    private final float[] rays;
+    private final float[] tests;
+
+    /**
+     * Constructs an empty CostBuffer with the given resolution.
+     *
+     * @param width  The width of the buffer in pixels
+     * @param height The height of the buffer in pixels
+     */
+    public CostBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.nanos = new float[width * height];
+        this.rays = new float[width * height];
+        this.tests = new float[width * height];
+    }
+
+    /**
+     * Gets the width of the buffer in pixels.
+     *
+     * @return The width of the buffer
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the buffer in pixels.
+     *
+     * @return The height of the buffer
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets the cost of every pixel of a rectangle, as when a coarse pass fills a block with one traced pixel.
+     *
+     * @param x     The x-coordinate of the top-left pixel of the rectangle
+     * @param y     The y-coordinate of the top-left pixel of the rectangle
+     * @param endX  The x-coordinate past the right edge of the rectangle
+     * @param endY  The y-coordinate past the bottom edge of the rectangle
+     * @param nanos The time spent, in nanoseconds
+     * @param rays  The number of rays cast
+     * @param tests The number of BVH node and triangle tests made
+     */
+    public void set(int x, int y, int endX, int endY, double nanos, double rays, double tests) {
+        for (int j = y; j < endY; j++) {
+            for (int i = x; i < endX; i++) {
+                int index = j * width + i;
+                this.nanos[index] = (float) nanos;
+                this.rays[index] = (float) rays;
+                this.tests[index] = (float) tests;
+            }
+        }
+    }
+
+    /**
+     * Adds to the cost of a pixel, as when it is traced again with extra samples.
+     *
+     * @param x     The x-coordinate of the pixel
+     * @param y     The y-coordinate of the pixel
+     * @param nanos The time spent, in nanoseconds
+     * @param rays  The number of rays cast
+     * @param tests The number of BVH node and triangle tests made
+     */
+    public void add(int x, int y, double nanos, double rays, double tests) {
+        int index = y * width + x;
+        this.nanos[index] += (float) nanos;
+        this.rays[index] += (float) rays;
+        this.tests[index] += (float) tests;
+    }
+
+    /**
+     * Gets the time spent on a pixel.
+     *
+     * @param x The x-coordinate of the pixel
+     * @param y The y-coordinate of the pixel
+     * @return The time in nanoseconds
+     */
+    public float getNanos(int x, int y) {
+        return nanos[y * width + x];
+    }
+
+    /**
+     * Gets the number of rays cast for a pixel.
+     *
+     * @param x The x-coordinate of the pixel
+     * @param y The y-coordinate of the pixel
+     * @return The number of rays
+     */
+    public float getRays(int x, int y) {
+        return rays[y * width + x];
+    }
+
+    /**
+     * Gets the number of BVH node and triangle tests made for a pixel.
+     *
+     * @param x The x-coordinate of the pixel
+     * @param y The y-coordinate of the pixel
+     * @return The number of tests
+     */
+    public float getTests(int x, int y) {
+        return tests[y * width + x];
+    }
+
+    /**
+     * Renders the time spent on every pixel as a false-color image, going from black through blue, red
+     * and yellow to white. The scale is logarithmic and spans the 1st to the 99th percentile of the traced pixels,
+     * so a few pixels slowed down by the JIT compiler or the garbage collector do not flatten the rest.
+     *
+     * @return The heatmap image
+     */
+    public BufferedImage toHeatmap() {
+        float[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int first = 0;
+        while (first < sorted.length && sorted[first] <= 0) {
+            first++;
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        if (first == sorted.length) {
+            return image;
+        }
+        int traced = sorted.length - first;
+        double min = Math.log(sorted[first + traced / 100]);
+        double max = Math.log(sorted[first + (traced - 1) * 99 / 100]);
+        double range = max > min ? max - min : 1;
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                float value = nanos[j * width + i];
+                image.setRGB(i, j, value > 0 ? heatColor((Math.log(value) - min) / range) : 0);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Writes the buffer as a three-channel Portable Float Map: time in nanoseconds, rays and tests,
+     * as little-endian floats with the rows stored from the bottom of the image up.
+     *
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void writePFM(File file) throws IOException {
+        float[] values = new float[nanos.length * 3];
+        for (int i = 0; i < nanos.length; i++) {
+            values[i * 3] = nanos[i];
+            values[i * 3 + 1] = rays[i];
+            values[i * 3 + 2] = tests[i];
+        }
+        ImageWriter.writePFM(file, width, height, values);
+    }
+
+    /**
+     * Maps a normalized heat to a color of the heatmap.
+     *
+     * @param heat The heat, in the range [0, 1]
+     * @return The packed RGB color
+     */
+    private static int heatColor(double heat) {
+        double scaled = Math.max(0, Math.min(1, heat)) * 4;
+        int segment = Math.min(3, (int) scaled);
+        double t = scaled - segment;
+        int red, green, blue;
+        switch (segment) {
+            case 0:
+                red = 0;
+                green = 0;
+                blue = (int) (t * 255);
+                break;
+            case 1:
+                red = (int) (t * 255);
+                green = 0;
+                blue = (int) ((1 - t) * 255);
+                break;
+            case 2:
+                red = 255;
+                green = (int) (t * 255);
+                blue = 0;
+                break;
+            default:
+                red = 255;
+                green = 255;
+                blue = (int) (t * 255);
+                break;
+        }
+        return red << 16 | green << 8 | blue;
+    }
+}
@@ -0,0 +1,214 @@
+package edu.up.isgc.cg.raytracer.render;
+
+import edu.up.isgc.cg.raytracer.tools.ImageWriter;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Render target holding a packed RGB value per pixel, addressed by index in row-major order.
+ * Writes are not synchronized: every pixel must be written by a single thread, which holds
+ * when each tile is owned by one worker, and the buffer must only be read after the render finished.
+ * The same storage also serves as scratch space for other per-pixel ints of a render, created with
+ * {@link #createScratch()}, which are stored as given instead of as RGB values.
+ */
+public abstract class FrameBuffer implements AutoCloseable {
+    private final int width;
+    private final int height;
+
+    /**
+     * Constructs a FrameBuffer with the given resolution.
+     *
+     * @param width  The width of the buffer in pixels
+     * @param height The height of the buffer in pixels
+     */
+    protected FrameBuffer(int width, int height) {
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A frame buffer holds from 1 to " + Integer.MAX_VALUE + " pixels, got " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Gets the width of the buffer in pixels.
+     *
+     * @return The width of the buffer
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the buffer in pixels.
+     *
+     * @return The height of the buffer
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the index of a pixel in the buffer.
+     *
+     * @param x The x-coordinate of the pixel
+     * @param y The y-coordinate of the pixel
+     * @return The index of the pixel
+     */
+    public int indexOf(int x, int y) {
+        return y * width + x;
+    }
+
+    /**
+     * Gets the value stored for a pixel.
+     *
+     * @param index The index of the pixel
+     * @return The value of the pixel
+     */
+    public abstract int getValue(int index);
+
+    /**
+     * Stores a value for a pixel as is.
+     *
+     * @param index The index of the pixel
+     * @param value The value to store
+     */
+    public abstract void setValue(int index, int value);
+
+    /**
+     * Creates a buffer of the same resolution and storage as this one, with every value set to zero.
+     * It must be closed once no longer needed.
+     *
+     * @return The new buffer
+     */
+    public abstract FrameBuffer createScratch();
+
+    /**
+     * Gets the packed RGB value of a pixel.
+     *
+     * @param x The x-coordinate of the pixel
+     * @param y The y-coordinate of the pixel
+     * @return The packed RGB value of the pixel
+     */
+    public int getRGB(int x, int y) {
+        return getValue(indexOf(x, y));
+    }
+
+    /**
+     * Sets the packed RGB value of a pixel. Alpha bits are discarded.
+     *
+     * @param x   The x-coordinate of the pixel
+     * @param y   The y-coordinate of the pixel
+     * @param rgb The packed RGB value to set
+     */
+    public void setRGB(int x, int y, int rgb) {
+        setValue(indexOf(x, y), rgb & 0xFFFFFF);
+    }
+
+    /**
+     * Sets the color of a pixel.
+     *
+     * @param x     The x-coordinate of the pixel
+     * @param y     The y-coordinate of the pixel
+     * @param color The color to set
+     */
+    public void setColor(int x, int y, Color color) {
+        setRGB(x, y, color.getRGB());
+    }
+
+    /**
+     * Copies the values of a row of the buffer into an array.
+     *
+     * @param y      The index of the row
+     * @param values The array receiving the values
+     * @param offset The position of the first value of the row in the array
+     */
+    public void getRow(int y, int[] values, int offset) {
+        int index = indexOf(0, y);
+        for (int i = 0; i < width; i++) {
+            values[offset + i] = getValue(index + i);
+        }
+    }
+
+    /**
+     * Stores the values of a row of the buffer from an array.
+     *
+     * @param y      The index of the row
+     * @param values The array holding the values
+     * @param offset The position of the first value of the row in the array
+     */
+    public void setRow(int y, int[] values, int offset) {
+        int index = indexOf(0, y);
+        for (int i = 0; i < width; i++) {
+            setValue(index + i, values[offset + i]);
+        }
+    }
+
+    /**
+     * Copies the buffer into a new scratch buffer, see {@link #createScratch()}.
+     *
+     * @return The copy of the buffer
+     */
+    public FrameBuffer copy() {
+        FrameBuffer copy = createScratch();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            getRow(y, row, 0);
+            copy.setRow(y, row, 0);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the buffer into a new image, which lives in the heap whatever the storage of the buffer.
+     *
+     * @return An RGB image with the contents of the buffer
+     */
+    public BufferedImage toBufferedImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            getRow(y, row, 0);
+            image.getRaster().setDataElements(0, y, width, 1, row);
+        }
+        return image;
+    }
+
+    /**
+     * Writes the buffer as a PNG file in a streaming pass, compressing it on every available core.
+     *
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void writePNG(File file) throws IOException {
+        ImageWriter.writePNG(file, width, height, this::getRow);
+    }
+
+    /**
+     * Writes the buffer as a Portable Float Map in a streaming pass, with every channel scaled to the range [0, 1].
+     *
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void writePFM(File file) throws IOException {
+        int[] row = new int[width];
+        ImageWriter.writePFM(file, width, height, (y, values, offset) -> {
+            getRow(y, row, 0);
+            for (int i = 0; i < width; i++) {
+                int rgb = row[i];
+                values[offset + i * 3] = ((rgb >> 16) & 0xFF) / 255f;
+                values[offset + i * 3 + 1] = ((rgb >> 8) & 0xFF) / 255f;
+                values[offset + i * 3 + 2] = (rgb & 0xFF) / 255f;
+            }
+        });
+    }
+
+    /**
+     * Releases the storage of the buffer. Buffers stored in the heap have nothing to release.
+     */
+    @Override
+    public void close() {
+    }
+}
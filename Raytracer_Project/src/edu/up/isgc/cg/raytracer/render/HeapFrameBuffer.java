@@ -0,0 +1,70 @@
+package edu.up.isgc.cg.raytracer.render;
+
+/**
+ * Frame buffer backed by a primitive array in the heap.
+ */
+public class HeapFrameBuffer extends FrameBuffer {
+    private final int[] pixels;
+
+    /**
+     * Constructs a black HeapFrameBuffer with the given resolution.
+     *
+     * @param width  The width of the buffer in pixels
+     * @param height The height of the buffer in pixels
+     */
+    public HeapFrameBuffer(int width, int height) {
+        super(width, height);
+        this.pixels = new int[width * height];
+    }
+
+    /**
+     * Constructs a HeapFrameBuffer holding the given values.
+     *
+     * @param width  The width of the buffer in pixels
+     * @param height The height of the buffer in pixels
+     * @param pixels The value of every pixel in row-major order, used as the backing array
+     */
+    private HeapFrameBuffer(int width, int height, int[] pixels) {
+        super(width, height);
+        this.pixels = pixels;
+    }
+
+    @Override
+    public int getValue(int index) {
+        return pixels[index];
+    }
+
+    @Override
+    public void setValue(int index, int value) {
+        pixels[index] = value;
+    }
+
+    @Override
+    public void getRow(int y, int[] values, int offset) {
+        System.arraycopy(pixels, indexOf(0, y), values, offset, getWidth());
+    }
+
+    @Override
+    public void setRow(int y, int[] values, int offset) {
+        System.arraycopy(values, offset, pixels, indexOf(0, y), getWidth());
+    }
+
+    @Override
+    public FrameBuffer createScratch() {
+        return new HeapFrameBuffer(getWidth(), getHeight());
+    }
+
+    @Override
+    public FrameBuffer copy() {
+        return new HeapFrameBuffer(getWidth(), getHeight(), pixels.clone());
+    }
+
+    /**
+     * Gets the backing array of packed RGB pixels in row-major order.
+     *
+     * @return The backing array of the buffer
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+}
@@ -0,0 +1,165 @@
+package edu.up.isgc.cg.raytracer.render;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Frame buffer stored outside of the heap in a memory-mapped file, so the resolution of a render is bounded by
+ * disk space instead of heap size. Tiles write straight into the mapping and the operating system pages the
+ * completed ones out to the file as memory is needed.
+ * <p>
+ * The file holds the value of every pixel as a big-endian int in row-major order, with no header.
+ * Since a single mapping cannot exceed 2 GiB, it is mapped in segments of whole rows of up to 1 GiB,
+ * which lets rows be copied in and out of a segment in bulk.
+ */
+public class MappedFrameBuffer extends FrameBuffer {
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final File file;
+    private final boolean temporary;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] mappings;
+    private final IntBuffer[] segments;
+    private final int rowsPerSegment;
+    private final int pixelsPerSegment;
+
+    /**
+     * Constructs a black MappedFrameBuffer with the given resolution, replacing the contents of the file.
+     *
+     * @param file   The file the buffer is stored in
+     * @param width  The width of the buffer in pixels
+     * @param height The height of the buffer in pixels
+     * @throws IOException If the file cannot be created or mapped
+     */
+    public MappedFrameBuffer(File file, int width, int height) throws IOException {
+        this(file, width, height, false);
+    }
+
+    /**
+     * Constructs a black MappedFrameBuffer with the given resolution, replacing the contents of the file.
+     *
+     * @param file      The file the buffer is stored in
+     * @param width     The width of the buffer in pixels
+     * @param height    The height of the buffer in pixels
+     * @param temporary Whether the file is deleted when the buffer is closed
+     * @throws IOException If the file cannot be created or mapped
+     */
+    private MappedFrameBuffer(File file, int width, int height, boolean temporary) throws IOException {
+        super(width, height);
+        this.file = file;
+        this.temporary = temporary;
+        this.rowsPerSegment = (int) Math.min(height, Math.max(1, SEGMENT_SIZE / ((long) width * Integer.BYTES)));
+        this.pixelsPerSegment = rowsPerSegment * width;
+        int segmentCount = (height + rowsPerSegment - 1) / rowsPerSegment;
+        this.mappings = new MappedByteBuffer[segmentCount];
+        this.segments = new IntBuffer[segmentCount];
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            long size = (long) width * height * Integer.BYTES;
+            for (int segment = 0; segment < segmentCount; segment++) {
+                long position = (long) segment * pixelsPerSegment * Integer.BYTES;
+                mappings[segment] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                        Math.min(size - position, (long) pixelsPerSegment * Integer.BYTES));
+                segments[segment] = mappings[segment].asIntBuffer();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the file the buffer is stored in.
+     *
+     * @return The file of the buffer
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public int getValue(int index) {
+        return segments[index / pixelsPerSegment].get(index % pixelsPerSegment);
+    }
+
+    @Override
+    public void setValue(int index, int value) {
+        segments[index / pixelsPerSegment].put(index % pixelsPerSegment, value);
+    }
+
+    @Override
+    public void getRow(int y, int[] values, int offset) {
+        segments[y / rowsPerSegment].get((y % rowsPerSegment) * getWidth(), values, offset, getWidth());
+    }
+
+    @Override
+    public void setRow(int y, int[] values, int offset) {
+        segments[y / rowsPerSegment].put((y % rowsPerSegment) * getWidth(), values, offset, getWidth());
+    }
+
+    /**
+     * Creates a black MappedFrameBuffer stored in a new temporary file, which is deleted when the buffer is closed.
+     *
+     * @param directory The directory of the file, or null for the default temporary directory
+     * @param width     The width of the buffer in pixels
+     * @param height    The height of the buffer in pixels
+     * @return The new buffer
+     * @throws IOException If the file cannot be created or mapped
+     */
+    public static MappedFrameBuffer createTemporary(File directory, int width, int height) throws IOException {
+        File file = File.createTempFile("framebuffer", ".raw", directory);
+        try {
+            return new MappedFrameBuffer(file, width, height, true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a buffer of the same resolution stored in a temporary file next to the file of this one,
+     * which is deleted when the new buffer is closed.
+     *
+     * @return The new buffer
+     */
+    @Override
+    public FrameBuffer createScratch() {
+        try {
+            return createTemporary(file.getAbsoluteFile().getParentFile(), getWidth(), getHeight());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the mapped pages back to the file and closes it, deleting it if the buffer is a scratch buffer.
+     * The mappings stay valid until the buffer is garbage collected, but the buffer should no longer be used.
+     */
+    @Override
+    public void close() {
+        try {
+            if (!temporary) {
+                for (MappedByteBuffer mapping : mappings) {
+                    mapping.force();
+                }
+            }
+            channel.close();
+            if (temporary) {
+                Files.deleteIfExists(file.toPath());
+            }
+        } catch (IOException e) {
+            if (temporary) {
+                file.deleteOnExit();
+            } else {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
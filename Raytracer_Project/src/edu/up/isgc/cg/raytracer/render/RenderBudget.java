@@ -0,0 +1,119 @@
+package edu.up.isgc.cg.raytracer.render;
+
+/**
+ * Limits the time a render may take and the range of bounce depths it may use to stay within that time.
+ */
+public class RenderBudget {
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+    public static final int DEFAULT_MAX_DEPTH = 4;
+
+    private long deadline;
+    private int minDepth;
+    private int maxDepth;
+
+    /**
+     * Constructs a RenderBudget without a deadline, which always renders at the default depth.
+     */
+    public RenderBudget() {
+        this(NO_DEADLINE);
+    }
+
+    /**
+     * Constructs a RenderBudget with the given deadline, allowing any depth up to the default one.
+     *
+     * @param deadline The wall-clock time by which the render must finish, in milliseconds since the epoch
+     */
+    public RenderBudget(long deadline) {
+        this(deadline, 1, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Constructs a RenderBudget with the given deadline and range of depths.
+     *
+     * @param deadline The wall-clock time by which the render must finish, in milliseconds since the epoch
+     * @param minDepth The lowest number of surfaces a ray may visit when the depth is reduced
+     * @param maxDepth The number of surfaces a ray visits when there is time left
+     */
+    public RenderBudget(long deadline, int minDepth, int maxDepth) {
+        setDeadline(deadline);
+        setMaxDepth(maxDepth);
+        setMinDepth(minDepth);
+    }
+
+    /**
+     * Creates a RenderBudget whose deadline is the given time from now.
+     *
+     * @param millis The time the render may take, in milliseconds
+     * @return The budget
+     */
+    public static RenderBudget fromNow(long millis) {
+        return new RenderBudget(System.currentTimeMillis() + millis);
+    }
+
+    /**
+     * Gets the wall-clock time by which the render must finish.
+     *
+     * @return The deadline in milliseconds since the epoch, or {@link #NO_DEADLINE}
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets the wall-clock time by which the render must finish.
+     *
+     * @param deadline The deadline to set, in milliseconds since the epoch
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Gets the lowest number of surfaces a ray may visit when the depth is reduced.
+     *
+     * @return The minimum depth
+     */
+    public int getMinDepth() {
+        return minDepth;
+    }
+
+    /**
+     * Sets the lowest number of surfaces a ray may visit when the depth is reduced.
+     * It is kept between 1 and the maximum depth.
+     *
+     * @param minDepth The minimum depth to set
+     */
+    public void setMinDepth(int minDepth) {
+        this.minDepth = Math.max(1, Math.min(minDepth, maxDepth));
+    }
+
+    /**
+     * Gets the number of surfaces a ray visits when there is time left.
+     *
+     * @return The maximum depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the number of surfaces a ray visits when there is time left.
+     *
+     * @param maxDepth The maximum depth to set, at least 1
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(1, maxDepth);
+        if (minDepth > this.maxDepth) {
+            minDepth = this.maxDepth;
+        }
+    }
+
+    /**
+     * Gets the time left until the deadline.
+     *
+     * @return The remaining time in milliseconds, negative once the deadline has passed
+     */
+    public long getRemainingMillis() {
+        return deadline == NO_DEADLINE ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,17 @@
+package edu.up.isgc.cg.raytracer.render;
+
+/**
+ * Receives the intermediate images of a progressive render.
+ */
+public interface RenderListener {
+    /**
+     * Called after every pass of a progressive render, once all the workers of the pass have finished,
+     * so the frame buffer can be read safely until the method returns.
+     *
+     * @param frameBuffer The frame buffer holding the image refined so far
+     * @param pass        The number of the pass that finished, starting at 1
+     * @param passes      The total number of passes of the render
+     * @return True to continue with the next pass, false to stop the render at the current quality
+     */
+    boolean passCompleted(FrameBuffer frameBuffer, int pass, int passes);
+}
@@ -0,0 +1,188 @@
+package edu.up.isgc.cg.raytracer.render;
+
+import java.util.Arrays;
+
+/**
+ * Describes the image produced by a render and the quality it reached within its budget.
+ */
+public class RenderReport {
+    private final FrameBuffer frameBuffer;
+    private final int passes;
+    private final int passesCompleted;
+    private final int[] depths;
+    private final long pixelsTraced;
+    private final long pixelsAntialiased;
+    private final int tilesSkipped;
+    private final long elapsedMillis;
+    private final boolean deadlineMet;
+    private final RenderStatistics statistics;
+    private final CostBuffer costs;
+
+    /**
+     * Constructs a RenderReport.
+     *
+     * @param frameBuffer       The frame buffer holding the rendered image
+     * @param passes            The number of passes of the render, which a deadline may raise above the number requested
+     * @param passesCompleted   The number of passes rendered in full
+     * @param depths            The depth used by every pass, 0 for the passes that were not started
+     * @param pixelsTraced      The number of pixels whose color was traced, across all passes
+     * @param pixelsAntialiased The number of pixels traced again with extra samples because they lie on an edge
+     * @param tilesSkipped      The number of tiles left unrefined or not anti-aliased because the deadline passed
+     * @param elapsedMillis     The wall-clock time the render took, in milliseconds
+     * @param deadlineMet       Whether the render finished before the deadline
+     * @param statistics        The counters collected during the render
+     * @param costs             The cost of every pixel, or null if it was not recorded
+     */
+    public RenderReport(FrameBuffer frameBuffer, int passes, int passesCompleted, int[] depths,
+                        long pixelsTraced, long pixelsAntialiased, int tilesSkipped, long elapsedMillis,
+                        boolean deadlineMet, RenderStatistics statistics, CostBuffer costs) {
+        this.frameBuffer = frameBuffer;
+        this.passes = passes;
+        this.passesCompleted = passesCompleted;
+        this.depths = depths.clone();
+        this.pixelsTraced = pixelsTraced;
+        this.pixelsAntialiased = pixelsAntialiased;
+        this.tilesSkipped = tilesSkipped;
+        this.elapsedMillis = elapsedMillis;
+        this.deadlineMet = deadlineMet;
+        this.statistics = statistics;
+        this.costs = costs;
+    }
+
+    /**
+     * Gets the frame buffer holding the rendered image.
+     *
+     * @return The frame buffer
+     */
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    /**
+     * Gets the number of passes of the render, which a deadline may raise above the number requested.
+     *
+     * @return The number of passes
+     */
+    public int getPasses() {
+        return passes;
+    }
+
+    /**
+     * Gets the number of passes rendered in full. The image is final when it equals the number of passes.
+     *
+     * @return The number of completed passes
+     */
+    public int getPassesCompleted() {
+        return passesCompleted;
+    }
+
+    /**
+     * Gets the depth used by every pass.
+     *
+     * @return The depths of the passes, 0 for the passes that were not started
+     */
+    public int[] getDepths() {
+        return depths.clone();
+    }
+
+    /**
+     * Gets the lowest depth used by any pass that was started.
+     *
+     * @return The minimum depth, or 0 if no pass was started
+     */
+    public int getMinDepth() {
+        int min = 0;
+        for (int depth : depths) {
+            if (depth > 0 && (min == 0 || depth < min)) {
+                min = depth;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Gets the number of pixels whose color was traced, across all passes.
+     *
+     * @return The number of traced pixels
+     */
+    public long getPixelsTraced() {
+        return pixelsTraced;
+    }
+
+    /**
+     * Gets the fraction of the pixels of the image whose color was traced rather than filled from a coarser pass.
+     *
+     * @return The coverage, in the range [0, 1]
+     */
+    public double getCoverage() {
+        long pixels = (long) frameBuffer.getWidth() * frameBuffer.getHeight();
+        return pixels == 0 ? 1 : Math.min(1.0, (double) pixelsTraced / pixels);
+    }
+
+    /**
+     * Gets the number of pixels traced again with extra samples because they lie on an edge.
+     *
+     * @return The number of anti-aliased pixels
+     */
+    public long getPixelsAntialiased() {
+        return pixelsAntialiased;
+    }
+
+    /**
+     * Gets the number of tiles left unrefined or not anti-aliased because the deadline passed.
+     *
+     * @return The number of skipped tiles
+     */
+    public int getTilesSkipped() {
+        return tilesSkipped;
+    }
+
+    /**
+     * Gets the wall-clock time the render took.
+     *
+     * @return The elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Checks whether the render finished before the deadline.
+     *
+     * @return True if the deadline was met
+     */
+    public boolean isDeadlineMet() {
+        return deadlineMet;
+    }
+
+    /**
+     * Gets the counters collected during the render.
+     *
+     * @return The statistics of the render
+     */
+    public RenderStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Gets the cost of every pixel of the render.
+     *
+     * @return The cost buffer, or null if the cost heatmap was not enabled
+     */
+    public CostBuffer getCosts() {
+        return costs;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderReport{" +
+                "passesCompleted=" + getPassesCompleted() + "/" + getPasses() +
+                ", depths=" + Arrays.toString(depths) +
+                ", coverage=" + String.format("%.3f", getCoverage()) +
+                ", pixelsAntialiased=" + getPixelsAntialiased() +
+                ", tilesSkipped=" + getTilesSkipped() +
+                ", elapsedMillis=" + getElapsedMillis() +
+                ", deadlineMet=" + isDeadlineMet() +
+                "}";
+    }
+}
@@ -0,0 +1,423 @@
+package edu.up.isgc.cg.raytracer.render;
+
+import edu.up.isgc.cg.raytracer.objects.Object3D;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the counters of a render: rays cast, BVH node and triangle tests, hits per object and time per tile.
+ * Every worker thread counts into its own set of counters while it runs a tile for this render, so the hot paths
+ * only pay for a thread-local lookup and a plain increment; the counters of all threads are added when read.
+ * The static count methods do nothing on threads that are not running a tile, such as benchmarks.
+ */
+public class RenderStatistics implements RenderStatisticsMXBean {
+    private static final ThreadLocal<Counters> CURRENT = new ThreadLocal<>();
+    private static final AtomicInteger RENDERS = new AtomicInteger();
+
+    private final List<Object3D> objects;
+    private final Map<Object3D, Integer> objectIndices = new IdentityHashMap<>();
+    private final int threads;
+    private final List<Counters> workers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Counters> own = ThreadLocal.withInitial(this::createCounters);
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+    private ObjectName objectName;
+
+    /**
+     * Constructs the RenderStatistics of a render that starts now.
+     *
+     * @param objects The objects of the scene being rendered
+     * @param threads The number of worker threads of the render
+     */
+    public RenderStatistics(List<Object3D> objects, int threads) {
+        this.objects = List.copyOf(objects);
+        this.threads = Math.max(1, threads);
+        for (int i = 0; i < this.objects.size(); i++) {
+            objectIndices.put(this.objects.get(i), i);
+        }
+    }
+
+    /**
+     * Runs a tile of the render on the current thread, counting into the counters of the thread
+     * and recording the time the tile took.
+     *
+     * @param tile The work of the tile
+     */
+    public void recordTile(Runnable tile) {
+        Counters counters = own.get();
+        Counters previous = CURRENT.get();
+        CURRENT.set(counters);
+        long start = System.nanoTime();
+        try {
+            tile.run();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            counters.tiles++;
+            counters.tileNanos += elapsed;
+            counters.maxTileNanos = Math.max(counters.maxTileNanos, elapsed);
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Marks the render as finished, freezing its elapsed time.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Registers the statistics in the platform MBean server, so they can be watched while the render runs.
+     */
+    public synchronized void register() {
+        try {
+            objectName = new ObjectName("edu.up.isgc.cg.raytracer:type=RenderStatistics,name=render-" + RENDERS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+            objectName = null;
+        }
+    }
+
+    /**
+     * Removes the statistics from the platform MBean server, if they were registered.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        objectName = null;
+    }
+
+    /**
+     * Counts primary rays cast by the current thread.
+     *
+     * @param rays The number of rays
+     */
+    public static void countPrimaryRays(int rays) {
+        Counters counters = CURRENT.get();
+        if (counters != null) {
+            counters.primaryRays += rays;
+        }
+    }
+
+    /**
+     * Counts a reflected or refracted ray cast by the current thread.
+     */
+    public static void countSecondaryRay() {
+        Counters counters = CURRENT.get();
+        if (counters != null) {
+            counters.secondaryRays++;
+        }
+    }
+
+    /**
+     * Counts a shadow ray cast by the current thread.
+     */
+    public static void countShadowRay() {
+        Counters counters = CURRENT.get();
+        if (counters != null) {
+            counters.shadowRays++;
+        }
+    }
+
+    /**
+     * Counts ray-box tests made by the current thread against the nodes of a BVH.
+     *
+     * @param tests The number of tests
+     */
+    public static void countNodeTests(int tests) {
+        Counters counters = CURRENT.get();
+        if (counters != null) {
+            counters.nodeTests += tests;
+        }
+    }
+
+    /**
+     * Counts ray-triangle tests made by the current thread.
+     *
+     * @param tests The number of tests
+     */
+    public static void countTriangleTests(int tests) {
+        Counters counters = CURRENT.get();
+        if (counters != null) {
+            counters.triangleTests += tests;
+        }
+    }
+
+    /**
+     * Counts a surface of an object shaded by the current thread.
+     *
+     * @param object The object hit
+     */
+    public static void countHit(Object3D object) {
+        Counters counters = CURRENT.get();
+        if (counters != null) {
+            Integer index = counters.objectIndices.get(object);
+            if (index != null) {
+                counters.objectHits[index]++;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of rays of every kind counted so far by the current thread for the render it is working on.
+     * The difference between two readings gives the rays cast by the work done in between.
+     *
+     * @return The number of rays, or 0 if the thread is not running a tile
+     */
+    public static long getThreadRays() {
+        Counters counters = CURRENT.get();
+        return counters == null ? 0 : counters.primaryRays + counters.secondaryRays + counters.shadowRays;
+    }
+
+    /**
+     * Gets the number of BVH node and triangle tests counted so far by the current thread for the render it is working on.
+     *
+     * @return The number of tests, or 0 if the thread is not running a tile
+     */
+    public static long getThreadTests() {
+        Counters counters = CURRENT.get();
+        return counters == null ? 0 : counters.nodeTests + counters.triangleTests;
+    }
+
+    @Override
+    public long getPrimaryRays() {
+        long total = 0;
+        for (Counters counters : workers) {
+            total += counters.primaryRays;
+        }
+        return total;
+    }
+
+    @Override
+    public long getSecondaryRays() {
+        long total = 0;
+        for (Counters counters : workers) {
+            total += counters.secondaryRays;
+        }
+        return total;
+    }
+
+    @Override
+    public long getShadowRays() {
+        long total = 0;
+        for (Counters counters : workers) {
+            total += counters.shadowRays;
+        }
+        return total;
+    }
+
+    @Override
+    public long getNodeTests() {
+        long total = 0;
+        for (Counters counters : workers) {
+            total += counters.nodeTests;
+        }
+        return total;
+    }
+
+    @Override
+    public long getTriangleTests() {
+        long total = 0;
+        for (Counters counters : workers) {
+            total += counters.triangleTests;
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getObjectHits() {
+        long[] hits = new long[objects.size()];
+        for (Counters counters : workers) {
+            for (int i = 0; i < hits.length; i++) {
+                hits[i] += counters.objectHits[i];
+            }
+        }
+        Map<String, Long> objectHits = new LinkedHashMap<>();
+        for (int i = 0; i < hits.length; i++) {
+            objectHits.put(objectName(i), hits[i]);
+        }
+        return objectHits;
+    }
+
+    @Override
+    public long getTiles() {
+        long total = 0;
+        for (Counters counters : workers) {
+            total += counters.tiles;
+        }
+        return total;
+    }
+
+    @Override
+    public double getAverageTileMillis() {
+        long tiles = getTiles();
+        return tiles == 0 ? 0 : getBusyNanos() / 1e6 / tiles;
+    }
+
+    @Override
+    public double getMaxTileMillis() {
+        long max = 0;
+        for (Counters counters : workers) {
+            max = Math.max(max, counters.maxTileNanos);
+        }
+        return max / 1e6;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return getElapsedNanos() / 1_000_000;
+    }
+
+    @Override
+    public double getThreadUtilization() {
+        long elapsed = getElapsedNanos();
+        return elapsed == 0 ? 0 : Math.min(1.0, (double) getBusyNanos() / ((double) elapsed * threads));
+    }
+
+    @Override
+    public String getJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"elapsedMillis\": ").append(getElapsedMillis()).append(",\n");
+        json.append("  \"threads\": ").append(threads).append(",\n");
+        json.append("  \"threadUtilization\": ").append(format(getThreadUtilization())).append(",\n");
+        json.append("  \"rays\": {\"primary\": ").append(getPrimaryRays())
+                .append(", \"secondary\": ").append(getSecondaryRays())
+                .append(", \"shadow\": ").append(getShadowRays()).append("},\n");
+        json.append("  \"tests\": {\"bvhNodes\": ").append(getNodeTests())
+                .append(", \"triangles\": ").append(getTriangleTests()).append("},\n");
+        json.append("  \"tiles\": {\"count\": ").append(getTiles())
+                .append(", \"averageMillis\": ").append(format(getAverageTileMillis()))
+                .append(", \"maxMillis\": ").append(format(getMaxTileMillis())).append("},\n");
+        json.append("  \"objectHits\": {");
+        String separator = "";
+        for (Map.Entry<String, Long> entry : getObjectHits().entrySet()) {
+            json.append(separator).append("\n    ").append(quote(entry.getKey())).append(": ").append(entry.getValue());
+            separator = ",";
+        }
+        json.append("\n  },\n");
+        json.append("  \"workers\": [");
+        separator = "";
+        for (Counters counters : workers) {
+            json.append(separator).append("\n    {\"thread\": ").append(quote(counters.thread))
+                    .append(", \"tiles\": ").append(counters.tiles)
+                    .append(", \"busyMillis\": ").append(format(counters.tileNanos / 1e6)).append("}");
+            separator = ",";
+        }
+        json.append("\n  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getJson();
+    }
+
+    /**
+     * Creates the counters of the current thread and adds them to the counters of the render.
+     *
+     * @return The counters of the current thread
+     */
+    private Counters createCounters() {
+        Counters counters = new Counters(Thread.currentThread().getName(), objectIndices, objects.size());
+        workers.add(counters);
+        return counters;
+    }
+
+    /**
+     * Gets the time spent rendering tiles, added over all threads.
+     *
+     * @return The busy time in nanoseconds
+     */
+    private long getBusyNanos() {
+        long total = 0;
+        for (Counters counters : workers) {
+            total += counters.tileNanos;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the wall-clock time since the render started, or its duration once finished.
+     *
+     * @return The elapsed time in nanoseconds
+     */
+    private long getElapsedNanos() {
+        long end = endNanos;
+        return (end == 0 ? System.nanoTime() : end) - startNanos;
+    }
+
+    /**
+     * Gets the name under which the hits of an object are reported.
+     *
+     * @param index The index of the object in the scene
+     * @return The name of the object
+     */
+    private String objectName(int index) {
+        return index + " " + objects.get(index).getClass().getSimpleName();
+    }
+
+    /**
+     * Formats a decimal number for the JSON document.
+     *
+     * @param value The number to format
+     * @return The formatted number
+     */
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Quotes a string for the JSON document.
+     *
+     * @param value The string to quote
+     * @return The quoted string
+     */
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Counters of a single worker thread. They are only written by that thread.
+     */
+    private static class Counters {
+        private final String thread;
+        private final Map<Object3D, Integer> objectIndices;
+        private final long[] objectHits;
+        private long primaryRays;
+        private long secondaryRays;
+        private long shadowRays;
+        private long nodeTests;
+        private long triangleTests;
+        private long tiles;
+        private long tileNanos;
+        private long maxTileNanos;
+
+        private Counters(String thread, Map<Object3D, Integer> objectIndices, int objects) {
+            this.thread = thread;
+            this.objectIndices = objectIndices;
+            this.objectHits = new long[objects];
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package edu.up.isgc.cg.raytracer.render;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the statistics of a render through JMX while it runs.
+ * Values are read without synchronizing with the workers, so they may lag slightly behind.
+ */
+public interface RenderStatisticsMXBean {
+    /**
+     * Gets the number of primary rays cast from the camera, including anti-aliasing samples.
+     *
+     * @return The number of primary rays
+     */
+    long getPrimaryRays();
+
+    /**
+     * Gets the number of reflected and refracted rays cast.
+     *
+     * @return The number of secondary rays
+     */
+    long getSecondaryRays();
+
+    /**
+     * Gets the number of rays cast towards lights to test for shadows.
+     *
+     * @return The number of shadow rays
+     */
+    long getShadowRays();
+
+    /**
+     * Gets the number of ray-box tests made against the nodes of every BVH, counting each ray of a packet.
+     *
+     * @return The number of BVH node tests
+     */
+    long getNodeTests();
+
+    /**
+     * Gets the number of ray-triangle tests made against the meshes of the models, counting each ray of a packet.
+     *
+     * @return The number of triangle tests
+     */
+    long getTriangleTests();
+
+    /**
+     * Gets the number of surfaces shaded for every object of the scene.
+     *
+     * @return The number of hits, keyed by the index and type of the object
+     */
+    Map<String, Long> getObjectHits();
+
+    /**
+     * Gets the number of tiles rendered, across all passes.
+     *
+     * @return The number of tiles
+     */
+    long getTiles();
+
+    /**
+     * Gets the average time spent rendering a tile.
+     *
+     * @return The average tile time in milliseconds
+     */
+    double getAverageTileMillis();
+
+    /**
+     * Gets the longest time spent rendering a tile.
+     *
+     * @return The maximum tile time in milliseconds
+     */
+    double getMaxTileMillis();
+
+    /**
+     * Gets the wall-clock time since the render started, or its duration once finished.
+     *
+     * @return The elapsed time in milliseconds
+     */
+    long getElapsedMillis();
+
+    /**
+     * Gets the fraction of the available worker time spent rendering tiles.
+     *
+     * @return The thread utilization, in the range [0, 1]
+     */
+    double getThreadUtilization();
+
+    /**
+     * Gets the statistics as a JSON document.
+     *
+     * @return The JSON document
+     */
+    String getJson();
+}
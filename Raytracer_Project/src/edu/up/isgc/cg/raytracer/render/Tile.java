@@ -0,0 +1,108 @@
+package edu.up.isgc.cg.raytracer.render;
+
+/**
+ * Represents a rectangular region of the image that is rendered as a single unit of work.
+ */
+public class Tile {
+    private int x;
+    private int y;
+    private int width;
+    private int height;
+
+    /**
+     * Constructs a Tile with the given position and size.
+     *
+     * @param x      The x-coordinate of the top-left pixel of the tile
+     * @param y      The y-coordinate of the top-left pixel of the tile
+     * @param width  The width of the tile in pixels
+     * @param height The height of the tile in pixels
+     */
+    public Tile(int x, int y, int width, int height) {
+        setX(x);
+        setY(y);
+        setWidth(width);
+        setHeight(height);
+    }
+
+    /**
+     * Gets the x-coordinate of the top-left pixel of the tile.
+     *
+     * @return The x-coordinate of the tile
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Sets the x-coordinate of the top-left pixel of the tile.
+     *
+     * @param x The x-coordinate to set
+     */
+    public void setX(int x) {
+        this.x = x;
+    }
+
+    /**
+     * Gets the y-coordinate of the top-left pixel of the tile.
+     *
+     * @return The y-coordinate of the tile
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Sets the y-coordinate of the top-left pixel of the tile.
+     *
+     * @param y The y-coordinate to set
+     */
+    public void setY(int y) {
+        this.y = y;
+    }
+
+    /**
+     * Gets the width of the tile in pixels.
+     *
+     * @return The width of the tile
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Sets the width of the tile in pixels.
+     *
+     * @param width The width to set
+     */
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Gets the height of the tile in pixels.
+     *
+     * @return The height of the tile
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets the height of the tile in pixels.
+     *
+     * @param height The height to set
+     */
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    @Override
+    public String toString() {
+        return "Tile{" +
+                "x=" + getX() +
+                ", y=" + getY() +
+                ", width=" + getWidth() +
+                ", height=" + getHeight() +
+                "}";
+    }
+}
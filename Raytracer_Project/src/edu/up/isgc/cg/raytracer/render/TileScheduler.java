@@ -0,0 +1,218 @@
+package edu.up.isgc.cg.raytracer.render;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits an image into tiles and renders them on a work-stealing pool of worker threads.
+ * Tiles are visited in Morton (Z-curve) order so neighboring tiles are rendered close in time.
+ * The scheduler either starts a pool of its own for every render, or uses a shared pool that outlives it.
+ */
+public class TileScheduler {
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    private int tileSize;
+    private int threads;
+    private ForkJoinPool pool;
+
+    /**
+     * Receives the tiles handed out by the scheduler.
+     */
+    public interface TileRenderer {
+        /**
+         * Renders every pixel of a tile.
+         *
+         * @param tile The tile to render
+         */
+        void render(Tile tile);
+    }
+
+    /**
+     * Constructs a TileScheduler with the default tile size and one thread per available processor.
+     */
+    public TileScheduler() {
+        this(DEFAULT_TILE_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a TileScheduler with the given tile size and number of threads.
+     *
+     * @param tileSize The width and height of the tiles in pixels
+     * @param threads  The number of worker threads
+     */
+    public TileScheduler(int tileSize, int threads) {
+        setTileSize(tileSize);
+        setThreads(threads);
+    }
+
+    /**
+     * Constructs a TileScheduler with the given tile size rendering on a shared pool, which it never shuts down.
+     *
+     * @param tileSize The width and height of the tiles in pixels
+     * @param pool     The pool rendering the tiles
+     */
+    public TileScheduler(int tileSize, ForkJoinPool pool) {
+        setTileSize(tileSize);
+        setPool(pool);
+    }
+
+    /**
+     * Gets the width and height of the tiles in pixels.
+     *
+     * @return The tile size
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Sets the width and height of the tiles in pixels.
+     *
+     * @param tileSize The tile size to set
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = Math.max(1, tileSize);
+    }
+
+    /**
+     * Gets the number of worker threads.
+     *
+     * @return The number of worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of worker threads of the pools started by the scheduler.
+     *
+     * @param threads The number of worker threads to set
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Gets the shared pool rendering the tiles.
+     *
+     * @return The shared pool, or null if the scheduler starts a pool for every render
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the shared pool rendering the tiles, whose parallelism becomes the number of worker threads.
+     *
+     * @param pool The shared pool, or null to start a pool for every render
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        if (pool != null) {
+            setThreads(pool.getParallelism());
+        }
+    }
+
+    /**
+     * Splits an image into tiles sorted in Morton order.
+     * Tiles on the right and bottom borders are clipped to the image size.
+     *
+     * @param width  The width of the image in pixels
+     * @param height The height of the image in pixels
+     * @return The tiles covering the image
+     */
+    public List<Tile> createTiles(int width, int height) {
+        int columns = (width + tileSize - 1) / tileSize;
+        int rows = (height + tileSize - 1) / tileSize;
+        List<Tile> tiles = new ArrayList<>(columns * rows);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int x = column * tileSize;
+                int y = row * tileSize;
+                tiles.add(new Tile(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+            }
+        }
+        tiles.sort(Comparator.comparingLong(tile -> mortonCode(tile.getX() / tileSize, tile.getY() / tileSize)));
+        return tiles;
+    }
+
+    /**
+     * Renders an image tile by tile, blocking until every tile is done.
+     *
+     * @param width    The width of the image in pixels
+     * @param height   The height of the image in pixels
+     * @param renderer The renderer invoked for every tile
+     */
+    public void render(int width, int height, TileRenderer renderer) {
+        List<Tile> tiles = createTiles(width, height);
+        if (pool != null) {
+            pool.invoke(new TileTask(tiles, 0, tiles.size(), renderer));
+            return;
+        }
+        ForkJoinPool ownPool = new ForkJoinPool(threads);
+        try {
+            ownPool.invoke(new TileTask(tiles, 0, tiles.size(), renderer));
+        } finally {
+            ownPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Interleaves the bits of two coordinates into a Morton code.
+     *
+     * @param x The first coordinate
+     * @param y The second coordinate
+     * @return The Morton code of the coordinates
+     */
+    private static long mortonCode(int x, int y) {
+        return spreadBits(x) | (spreadBits(y) << 1);
+    }
+
+    /**
+     * Spreads the bits of a value so there is a zero bit between every two of them.
+     *
+     * @param value The value to spread
+     * @return The spread value
+     */
+    private static long spreadBits(int value) {
+        long bits = value & 0xFFFFFFFFL;
+        bits = (bits | (bits << 16)) & 0x0000FFFF0000FFFFL;
+        bits = (bits | (bits << 8)) & 0x00FF00FF00FF00FFL;
+        bits = (bits | (bits << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        bits = (bits | (bits << 2)) & 0x3333333333333333L;
+        bits = (bits | (bits << 1)) & 0x5555555555555555L;
+        return bits;
+    }
+
+    /**
+     * Task that renders a range of tiles, splitting it in halves so idle workers can steal work.
+     */
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Tile> tiles;
+        private final int from;
+        private final int to;
+        private final TileRenderer renderer;
+
+        private TileTask(List<Tile> tiles, int from, int to, TileRenderer renderer) {
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+            this.renderer = renderer;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                renderer.render(tiles.get(from));
+            } else if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TileTask(tiles, from, middle, renderer), new TileTask(tiles, middle, to, renderer));
+            }
+        }
+    }
+}
@@ -27,14 +27,14 @@ public class Barycentric {
         Vector3D b = vertices[1];
         Vector3D c = vertices[2];
 
-        Vector3D v0 = Vector3D.substract(b, a);
-        Vector3D v1 = Vector3D.substract(c, a);
-        Vector3D v2 = Vector3D.substract(point, a);
-        double d00 = Vector3D.dotProduct(v0, v0);
-        double d01 = Vector3D.dotProduct(v0, v1);
-        double d11 = Vector3D.dotProduct(v1, v1);
-        double d20 = Vector3D.dotProduct(v2, v0);
-        double d21 = Vector3D.dotProduct(v2, v1);
+        double v0x = b.getX() - a.getX(), v0y = b.getY() - a.getY(), v0z = b.getZ() - a.getZ();
+        double v1x = c.getX() - a.getX(), v1y = c.getY() - a.getY(), v1z = c.getZ() - a.getZ();
+        double v2x = point.getX() - a.getX(), v2y = point.getY() - a.getY(), v2z = point.getZ() - a.getZ();
+        double d00 = Vector3D.dotProduct(v0x, v0y, v0z, v0x, v0y, v0z);
+        double d01 = Vector3D.dotProduct(v0x, v0y, v0z, v1x, v1y, v1z);
+        double d11 = Vector3D.dotProduct(v1x, v1y, v1z, v1x, v1y, v1z);
+        double d20 = Vector3D.dotProduct(v2x, v2y, v2z, v0x, v0y, v0z);
+        double d21 = Vector3D.dotProduct(v2x, v2y, v2z, v1x, v1y, v1z);
         double denominator = d00 * d11 - d01 * d01;
         v = (d11 * d20 - d01 * d21) / denominator;
         w = (d00 * d21 - d01 * d20) / denominator;
@@ -0,0 +1,464 @@
+package edu.up.isgc.cg.raytracer.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.stream.IntStream;
+
+/**
+ * Utility class for writing images through NIO channels.
+ * PNG files are compressed in parallel: the filtered scanlines are split into blocks that are deflated on the
+ * common fork-join pool, each primed with the data preceding it as a dictionary and ended with a sync flush
+ * so the blocks can be stitched into a single zlib stream, whose checksum is combined from those of the blocks.
+ * Images can be read from row sources in a streaming pass, so images larger than the heap can be written.
+ * Portable Float Maps keep the color channels as floats for HDR tools.
+ */
+public abstract class ImageWriter {
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 17;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int DICTIONARY_SIZE = 1 << 15;
+    private static final int ADLER_BASE = 65521;
+    private static final int BLOCKS_PER_WORKER = 2;
+
+    /**
+     * Source of the rows of an image of packed RGB pixels, read one row at a time from a single thread.
+     */
+    public interface PixelRows {
+        /**
+         * Copies a row of the image.
+         *
+         * @param y      The index of the row
+         * @param pixels The array receiving the packed RGB value of every pixel of the row
+         * @param offset The position of the first pixel of the row in the array
+         */
+        void getRow(int y, int[] pixels, int offset);
+    }
+
+    /**
+     * Source of the rows of an image of three float channels per pixel, read one row at a time from a single thread.
+     */
+    public interface FloatRows {
+        /**
+         * Copies a row of the image.
+         *
+         * @param y      The index of the row
+         * @param values The array receiving the three channels of every pixel of the row
+         * @param offset The position of the first channel of the row in the array
+         */
+        void getRow(int y, float[] values, int offset);
+    }
+
+    /**
+     * Writes an image as an RGB PNG file.
+     *
+     * @param file  The file to write
+     * @param image The image to write
+     * @throws IOException If the file cannot be written
+     */
+    public static void writePNG(File file, BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        writePNG(file, width, height, image.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    /**
+     * Writes packed RGB pixels as an RGB PNG file with the default compression level and block size.
+     *
+     * @param file   The file to write
+     * @param width  The width of the image in pixels
+     * @param height The height of the image in pixels
+     * @param pixels The packed RGB value of every pixel in row-major order; alpha bits are ignored
+     * @throws IOException If the file cannot be written
+     */
+    public static void writePNG(File file, int width, int height, int[] pixels) throws IOException {
+        writePNG(file, width, height, pixels, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Writes packed RGB pixels as an RGB PNG file, deflating blocks of scanlines in parallel.
+     *
+     * @param file      The file to write
+     * @param width     The width of the image in pixels
+     * @param height    The height of the image in pixels
+     * @param pixels    The packed RGB value of every pixel in row-major order; alpha bits are ignored
+     * @param level     The compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param blockSize The number of bytes of filtered scanlines compressed by every task
+     * @throws IOException If the file cannot be written
+     */
+    public static void writePNG(File file, int width, int height, int[] pixels, int level, int blockSize) throws IOException {
+        if (width <= 0 || height <= 0 || pixels.length < width * height) {
+            throw new IllegalArgumentException("Image of " + width + "x" + height + " pixels needs as many pixels, got " + pixels.length);
+        }
+        writePNG(file, width, height, (y, row, offset) -> System.arraycopy(pixels, y * width, row, offset, width), level, blockSize);
+    }
+
+    /**
+     * Writes the rows of an image as an RGB PNG file with the default compression level and block size.
+     *
+     * @param file   The file to write
+     * @param width  The width of the image in pixels
+     * @param height The height of the image in pixels
+     * @param rows   The source of the packed RGB rows of the image
+     * @throws IOException If the file cannot be written
+     */
+    public static void writePNG(File file, int width, int height, PixelRows rows) throws IOException {
+        writePNG(file, width, height, rows, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Writes the rows of an image as an RGB PNG file in a single streaming pass. The rows are read in bands of
+     * a few blocks per worker of the common fork-join pool; the scanlines of a band are filtered and its blocks
+     * deflated in parallel and written out before the next band is read, so only one band is ever held in memory.
+     *
+     * @param file      The file to write
+     * @param width     The width of the image in pixels
+     * @param height    The height of the image in pixels
+     * @param rows      The source of the packed RGB rows of the image, read from the top row down
+     * @param level     The compression level, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param blockSize The number of bytes of filtered scanlines compressed by every task
+     * @throws IOException If the file cannot be written
+     */
+    public static void writePNG(File file, int width, int height, PixelRows rows, int level, int blockSize) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image size must be positive, got " + width + "x" + height);
+        }
+        int rowSize = width * 3 + 1;
+        int rowsPerBlock = Math.max(1, blockSize / rowSize);
+        int blocks = (height + rowsPerBlock - 1) / rowsPerBlock;
+        int blocksPerBand = Math.max(1, ForkJoinPool.getCommonPoolParallelism() * BLOCKS_PER_WORKER);
+
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height).put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(PNG_SIGNATURE));
+            writeChunk(channel, "IHDR", header.array());
+            writeChunk(channel, "IDAT", new byte[]{0x78, (byte) 0x9C});
+
+            byte[] dictionary = new byte[0];
+            int[] previousRow = new int[width];
+            long checksum = 1;
+            for (int firstBlock = 0; firstBlock < blocks; firstBlock += blocksPerBand) {
+                int bandBlocks = Math.min(blocksPerBand, blocks - firstBlock);
+                int firstRow = firstBlock * rowsPerBlock;
+                int bandRows = Math.min(height, firstRow + bandBlocks * rowsPerBlock) - firstRow;
+                int[] pixels = new int[(bandRows + 1) * width];
+                System.arraycopy(previousRow, 0, pixels, 0, width);
+                for (int row = 0; row < bandRows; row++) {
+                    rows.getRow(firstRow + row, pixels, (row + 1) * width);
+                }
+                System.arraycopy(pixels, bandRows * width, previousRow, 0, width);
+
+                byte[] filtered = new byte[bandRows * rowSize];
+                IntStream.range(0, bandRows).parallel().forEach(row -> filterRow(pixels, width, row + 1, filtered, row * rowSize));
+
+                byte[] bandDictionary = dictionary;
+                boolean lastBand = firstBlock + bandBlocks == blocks;
+                byte[][] compressed = new byte[bandBlocks][];
+                long[] checksums = new long[bandBlocks];
+                IntStream.range(0, bandBlocks).parallel().forEach(block -> {
+                    int start = block * rowsPerBlock * rowSize;
+                    int end = Math.min(filtered.length, start + rowsPerBlock * rowSize);
+                    compressed[block] = deflate(filtered, start, end, precedingBytes(bandDictionary, filtered, start),
+                            level, lastBand && block == bandBlocks - 1);
+                    Adler32 adler = new Adler32();
+                    adler.update(filtered, start, end - start);
+                    checksums[block] = adler.getValue();
+                });
+                for (int block = 0; block < bandBlocks; block++) {
+                    int start = block * rowsPerBlock * rowSize;
+                    int length = Math.min(filtered.length, start + rowsPerBlock * rowSize) - start;
+                    checksum = combineAdler32(checksum, checksums[block], length);
+                    writeChunk(channel, "IDAT", compressed[block]);
+                }
+                dictionary = precedingBytes(dictionary, filtered, filtered.length);
+            }
+            writeChunk(channel, "IDAT", ByteBuffer.allocate(4).putInt((int) checksum).array());
+            writeChunk(channel, "IEND", new byte[0]);
+        }
+    }
+
+    /**
+     * Writes an image as a three-channel Portable Float Map, with the rows stored from the bottom of the image up
+     * as little-endian floats.
+     *
+     * @param file   The file to write
+     * @param width  The width of the image in pixels
+     * @param height The height of the image in pixels
+     * @param values The three channels of every pixel in row-major order, from the top row down
+     * @throws IOException If the file cannot be written
+     */
+    public static void writePFM(File file, int width, int height, float[] values) throws IOException {
+        if (width <= 0 || height <= 0 || values.length < width * height * 3) {
+            throw new IllegalArgumentException("Image of " + width + "x" + height + " pixels needs three values per pixel, got " + values.length);
+        }
+        writePFM(file, width, height, (y, row, offset) -> System.arraycopy(values, y * width * 3, row, offset, width * 3));
+    }
+
+    /**
+     * Writes the rows of an image as a three-channel Portable Float Map, with the rows stored from the bottom
+     * of the image up as little-endian floats. Only one row is held in memory at a time.
+     *
+     * @param file   The file to write
+     * @param width  The width of the image in pixels
+     * @param height The height of the image in pixels
+     * @param rows   The source of the rows of the image, three channels per pixel, read from the bottom row up
+     * @throws IOException If the file cannot be written
+     */
+    public static void writePFM(File file, int width, int height, FloatRows rows) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image size must be positive, got " + width + "x" + height);
+        }
+        byte[] header = ("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII);
+        float[] values = new float[width * 3];
+        ByteBuffer row = ByteBuffer.allocate(width * 3 * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(header));
+            for (int j = height - 1; j >= 0; j--) {
+                rows.getRow(j, values, 0);
+                row.clear();
+                row.asFloatBuffer().put(values);
+                writeFully(channel, row);
+            }
+        }
+    }
+
+    /**
+     * Filters a scanline, choosing the PNG filter whose output has the smallest sum of absolute values,
+     * and stores it preceded by the filter type.
+     *
+     * @param pixels   The packed RGB value of every pixel of the rows at hand, starting with the row above them
+     * @param width    The width of the image in pixels
+     * @param row      The index of the scanline in the pixels, at least 1
+     * @param filtered Where the filtered scanline is stored
+     * @param offset   The position of the filtered scanline
+     */
+    private static void filterRow(int[] pixels, int width, int row, byte[] filtered, int offset) {
+        int size = width * 3;
+        byte[] current = rowBytes(pixels, width, row);
+        byte[] previous = rowBytes(pixels, width, row - 1);
+        byte[] candidate = new byte[size];
+        long bestSum = Long.MAX_VALUE;
+        for (int type = 0; type < 5; type++) {
+            long sum = filter(type, current, previous, candidate);
+            if (sum < bestSum) {
+                bestSum = sum;
+                filtered[offset] = (byte) type;
+                System.arraycopy(candidate, 0, filtered, offset + 1, size);
+            }
+        }
+    }
+
+    /**
+     * Applies a PNG filter to a scanline.
+     *
+     * @param type     The filter type: none, sub, up, average or Paeth
+     * @param current  The bytes of the scanline
+     * @param previous The bytes of the scanline above, zeros for the first one
+     * @param output   Where the filtered bytes are stored
+     * @return The sum of the absolute values of the filtered bytes, read as signed
+     */
+    private static long filter(int type, byte[] current, byte[] previous, byte[] output) {
+        int size = current.length;
+        long sum = 0;
+        switch (type) {
+            case 0:
+                for (int i = 0; i < size; i++) {
+                    output[i] = current[i];
+                    sum += Math.abs(output[i]);
+                }
+                break;
+            case 1:
+                for (int i = 0; i < size; i++) {
+                    output[i] = (byte) (current[i] - (i >= 3 ? current[i - 3] : 0));
+                    sum += Math.abs(output[i]);
+                }
+                break;
+            case 2:
+                for (int i = 0; i < size; i++) {
+                    output[i] = (byte) (current[i] - previous[i]);
+                    sum += Math.abs(output[i]);
+                }
+                break;
+            case 3:
+                for (int i = 0; i < size; i++) {
+                    int left = i >= 3 ? current[i - 3] & 0xFF : 0;
+                    output[i] = (byte) (current[i] - ((left + (previous[i] & 0xFF)) >> 1));
+                    sum += Math.abs(output[i]);
+                }
+                break;
+            default:
+                for (int i = 0; i < size; i++) {
+                    int left = i >= 3 ? current[i - 3] & 0xFF : 0;
+                    int upLeft = i >= 3 ? previous[i - 3] & 0xFF : 0;
+                    output[i] = (byte) (current[i] - paeth(left, previous[i] & 0xFF, upLeft));
+                    sum += Math.abs(output[i]);
+                }
+                break;
+        }
+        return sum;
+    }
+
+    /**
+     * Unpacks the red, green and blue bytes of a scanline.
+     *
+     * @param pixels The packed RGB value of every pixel
+     * @param width  The width of the image in pixels
+     * @param row    The index of the scanline
+     * @return The bytes of the scanline
+     */
+    private static byte[] rowBytes(int[] pixels, int width, int row) {
+        byte[] bytes = new byte[width * 3];
+        for (int i = 0; i < width; i++) {
+            int rgb = pixels[row * width + i];
+            bytes[i * 3] = (byte) (rgb >> 16);
+            bytes[i * 3 + 1] = (byte) (rgb >> 8);
+            bytes[i * 3 + 2] = (byte) rgb;
+        }
+        return bytes;
+    }
+
+    /**
+     * Predicts a byte from its neighbors with the Paeth predictor of the PNG specification.
+     *
+     * @param left   The byte to the left
+     * @param up     The byte above
+     * @param upLeft The byte above and to the left
+     * @return The predicted byte
+     */
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        return distanceUp <= distanceUpLeft ? up : upLeft;
+    }
+
+    /**
+     * Gets the bytes of the stream that precede a position, up to the size of the deflate window.
+     *
+     * @param earlier The bytes of the stream preceding the data, up to the size of the window
+     * @param data    The data at hand
+     * @param end     The position in the data
+     * @return The last bytes of the stream before the position
+     */
+    private static byte[] precedingBytes(byte[] earlier, byte[] data, int end) {
+        int fromData = Math.min(end, DICTIONARY_SIZE);
+        int fromEarlier = Math.min(earlier.length, DICTIONARY_SIZE - fromData);
+        byte[] bytes = new byte[fromEarlier + fromData];
+        System.arraycopy(earlier, earlier.length - fromEarlier, bytes, 0, fromEarlier);
+        System.arraycopy(data, end - fromData, bytes, fromEarlier, fromData);
+        return bytes;
+    }
+
+    /**
+     * Compresses a block of data as raw deflate data. Every block but the last one ends with a sync flush,
+     * which leaves the stream at a byte boundary without marking it as finished, so the next block can follow it.
+     *
+     * @param data       The data holding the block
+     * @param start      The position of the first byte of the block
+     * @param end        The position past the last byte of the block
+     * @param dictionary The bytes of the stream preceding the block, up to the size of the deflate window
+     * @param level      The compression level
+     * @param last       Whether the block ends the stream
+     * @return The compressed block
+     */
+    private static byte[] deflate(byte[] data, int start, int end, byte[] dictionary, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary.length > 0) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data, start, end - start);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] output = new byte[Math.max(64, (end - start) / 2)];
+            int length = 0;
+            while (true) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                int written = deflater.deflate(output, length, output.length - length,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                length += written;
+                if (last ? deflater.finished() : length < output.length) {
+                    return Arrays.copyOf(output, length);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive pieces of data into the checksum of both.
+     *
+     * @param first        The checksum of the first piece
+     * @param second       The checksum of the second piece
+     * @param secondLength The number of bytes of the second piece
+     * @return The checksum of the concatenation
+     */
+    private static long combineAdler32(long first, long second, long secondLength) {
+        long remainder = secondLength % ADLER_BASE;
+        long sum1 = first & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (second & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((first >>> 16) & 0xFFFF) + ((second >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        sum1 %= ADLER_BASE;
+        sum2 %= ADLER_BASE;
+        return (sum2 << 16) | sum1;
+    }
+
+    /**
+     * Writes a PNG chunk: its length, type, data and the CRC-32 of its type and data.
+     *
+     * @param channel The channel to write to
+     * @param type    The four-letter type of the chunk
+     * @param data    The data of the chunk
+     * @throws IOException If the channel cannot be written
+     */
+    private static void writeChunk(FileChannel channel, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        ByteBuffer head = ByteBuffer.allocate(8).putInt(data.length).put(typeBytes);
+        ByteBuffer tail = ByteBuffer.allocate(4).putInt((int) crc.getValue());
+        head.flip();
+        tail.flip();
+        ByteBuffer[] buffers = {head, ByteBuffer.wrap(data), tail};
+        long remaining = 12L + data.length;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    /**
+     * Writes every remaining byte of a buffer.
+     *
+     * @param channel The channel to write to
+     * @param buffer  The buffer to write
+     * @throws IOException If the channel cannot be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
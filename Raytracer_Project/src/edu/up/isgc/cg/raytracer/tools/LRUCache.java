@@ -0,0 +1,89 @@
+package edu.up.isgc.cg.raytracer.tools;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe cache that holds a bounded number of entries, evicting the least recently used one when full.
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the cached values
+ */
+public class LRUCache<K, V> {
+    private final LinkedHashMap<K, V> entries;
+    private int capacity;
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param capacity The maximum number of entries kept in the cache
+     */
+    public LRUCache(int capacity) {
+        setCapacity(capacity);
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > LRUCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the maximum number of entries kept in the cache.
+     *
+     * @return The capacity of the cache
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of entries kept in the cache, evicting entries if it shrinks.
+     *
+     * @param capacity The capacity to set
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        if (entries != null) {
+            while (entries.size() > this.capacity) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Gets a cached value, marking it as the most recently used.
+     *
+     * @param key The key of the value
+     * @return The cached value, or null if it is not in the cache
+     */
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Adds a value to the cache.
+     *
+     * @param key   The key of the value
+     * @param value The value to cache
+     */
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    /**
+     * Gets the number of entries in the cache.
+     *
+     * @return The number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes every entry from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
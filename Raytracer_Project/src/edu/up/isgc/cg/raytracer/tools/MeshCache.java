@@ -0,0 +1,282 @@
+package edu.up.isgc.cg.raytracer.tools;
+
+import edu.up.isgc.cg.raytracer.acceleration.BVH;
+import edu.up.isgc.cg.raytracer.objects.TriangleMesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Utility class for storing built meshes in a binary file next to the OBJ file they come from, so later runs
+ * map the file into memory and copy its buffers instead of parsing the OBJ file and building the BVH again.
+ * A cache file records the size and modification time of its source and is ignored once the source changes.
+ * <p>
+ * The file starts with a header of eight little-endian fields: the magic number, the format version,
+ * the size and the modification time of the source, and the number of position components, normal components,
+ * triangles and BVH nodes. It is followed by the positions, the normals and the BVH node bounds as doubles,
+ * then the vertex indices, the normal indices, and the first child or primitive and the primitive count of
+ * every node as ints. Triangles are stored in the leaf order of the BVH.
+ */
+public abstract class MeshCache {
+    public static final String EXTENSION = ".rtmesh";
+    public static final int MAGIC = 0x52544D48;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES + 4 * Integer.BYTES;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Gets the cache file of an OBJ file.
+     *
+     * @param source The OBJ file
+     * @return The cache file next to it
+     */
+    public static File getCacheFile(File source) {
+        return new File(source.getPath() + EXTENSION);
+    }
+
+    /**
+     * Loads the mesh of an OBJ file from its cache file.
+     *
+     * @param source The OBJ file
+     * @return The mesh, or null if there is no cache file, it does not match the current source or it is corrupt
+     * @throws IOException If the cache file cannot be read
+     */
+    public static TriangleMesh load(File source) throws IOException {
+        File cache = getCacheFile(source);
+        if (!cache.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return null;
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getLong() != source.length() || header.getLong() != source.lastModified()) {
+                return null;
+            }
+            int positionCount = header.getInt();
+            int normalCount = header.getInt();
+            int triangleCount = header.getInt();
+            int nodeCount = header.getInt();
+            if (positionCount < 0 || normalCount < 0 || triangleCount < 0 || nodeCount < 0
+                    || channel.size() != fileSize(positionCount, normalCount, triangleCount, nodeCount)) {
+                return null;
+            }
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN).position(HEADER_SIZE);
+            double[] positions = new double[positionCount];
+            double[] normals = new double[normalCount];
+            double[] nodeBounds = new double[nodeCount * 6];
+            int[] vertexIndices = new int[triangleCount * 3];
+            int[] normalIndices = new int[triangleCount * 3];
+            int[] nodeFirst = new int[nodeCount];
+            int[] nodeCounts = new int[nodeCount];
+            getDoubles(mapped, positions);
+            getDoubles(mapped, normals);
+            getDoubles(mapped, nodeBounds);
+            getInts(mapped, vertexIndices);
+            getInts(mapped, normalIndices);
+            getInts(mapped, nodeFirst);
+            getInts(mapped, nodeCounts);
+            if (!isValid(positions, normals, vertexIndices, normalIndices, nodeFirst, nodeCounts, triangleCount)) {
+                return null;
+            }
+            return new TriangleMesh(positions, normals, vertexIndices, normalIndices,
+                    new BVH(nodeBounds, nodeFirst, nodeCounts, triangleCount));
+        }
+    }
+
+    /**
+     * Stores the mesh of an OBJ file in its cache file. The file is written under a temporary name and then
+     * moved into place, so a run loading it at the same time never sees it half written.
+     *
+     * @param source The OBJ file
+     * @param mesh   The mesh built from the file, untransformed
+     * @throws IOException If the cache file cannot be written
+     */
+    public static void store(File source, TriangleMesh mesh) throws IOException {
+        double[] positions = mesh.getPositions();
+        double[] normals = mesh.getNormals();
+        int[] vertexIndices = mesh.getVertexIndices();
+        int[] normalIndices = mesh.getNormalIndices();
+        double[] nodeBounds = mesh.getBVH().getNodeBounds();
+        int[] nodeFirst = mesh.getBVH().getNodeFirst();
+        int[] nodeCounts = mesh.getBVH().getNodeCounts();
+        int triangleCount = mesh.getTriangleCount();
+
+        Path target = getCacheFile(source).toPath();
+        Path temporary = target.resolveSibling(target.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(VERSION).putLong(source.length()).putLong(source.lastModified());
+                buffer.putInt(positions.length).putInt(normals.length).putInt(triangleCount).putInt(nodeFirst.length);
+                putDoubles(channel, buffer, positions);
+                putDoubles(channel, buffer, normals);
+                putDoubles(channel, buffer, nodeBounds);
+                putInts(channel, buffer, vertexIndices);
+                putInts(channel, buffer, normalIndices);
+                putInts(channel, buffer, nodeFirst);
+                putInts(channel, buffer, nodeCounts);
+                flush(channel, buffer);
+                channel.force(false);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Checks that the buffers read from a cache file only reference elements they hold, so a corrupt file is
+     * rejected here instead of failing during rendering. Every index must fall within the vertices and normals,
+     * every leaf within the triangles, and both children of every inner node within the nodes and after it,
+     * so a traversal always terminates.
+     *
+     * @param positions     The components of the unique vertices
+     * @param normals       The components of the unique normals
+     * @param vertexIndices The vertices of every triangle
+     * @param normalIndices The normals of every triangle
+     * @param nodeFirst     The first child or first primitive of every node
+     * @param nodeCounts    The primitive count of every node
+     * @param triangleCount The number of triangles
+     * @return True if every reference is in range
+     */
+    private static boolean isValid(double[] positions, double[] normals, int[] vertexIndices, int[] normalIndices,
+                                   int[] nodeFirst, int[] nodeCounts, int triangleCount) {
+        if (positions.length % 3 != 0 || normals.length % 3 != 0 || (triangleCount > 0) != (nodeFirst.length > 0)) {
+            return false;
+        }
+        if (!inRange(vertexIndices, positions.length / 3) || !inRange(normalIndices, normals.length / 3)) {
+            return false;
+        }
+        for (int node = 0; node < nodeFirst.length; node++) {
+            int first = nodeFirst[node];
+            int count = nodeCounts[node];
+            if (count > 0) {
+                if (first < 0 || (long) first + count > triangleCount) {
+                    return false;
+                }
+            } else if (count < 0 || first <= node || first >= nodeFirst.length - 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that indices fall within a number of elements.
+     *
+     * @param indices The indices to check
+     * @param size    The number of elements
+     * @return True if every index is at least 0 and less than the number of elements
+     */
+    private static boolean inRange(int[] indices, int size) {
+        for (int index : indices) {
+            if (index < 0 || index >= size) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the size of a cache file.
+     *
+     * @param positionCount The number of position components
+     * @param normalCount   The number of normal components
+     * @param triangleCount The number of triangles
+     * @param nodeCount     The number of BVH nodes
+     * @return The size of the file in bytes
+     */
+    private static long fileSize(int positionCount, int normalCount, int triangleCount, int nodeCount) {
+        return HEADER_SIZE + ((long) positionCount + normalCount + nodeCount * 6L) * Double.BYTES
+                + (triangleCount * 6L + nodeCount * 2L) * Integer.BYTES;
+    }
+
+    /**
+     * Copies doubles from a buffer, advancing its position past them.
+     *
+     * @param buffer The buffer to copy from
+     * @param values The array to fill
+     */
+    private static void getDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+    }
+
+    /**
+     * Copies ints from a buffer, advancing its position past them.
+     *
+     * @param buffer The buffer to copy from
+     * @param values The array to fill
+     */
+    private static void getInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+    }
+
+    /**
+     * Writes doubles to a channel through a buffer, writing out the buffer whenever it fills up.
+     *
+     * @param channel The channel to write to
+     * @param buffer  The buffer collecting the bytes to write
+     * @param values  The values to write
+     * @throws IOException If the channel cannot be written
+     */
+    private static void putDoubles(FileChannel channel, ByteBuffer buffer, double[] values) throws IOException {
+        for (double value : values) {
+            if (buffer.remaining() < Double.BYTES) {
+                flush(channel, buffer);
+            }
+            buffer.putDouble(value);
+        }
+    }
+
+    /**
+     * Writes ints to a channel through a buffer, writing out the buffer whenever it fills up.
+     *
+     * @param channel The channel to write to
+     * @param buffer  The buffer collecting the bytes to write
+     * @param values  The values to write
+     * @throws IOException If the channel cannot be written
+     */
+    private static void putInts(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+        for (int value : values) {
+            if (buffer.remaining() < Integer.BYTES) {
+                flush(channel, buffer);
+            }
+            buffer.putInt(value);
+        }
+    }
+
+    /**
+     * Writes out the bytes collected in a buffer and empties it.
+     *
+     * @param channel The channel to write to
+     * @param buffer  The buffer to write out
+     * @throws IOException If the channel cannot be written
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
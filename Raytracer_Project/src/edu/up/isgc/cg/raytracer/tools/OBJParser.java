@@ -0,0 +1,550 @@
+package edu.up.isgc.cg.raytracer.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Utility class for parsing OBJ files in parallel. The file is mapped into memory and split into chunks that end
+ * at line breaks; every chunk is parsed on the common fork-join pool with a hand-written number scanner into
+ * growable primitive arrays, and the chunks are then concatenated in file order.
+ * Vertex, normal, face and smoothing group lines are read; every other line is ignored.
+ */
+public abstract class OBJParser {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private static final int BOUNDARY_BUFFER_SIZE = 4096;
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * Parses an OBJ file, splitting it into chunks of the default size.
+     *
+     * @param path The path to the OBJ file
+     * @return The parsed contents of the file
+     * @throws IOException If the file cannot be read
+     */
+    public static ParsedOBJ parse(String path) throws IOException {
+        return parse(path, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Parses an OBJ file, splitting it into chunks of about the given size that are parsed in parallel.
+     *
+     * @param path      The path to the OBJ file
+     * @param chunkSize The number of bytes of every chunk, before moving its end to the next line break
+     * @return The parsed contents of the file
+     * @throws IOException If the file cannot be read
+     */
+    public static ParsedOBJ parse(String path, int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        List<Chunk> chunks;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunkCount = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+            long[] boundaries = new long[chunkCount + 1];
+            boundaries[chunkCount] = size;
+            for (int i = 1; i < chunkCount; i++) {
+                boundaries[i] = Math.max(boundaries[i - 1], nextLineStart(channel, (long) i * chunkSize));
+            }
+            MappedByteBuffer[] buffers = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, boundaries[i], boundaries[i + 1] - boundaries[i]);
+            }
+            chunks = IntStream.range(0, chunkCount).parallel()
+                    .mapToObj(i -> new Chunk(buffers[i]))
+                    .collect(Collectors.toList());
+        }
+        return merge(chunks);
+    }
+
+    /**
+     * Finds the start of the first line that starts at or after a position of a file.
+     *
+     * @param channel  The channel of the file
+     * @param position The position to start looking from
+     * @return The position of the first line start, or the size of the file if there is none
+     * @throws IOException If the file cannot be read
+     */
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_BUFFER_SIZE);
+        long offset = position - 1;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (isLineBreak(buffer.get(i))) {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Concatenates the contents of the chunks of a file, resolving the smoothing group of the faces that come
+     * before the first smoothing group line of their chunk and the faces that come before the first normal of the file.
+     *
+     * @param chunks The chunks of the file, in file order
+     * @return The parsed contents of the file
+     */
+    private static ParsedOBJ merge(List<Chunk> chunks) {
+        int vertexCount = 0;
+        int normalCount = 0;
+        int faceCount = 0;
+        int faceVertexCount = 0;
+        int faceNormalCount = 0;
+        for (Chunk chunk : chunks) {
+            vertexCount += chunk.vertices.size();
+            normalCount += chunk.normals.size();
+            faceCount += chunk.faceGroups.size();
+            faceVertexCount += chunk.faceVertices.size();
+            faceNormalCount += chunk.faceNormals.size();
+        }
+
+        double[] vertices = new double[vertexCount];
+        double[] normals = new double[normalCount];
+        int[] faceVertexOffsets = new int[faceCount + 1];
+        int[] faceVertices = new int[faceVertexCount];
+        int[] faceNormalOffsets = new int[faceCount + 1];
+        int[] faceNormals = new int[faceNormalCount];
+        int[] faceSmoothingGroups = new int[faceCount];
+
+        int vertexEnd = 0;
+        int normalEnd = 0;
+        int face = 0;
+        int faceVertexEnd = 0;
+        int faceNormalEnd = 0;
+        int smoothingGroup = ParsedOBJ.DEFAULT_SMOOTHING_GROUP;
+        for (Chunk chunk : chunks) {
+            vertexEnd = chunk.vertices.copyTo(vertices, vertexEnd);
+            boolean hadNormals = normalEnd > 0;
+            normalEnd = chunk.normals.copyTo(normals, normalEnd);
+            chunk.faceVertices.copyTo(faceVertices, faceVertexEnd);
+
+            int chunkNormal = 0;
+            for (int i = 0; i < chunk.faceGroups.size(); i++, face++) {
+                int corners = chunk.faceVertexCounts.get(i);
+                faceVertexEnd += corners;
+                faceVertexOffsets[face + 1] = faceVertexEnd;
+
+                int normalCorners = chunk.faceNormalCounts.get(i);
+                if (hadNormals || i >= chunk.facesBeforeFirstNormal) {
+                    for (int j = 0; j < normalCorners; j++) {
+                        faceNormals[faceNormalEnd++] = chunk.faceNormals.get(chunkNormal + j);
+                    }
+                }
+                chunkNormal += normalCorners;
+                faceNormalOffsets[face + 1] = faceNormalEnd;
+
+                faceSmoothingGroups[face] = i < chunk.facesBeforeFirstGroup ? smoothingGroup : chunk.faceGroups.get(i);
+            }
+            if (chunk.facesBeforeFirstGroup < Integer.MAX_VALUE) {
+                smoothingGroup = chunk.lastGroup;
+            }
+        }
+        if (faceNormalEnd < faceNormals.length) {
+            faceNormals = Arrays.copyOf(faceNormals, faceNormalEnd);
+        }
+        return new ParsedOBJ(vertices, normals, faceVertexOffsets, faceVertices, faceNormalOffsets, faceNormals, faceSmoothingGroups);
+    }
+
+    /**
+     * Checks whether a byte ends a line.
+     *
+     * @param b The byte to check
+     * @return True for a line feed or a carriage return
+     */
+    private static boolean isLineBreak(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Checks whether a byte separates the fields of a line, like the {@code \s} character class.
+     *
+     * @param b The byte to check
+     * @return True for a space, a tab, a line break, a vertical tab or a form feed
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == 0x0B || b == '\f';
+    }
+
+    /**
+     * Parses a decimal number. Numbers of up to fifteen significant digits and small exponents, which cover the
+     * numbers written by modeling tools, are computed with a single correctly rounded multiplication or division,
+     * giving the same result as {@link Double#parseDouble(String)}; any other number is handed to that method.
+     *
+     * @param buffer The buffer holding the number
+     * @param start  The position of the first character of the number
+     * @param end    The position past the last character of the number
+     * @return The parsed number
+     * @throws NumberFormatException If the characters are not a number
+     */
+    private static double parseDouble(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || b != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fraction) {
+                    exponent--;
+                }
+                if (digits > MAX_FAST_DIGITS) {
+                    return Double.parseDouble(text(buffer, start, end));
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end && seenDigit && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < end && (buffer.get(j) == '-' || buffer.get(j) == '+')) {
+                negativeExponent = buffer.get(j) == '-';
+                j++;
+            }
+            int value = 0;
+            int exponentStart = j;
+            for (; j < end && buffer.get(j) >= '0' && buffer.get(j) <= '9' && j - exponentStart < 4; j++) {
+                value = value * 10 + (buffer.get(j) - '0');
+            }
+            if (j == exponentStart) {
+                return Double.parseDouble(text(buffer, start, end));
+            }
+            exponent += negativeExponent ? -value : value;
+            i = j;
+        }
+        if (i != end || !seenDigit || exponent < -POWERS_OF_TEN.length + 1 || exponent >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(text(buffer, start, end));
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal integer. Integers of up to nine digits are scanned directly; any other text is handed to
+     * {@link Integer#parseInt(String)}, so the same integers are accepted and rejected.
+     *
+     * @param buffer The buffer holding the integer
+     * @param start  The position of the first character of the integer
+     * @param end    The position past the last character of the integer
+     * @return The parsed integer
+     * @throws NumberFormatException If the characters are not an integer
+     */
+    private static int parseInt(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        if (i == end || end - i > 9) {
+            return Integer.parseInt(text(buffer, start, end));
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return Integer.parseInt(text(buffer, start, end));
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Decodes a range of a buffer as text.
+     *
+     * @param buffer The buffer holding the text
+     * @param start  The position of the first character
+     * @param end    The position past the last character
+     * @return The text
+     */
+    private static String text(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Contents of a chunk of an OBJ file, parsed when constructed.
+     * Faces are recorded with their normals even before the first normal of the file, and with the smoothing group
+     * in effect within the chunk; {@link #merge(List)} fixes both once the preceding chunks are known.
+     */
+    private static class Chunk {
+        private final DoubleArray vertices = new DoubleArray();
+        private final DoubleArray normals = new DoubleArray();
+        private final IntArray faceVertexCounts = new IntArray();
+        private final IntArray faceVertices = new IntArray();
+        private final IntArray faceNormalCounts = new IntArray();
+        private final IntArray faceNormals = new IntArray();
+        private final IntArray faceGroups = new IntArray();
+        private final int[] fieldStarts = new int[3];
+        private final int[] fieldEnds = new int[3];
+        private int facesBeforeFirstNormal = Integer.MAX_VALUE;
+        private int facesBeforeFirstGroup = Integer.MAX_VALUE;
+        private int lastGroup = ParsedOBJ.DEFAULT_SMOOTHING_GROUP;
+
+        private Chunk(ByteBuffer buffer) {
+            int limit = buffer.limit();
+            int position = 0;
+            while (position < limit) {
+                int end = position;
+                while (end < limit && !isLineBreak(buffer.get(end))) {
+                    end++;
+                }
+                parseLine(buffer, position, end);
+                position = end + 1;
+            }
+        }
+
+        /**
+         * Parses a line of the chunk.
+         *
+         * @param buffer The buffer holding the chunk
+         * @param start  The position of the first character of the line
+         * @param end    The position past the last character of the line
+         */
+        private void parseLine(ByteBuffer buffer, int start, int end) {
+            if (end - start < 2) {
+                return;
+            }
+            byte first = buffer.get(start);
+            byte second = buffer.get(start + 1);
+            if (first == 'v' && second == ' ') {
+                parseVector(buffer, start + 2, end, vertices);
+            } else if (first == 'v' && second == 'n' && end - start > 2 && buffer.get(start + 2) == ' ') {
+                if (parseVector(buffer, start + 3, end, normals) && facesBeforeFirstNormal == Integer.MAX_VALUE) {
+                    facesBeforeFirstNormal = faceGroups.size();
+                }
+            } else if (first == 'f' && second == ' ') {
+                parseFace(buffer, start + 2, end);
+            } else if (first == 's' && second == ' ') {
+                parseSmoothingGroup(buffer, start + 2, end);
+            }
+        }
+
+        /**
+         * Parses the first three fields of a vertex or normal line, ignoring lines with fewer fields.
+         *
+         * @param buffer  The buffer holding the chunk
+         * @param start   The position after the keyword of the line
+         * @param end     The position past the last character of the line
+         * @param vectors The array the components are added to
+         * @return True if the line had three components
+         */
+        private boolean parseVector(ByteBuffer buffer, int start, int end, DoubleArray vectors) {
+            int fields = 0;
+            int position = start;
+            while (fields < 3) {
+                while (position < end && isWhitespace(buffer.get(position))) {
+                    position++;
+                }
+                if (position == end) {
+                    return false;
+                }
+                fieldStarts[fields] = position;
+                while (position < end && !isWhitespace(buffer.get(position))) {
+                    position++;
+                }
+                fieldEnds[fields++] = position;
+            }
+            for (int i = 0; i < 3; i++) {
+                vectors.add(parseDouble(buffer, fieldStarts[i], fieldEnds[i]));
+            }
+            return true;
+        }
+
+        /**
+         * Parses the corners of a face line, given as vertex, vertex/texture or vertex/texture/normal indices.
+         * Faces with fewer than three corners are ignored.
+         *
+         * @param buffer The buffer holding the chunk
+         * @param start  The position after the keyword of the line
+         * @param end    The position past the last character of the line
+         */
+        private void parseFace(ByteBuffer buffer, int start, int end) {
+            int vertexStart = faceVertices.size();
+            int normalStart = faceNormals.size();
+            int position = start;
+            while (true) {
+                while (position < end && isWhitespace(buffer.get(position))) {
+                    position++;
+                }
+                if (position == end) {
+                    break;
+                }
+                int fieldEnd = position;
+                while (fieldEnd < end && !isWhitespace(buffer.get(fieldEnd))) {
+                    fieldEnd++;
+                }
+                parseCorner(buffer, position, fieldEnd);
+                position = fieldEnd;
+            }
+            int corners = faceVertices.size() - vertexStart;
+            if (corners < 3) {
+                faceVertices.truncate(vertexStart);
+                faceNormals.truncate(normalStart);
+                return;
+            }
+            faceVertexCounts.add(corners);
+            faceNormalCounts.add(faceNormals.size() - normalStart);
+            faceGroups.add(lastGroup);
+        }
+
+        /**
+         * Parses a corner of a face, adding its vertex and, when given, its normal.
+         * The corner is split at slashes with trailing empty parts dropped, as {@link String#split(String)} does.
+         *
+         * @param buffer The buffer holding the chunk
+         * @param start  The position of the first character of the corner
+         * @param end    The position past the last character of the corner
+         */
+        private void parseCorner(ByteBuffer buffer, int start, int end) {
+            int trimmedEnd = end;
+            while (trimmedEnd > start && buffer.get(trimmedEnd - 1) == '/') {
+                trimmedEnd--;
+            }
+            if (trimmedEnd == start) {
+                return;
+            }
+            int parts = 0;
+            int partStart = start;
+            for (int i = start; i <= trimmedEnd && parts < 3; i++) {
+                if (i == trimmedEnd || buffer.get(i) == '/') {
+                    fieldStarts[parts] = partStart;
+                    fieldEnds[parts++] = i;
+                    partStart = i + 1;
+                }
+            }
+            faceVertices.add(parseInt(buffer, fieldStarts[0], fieldEnds[0]));
+            if (parts >= 3) {
+                faceNormals.add(parseInt(buffer, fieldStarts[2], fieldEnds[2]));
+            }
+        }
+
+        /**
+         * Parses a smoothing group line. Groups that are off or not a number become the default group.
+         *
+         * @param buffer The buffer holding the chunk
+         * @param start  The position after the keyword of the line
+         * @param end    The position past the last character of the line
+         */
+        private void parseSmoothingGroup(ByteBuffer buffer, int start, int end) {
+            int position = start;
+            while (position < end && isWhitespace(buffer.get(position))) {
+                position++;
+            }
+            if (position == end) {
+                return;
+            }
+            int fieldEnd = position;
+            while (fieldEnd < end && !isWhitespace(buffer.get(fieldEnd))) {
+                fieldEnd++;
+            }
+            int group;
+            if (text(buffer, position, fieldEnd).equals("off")) {
+                group = ParsedOBJ.DEFAULT_SMOOTHING_GROUP;
+            } else {
+                try {
+                    group = parseInt(buffer, position, fieldEnd);
+                } catch (NumberFormatException nfe) {
+                    group = ParsedOBJ.DEFAULT_SMOOTHING_GROUP;
+                }
+            }
+            if (facesBeforeFirstGroup == Integer.MAX_VALUE) {
+                facesBeforeFirstGroup = faceGroups.size();
+            }
+            lastGroup = group;
+        }
+    }
+
+    /**
+     * Growable array of doubles.
+     */
+    private static class DoubleArray {
+        private double[] values = new double[16];
+        private int size;
+
+        private void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int copyTo(double[] target, int offset) {
+            System.arraycopy(values, 0, target, offset, size);
+            return offset + size;
+        }
+    }
+
+    /**
+     * Growable array of ints.
+     */
+    private static class IntArray {
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int get(int index) {
+            return values[index];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void truncate(int size) {
+            this.size = size;
+        }
+
+        private int copyTo(int[] target, int offset) {
+            System.arraycopy(values, 0, target, offset, size);
+            return offset + size;
+        }
+    }
+}
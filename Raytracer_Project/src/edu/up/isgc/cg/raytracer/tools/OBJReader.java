@@ -1,23 +1,67 @@
 package edu.up.isgc.cg.raytracer.tools;
 
+import edu.up.isgc.cg.raytracer.Matrix4D;
 import edu.up.isgc.cg.raytracer.Vector3D;
 import edu.up.isgc.cg.raytracer.objects.Model3D;
-import edu.up.isgc.cg.raytracer.objects.Triangle;
+import edu.up.isgc.cg.raytracer.objects.TriangleMesh;
 
 import java.awt.*;
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Utility class for reading OBJ files and constructing 3D models.
+ * Models are instances of a mesh kept in object space: every model loaded from the same file shares one
+ * mesh and one BVH, and only carries its own transform. Parsed files and the meshes built from them are kept
+ * in bounded LRU caches, and cache entries are invalidated when the file changes on disk.
+ * The untransformed mesh of a file is also stored in a binary cache file next to it by {@link MeshCache},
+ * so later runs load it without parsing the file or building its BVH.
  */
 public abstract class OBJReader {
+    public static final int DEFAULT_PARSED_CACHE_CAPACITY = 32;
+    public static final int DEFAULT_MESH_CACHE_CAPACITY = 64;
+
+    private static final LRUCache<String, ParsedOBJ> parsedCache = new LRUCache<>(DEFAULT_PARSED_CACHE_CAPACITY);
+    private static final LRUCache<String, TriangleMesh> meshCache = new LRUCache<>(DEFAULT_MESH_CACHE_CAPACITY);
+    private static volatile boolean binaryCacheEnabled = true;
+
+    /**
+     * Sets the maximum number of parsed files and built meshes kept in the caches.
+     *
+     * @param parsedFiles The maximum number of parsed files
+     * @param meshes      The maximum number of built meshes
+     */
+    public static void setCacheCapacity(int parsedFiles, int meshes) {
+        parsedCache.setCapacity(parsedFiles);
+        meshCache.setCapacity(meshes);
+    }
+
+    /**
+     * Checks whether untransformed meshes are loaded from and stored in binary cache files next to their OBJ files.
+     *
+     * @return True if the binary cache is used
+     */
+    public static boolean isBinaryCacheEnabled() {
+        return binaryCacheEnabled;
+    }
+
+    /**
+     * Sets whether untransformed meshes are loaded from and stored in binary cache files next to their OBJ files.
+     *
+     * @param binaryCacheEnabled Whether to use the binary cache
+     */
+    public static void setBinaryCacheEnabled(boolean binaryCacheEnabled) {
+        OBJReader.binaryCacheEnabled = binaryCacheEnabled;
+    }
+
+    /**
+     * Removes every parsed file and built mesh from the caches. Binary cache files are kept.
+     */
+    public static void clearCache() {
+        parsedCache.clear();
+        meshCache.clear();
+    }
+
     /**
      * Constructs a 3D model from an OBJ file.
      *
@@ -84,172 +128,104 @@ public abstract class OBJReader {
      */
     public static Model3D getModel3D(String path, Vector3D origin, Color color, double shininess, double reflectivity, double refraction, double angleX, double angleY, double angleZ, double scale) {
         try {
-            angleX = Math.toRadians(angleX);
-            angleY = Math.toRadians(angleY);
-            angleZ = Math.toRadians(angleZ);
-
-            Vector3D[] rotX = new Vector3D[]{ new Vector3D( 1,0,0),new Vector3D(0, Math.cos(angleX), -Math.sin(angleX)), new Vector3D(0, Math.sin(angleX), Math.cos(angleX))};
-            Vector3D[] rotY = new Vector3D[]{ new Vector3D(Math.cos(angleY), 0, Math.sin(angleY)), new Vector3D( 0,1,0),new Vector3D(-Math.sin(angleY), 0, Math.cos(angleY))};
-            Vector3D[] rotZ = new Vector3D[]{ new Vector3D(Math.cos(angleZ),  -Math.sin(angleZ), 0), new Vector3D(Math.sin(angleZ), Math.cos(angleZ), 0), new Vector3D( 0,0,1)};
-
-            BufferedReader reader = new BufferedReader(new FileReader(path));
-
-            List<Triangle> triangles = new ArrayList<>();
-            List<Vector3D> vertices = new ArrayList<>();
-            List<Vector3D> normals = new ArrayList<>();
-            String line;
-            int defaultSmoothingGroup = -1;
-            int smoothingGroup = defaultSmoothingGroup;
-            Map<Integer, List<Triangle>> smoothingMap = new HashMap<>();
-
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("v ") || line.startsWith("vn ")) {
-                    String[] vertexComponents = line.split("(\\s)+");
-                    if (vertexComponents.length >= 4) {
-                        double x = Double.parseDouble(vertexComponents[1]);
-                        double y = Double.parseDouble(vertexComponents[2]);
-                        double z = Double.parseDouble(vertexComponents[3]);
-                        Vector3D vec = new Vector3D(x, y, z);
-                        double[] result = new double[]{0, 0, 0};
-
-                        for (int i = 0; i < 3; i++) {
-                            result[i] = Vector3D.dotProduct(rotX[i], vec);
-                        }
-                        vec = new Vector3D(result[0], result[1], result[2]);
-                        for (int i = 0; i < 3; i++) {
-                            result[i] = Vector3D.dotProduct(rotY[i], vec);
-                        }
-                        vec = new Vector3D(result[0], result[1], result[2]);
-                        for (int i = 0; i < 3; i++) {
-                            result[i] = Vector3D.dotProduct(rotZ[i], vec);
-                        }
-                        vec = new Vector3D(result[0], result[1], result[2]);
-
-                        if (line.startsWith("v ")) {
-                            vertices.add(Vector3D.scalarMultiplication(vec, scale));
-                        } else {
-                            normals.add(vec);
-                        }
-                    }
-                } else if (line.startsWith("f ")) {
-                    String[] faceComponents = line.split("(\\s)+");
-                    List<Integer> faceVertex = new ArrayList<>();
-                    List<Integer> faceNormals = new ArrayList<>();
-
-                    for (int i = 1; i < faceComponents.length; i++) {
-                        String[] infoVertex = faceComponents[i].split("/");
-                        if (infoVertex.length >= 1) {
-                            int vertexIndex = Integer.parseInt(infoVertex[0]);
-                            faceVertex.add(vertexIndex);
-                        }
-                        if (infoVertex.length >= 3) {
-                            int normalIndex = Integer.parseInt(infoVertex[2]);
-                            faceNormals.add(normalIndex);
-                        }
-                    }
-
-                    if (faceVertex.size() >= 3) {
-                        Vector3D[] triangleVertices = new Vector3D[faceVertex.size()];
-                        Vector3D[] triangleNormals = new Vector3D[faceNormals.size()];
-
-                        for (int i = 0; i < faceVertex.size(); i++) {
-                            triangleVertices[i] = vertices.get(faceVertex.get(i) - 1);
-                        }
-
-                        Vector3D[] arrangedTriangleVertices = null;
-                        Vector3D[] arrangedTriangleNormals = null;
-                        if(normals.size() > 0 && !faceNormals.isEmpty()) {
-                            for (int i = 0; i < faceNormals.size(); i++) {
-                                triangleNormals[i] = normals.get(faceNormals.get(i) - 1);
-                            }
-                            arrangedTriangleNormals = new Vector3D[]{triangleNormals[1], triangleNormals[0], triangleNormals[2]};
-                        }
-                        arrangedTriangleVertices = new Vector3D[]{triangleVertices[1], triangleVertices[0], triangleVertices[2]};
-
-                        Triangle tempTriangle = new Triangle(arrangedTriangleVertices, arrangedTriangleNormals);
-                        triangles.add(tempTriangle);
-
-                        List<Triangle> trianglesInMap = smoothingMap.get(smoothingGroup);
-                        if (trianglesInMap == null) {
-                            trianglesInMap = new ArrayList<>();
-                        }
-                        trianglesInMap.add(tempTriangle);
-
-                        if (faceVertex.size() == 4) {
-                            arrangedTriangleVertices = new Vector3D[]{triangleVertices[2], triangleVertices[0], triangleVertices[3]};
-                            if(arrangedTriangleNormals != null) {
-                                arrangedTriangleNormals = new Vector3D[]{triangleNormals[2], triangleNormals[0], triangleNormals[3]};
-                            }
-                            tempTriangle = new Triangle(arrangedTriangleVertices, arrangedTriangleNormals);
-                            triangles.add(tempTriangle);
-                            trianglesInMap.add(tempTriangle);
-                        }
-
-                        if (smoothingGroup != defaultSmoothingGroup) {
-                            smoothingMap.put(smoothingGroup, trianglesInMap);
-                        }
-                    }
-                } else if (line.startsWith("s ")) {
-                    String[] smoothingComponent = line.split("(\\s)+");
-                    if (smoothingComponent.length > 1) {
-                        if (smoothingComponent[1].equals("off")) {
-                            smoothingGroup = defaultSmoothingGroup;
-                        } else {
-                            try {
-                                smoothingGroup = Integer.parseInt(smoothingComponent[1]);
-                            } catch (NumberFormatException nfe) {
-                                smoothingGroup = defaultSmoothingGroup;
-                            }
-                        }
-                    }
-                }
-            }
-            reader.close();
+            return new Model3D(origin, getMesh(path), Matrix4D.transform(origin, angleX, angleY, angleZ, scale),
+                    color, shininess, reflectivity, refraction);
+        } catch (IOException e) {
+            System.err.println(e.toString());
+        }
+        return null;
+    }
 
-            class NormalPair {
-                Vector3D normal;
-                int count;
+    /**
+     * Gets the mesh of an OBJ file in object space, from the cache when possible.
+     *
+     * @param path The path to the OBJ file.
+     * @return The untransformed mesh.
+     * @throws IOException If the file cannot be read.
+     */
+    public static TriangleMesh getMesh(String path) throws IOException {
+        return getMesh(path, Vector3D.ZERO(), 0, 0, 0, 1);
+    }
 
-                public NormalPair() {
-                    normal = Vector3D.ZERO();
-                    count = 0;
-                }
+    /**
+     * Gets the mesh of an OBJ file with the given transform baked into its vertices, from the cache when possible.
+     *
+     * @param path   The path to the OBJ file.
+     * @param origin The origin of the model.
+     * @param angleX The rotation angle around the X-axis (in degrees).
+     * @param angleY The rotation angle around the Y-axis (in degrees).
+     * @param angleZ The rotation angle around the Z-axis (in degrees).
+     * @param scale  The scale factor applied to the model.
+     * @return The mesh, translated to the origin.
+     * @throws IOException If the file cannot be read.
+     */
+    public static TriangleMesh getMesh(String path, Vector3D origin, double angleX, double angleY, double angleZ, double scale) throws IOException {
+        String fileKey = fileKey(path);
+        String meshKey = fileKey + "|" + origin.getX() + "," + origin.getY() + "," + origin.getZ() +
+                "|" + angleX + "," + angleY + "," + angleZ + "|" + scale;
+        TriangleMesh mesh = meshCache.get(meshKey);
+        if (mesh == null) {
+            boolean untransformed = binaryCacheEnabled && origin.getX() == 0 && origin.getY() == 0 && origin.getZ() == 0
+                    && angleX == 0 && angleY == 0 && angleZ == 0 && scale == 1;
+            if (untransformed) {
+                mesh = loadBinary(path);
             }
-
-            //Smooth vertices normals
-            for (Integer key : smoothingMap.keySet()) {
-                Map<Vector3D, NormalPair> vertexMap = new HashMap<>();
-                List<Triangle> triangleInMap = smoothingMap.get(key);
-                for (Triangle triangle : triangleInMap) {
-                    Vector3D[] triangleVertices = triangle.getVertices();
-                    Vector3D[] triangleNormals = triangle.getNormals();
-                    for (int i = 0; i < triangleVertices.length; i++) {
-                        NormalPair normalsVertex = vertexMap.get(triangleVertices[i]);
-                        if (normalsVertex == null) {
-                            normalsVertex = new NormalPair();
-                        }
-                        if (triangleNormals.length > 0 && i < triangleNormals.length) {
-                            normalsVertex.normal = Vector3D.add(normalsVertex.normal, triangleNormals[i]);
-                            normalsVertex.count++;
-                        }
-                        vertexMap.put(triangleVertices[i], normalsVertex);
-                    }
+            if (mesh == null) {
+                ParsedOBJ parsed = parsedCache.get(fileKey);
+                if (parsed == null) {
+                    parsed = OBJParser.parse(path);
+                    parsedCache.put(fileKey, parsed);
                 }
-                for (Triangle triangle : triangleInMap) {
-                    Vector3D[] triangleVertices = triangle.getVertices();
-                    Vector3D[] triangleNormals = triangle.getNormals();
-                    for (int i = 0; i < triangleVertices.length; i++) {
-                        NormalPair normalsVertex = vertexMap.get(triangleVertices[i]);
-                        triangleNormals[i] = Vector3D.scalarMultiplication(normalsVertex.normal, 1.0 / (double) normalsVertex.count);
-                    }
-                    triangle.setNormals(triangleNormals[0], triangleNormals[1], triangleNormals[2]);
+                mesh = new TriangleMesh(parsed.buildTriangles(angleX, angleY, angleZ, scale), origin);
+                if (untransformed) {
+                    storeBinary(path, mesh);
                 }
             }
+            meshCache.put(meshKey, mesh);
+        }
+        return mesh;
+    }
+
+    /**
+     * Loads the untransformed mesh of an OBJ file from its binary cache file.
+     * A cache file that cannot be read is treated as missing, so the mesh is built from the OBJ file instead.
+     *
+     * @param path The path to the OBJ file.
+     * @return The mesh, or null if there is no usable cache file.
+     */
+    private static TriangleMesh loadBinary(String path) {
+        try {
+            return MeshCache.load(new File(path));
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.toString());
+            return null;
+        }
+    }
 
-            return new Model3D(origin, triangles.toArray(new Triangle[triangles.size()]), color, shininess, reflectivity, refraction);
+    /**
+     * Stores the untransformed mesh of an OBJ file in its binary cache file.
+     * Failing to write the file, as in a read-only directory, only costs the next run a parse.
+     *
+     * @param path The path to the OBJ file.
+     * @param mesh The mesh built from the file.
+     */
+    private static void storeBinary(String path, TriangleMesh mesh) {
+        try {
+            MeshCache.store(new File(path), mesh);
         } catch (IOException e) {
             System.err.println(e.toString());
         }
-        return null;
+    }
+
+    /**
+     * Builds the cache key of a file from its canonical path, size and modification time.
+     *
+     * @param path The path to the file.
+     * @return The key of the file.
+     * @throws IOException If the path cannot be resolved.
+     */
+    private static String fileKey(String path) throws IOException {
+        File file = new File(path);
+        return file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified();
     }
 }
@@ -0,0 +1,271 @@
+package edu.up.isgc.cg.raytracer.tools;
+
+import edu.up.isgc.cg.raytracer.Vector3D;
+import edu.up.isgc.cg.raytracer.objects.Triangle;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, untransformed contents of an OBJ file stored in flat primitive arrays, as produced by {@link OBJParser}.
+ * Vertices and normals hold three components each. The corners of face f are stored from
+ * {@code faceVertexOffsets[f]} to {@code faceVertexOffsets[f + 1]}, and the same goes for their normals.
+ * Indices in faces are 1-based, as in the file.
+ */
+public class ParsedOBJ {
+    public static final int DEFAULT_SMOOTHING_GROUP = -1;
+
+    private final double[] vertices;
+    private final double[] normals;
+    private final int[] faceVertexOffsets;
+    private final int[] faceVertices;
+    private final int[] faceNormalOffsets;
+    private final int[] faceNormals;
+    private final int[] faceSmoothingGroups;
+
+    /**
+     * Constructs the parsed contents of an OBJ file.
+     *
+     * @param vertices            The components of the vertices, three per vertex
+     * @param normals             The components of the normals, three per normal
+     * @param faceVertexOffsets   The position of the first corner of every face in the face vertices, plus the total
+     * @param faceVertices        The vertex of every corner of every face
+     * @param faceNormalOffsets   The position of the first corner of every face in the face normals, plus the total
+     * @param faceNormals         The normal of every corner of every face, for the faces that have normals
+     * @param faceSmoothingGroups The smoothing group of every face, or {@link #DEFAULT_SMOOTHING_GROUP}
+     */
+    public ParsedOBJ(double[] vertices, double[] normals, int[] faceVertexOffsets, int[] faceVertices,
+                     int[] faceNormalOffsets, int[] faceNormals, int[] faceSmoothingGroups) {
+        this.vertices = vertices;
+        this.normals = normals;
+        this.faceVertexOffsets = faceVertexOffsets;
+        this.faceVertices = faceVertices;
+        this.faceNormalOffsets = faceNormalOffsets;
+        this.faceNormals = faceNormals;
+        this.faceSmoothingGroups = faceSmoothingGroups;
+    }
+
+    /**
+     * Gets the number of vertices of the file.
+     *
+     * @return The number of vertices
+     */
+    public int getVertexCount() {
+        return vertices.length / 3;
+    }
+
+    /**
+     * Gets the number of normals of the file.
+     *
+     * @return The number of normals
+     */
+    public int getNormalCount() {
+        return normals.length / 3;
+    }
+
+    /**
+     * Gets the number of faces of the file.
+     *
+     * @return The number of faces
+     */
+    public int getFaceCount() {
+        return faceSmoothingGroups.length;
+    }
+
+    /**
+     * Builds the triangles of the file rotated and scaled by the given transform, with smoothed normals.
+     * Faces with four corners are split in two triangles; larger faces only keep their first triangle.
+     *
+     * @param angleX The rotation angle around the X-axis (in degrees)
+     * @param angleY The rotation angle around the Y-axis (in degrees)
+     * @param angleZ The rotation angle around the Z-axis (in degrees)
+     * @param scale  The scale factor applied to the vertices
+     * @return The triangles of the file
+     */
+    public Triangle[] buildTriangles(double angleX, double angleY, double angleZ, double scale) {
+        angleX = Math.toRadians(angleX);
+        angleY = Math.toRadians(angleY);
+        angleZ = Math.toRadians(angleZ);
+
+        Vector3D[] rotX = new Vector3D[]{ new Vector3D( 1,0,0),new Vector3D(0, Math.cos(angleX), -Math.sin(angleX)), new Vector3D(0, Math.sin(angleX), Math.cos(angleX))};
+        Vector3D[] rotY = new Vector3D[]{ new Vector3D(Math.cos(angleY), 0, Math.sin(angleY)), new Vector3D( 0,1,0),new Vector3D(-Math.sin(angleY), 0, Math.cos(angleY))};
+        Vector3D[] rotZ = new Vector3D[]{ new Vector3D(Math.cos(angleZ),  -Math.sin(angleZ), 0), new Vector3D(Math.sin(angleZ), Math.cos(angleZ), 0), new Vector3D( 0,0,1)};
+
+        Vector3D[] vertices = new Vector3D[getVertexCount()];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = Vector3D.scalarMultiplication(rotate(this.vertices, i, rotX, rotY, rotZ), scale);
+        }
+        Vector3D[] normals = new Vector3D[getNormalCount()];
+        for (int i = 0; i < normals.length; i++) {
+            normals[i] = rotate(this.normals, i, rotX, rotY, rotZ);
+        }
+
+        int faceCount = getFaceCount();
+        Triangle[] triangles = new Triangle[countTriangles()];
+        int[] triangleVertices = new int[triangles.length * 3];
+        int[] triangleGroups = new int[triangles.length];
+        int triangle = 0;
+        for (int face = 0; face < faceCount; face++) {
+            int firstVertex = faceVertexOffsets[face];
+            int vertexCount = faceVertexOffsets[face + 1] - firstVertex;
+            int firstNormal = faceNormalOffsets[face];
+            int normalCount = faceNormalOffsets[face + 1] - firstNormal;
+
+            Vector3D[] faceNormals = null;
+            if (normalCount > 0) {
+                faceNormals = new Vector3D[normalCount];
+                for (int i = 0; i < normalCount; i++) {
+                    faceNormals[i] = normals[this.faceNormals[firstNormal + i] - 1];
+                }
+            }
+
+            int[] corners = vertexCount == 4 ? new int[]{1, 0, 2, 2, 0, 3} : new int[]{1, 0, 2};
+            for (int first = 0; first < corners.length; first += 3) {
+                Vector3D[] arrangedVertices = new Vector3D[3];
+                Vector3D[] arrangedNormals = faceNormals == null ? null : new Vector3D[3];
+                for (int corner = 0; corner < 3; corner++) {
+                    int vertex = faceVertices[firstVertex + corners[first + corner]] - 1;
+                    arrangedVertices[corner] = vertices[vertex];
+                    triangleVertices[triangle * 3 + corner] = vertex;
+                    if (arrangedNormals != null) {
+                        arrangedNormals[corner] = faceNormals[corners[first + corner]];
+                    }
+                }
+                triangles[triangle] = new Triangle(arrangedVertices, arrangedNormals);
+                triangleGroups[triangle] = faceSmoothingGroups[face];
+                triangle++;
+            }
+        }
+
+        smoothNormals(triangles, triangleVertices, triangleGroups, vertices.length);
+        return triangles;
+    }
+
+    /**
+     * Counts the triangles the faces of the file are split in.
+     *
+     * @return The number of triangles
+     */
+    private int countTriangles() {
+        int count = 0;
+        for (int face = 0; face < getFaceCount(); face++) {
+            count += faceVertexOffsets[face + 1] - faceVertexOffsets[face] == 4 ? 2 : 1;
+        }
+        return count;
+    }
+
+    /**
+     * Replaces the corner normals of the triangles of every smoothing group with the average of the normals
+     * of the corners that share their vertex within the group. The normals are accumulated by vertex index in
+     * arrays reused across groups, which are visited one at a time with their triangles in file order.
+     *
+     * @param triangles        The triangles of the file
+     * @param triangleVertices The vertex index of every corner of every triangle
+     * @param triangleGroups   The smoothing group of every triangle
+     * @param vertexCount      The number of vertices of the file
+     */
+    private static void smoothNormals(Triangle[] triangles, int[] triangleVertices, int[] triangleGroups, int vertexCount) {
+        int[] order = groupOrder(triangleGroups);
+        double[] sums = new double[vertexCount * 3];
+        int[] counts = new int[vertexCount];
+
+        int start = 0;
+        while (start < order.length) {
+            int group = triangleGroups[order[start]];
+            int end = start;
+            while (end < order.length && triangleGroups[order[end]] == group) {
+                end++;
+            }
+            if (group != DEFAULT_SMOOTHING_GROUP) {
+                for (int i = start; i < end; i++) {
+                    int triangle = order[i];
+                    Vector3D[] normals = triangles[triangle].getNormals();
+                    for (int corner = 0; corner < 3; corner++) {
+                        int vertex = triangleVertices[triangle * 3 + corner];
+                        sums[vertex * 3] += normals[corner].getX();
+                        sums[vertex * 3 + 1] += normals[corner].getY();
+                        sums[vertex * 3 + 2] += normals[corner].getZ();
+                        counts[vertex]++;
+                    }
+                }
+                for (int i = start; i < end; i++) {
+                    int triangle = order[i];
+                    Vector3D[] normals = new Vector3D[3];
+                    for (int corner = 0; corner < 3; corner++) {
+                        int vertex = triangleVertices[triangle * 3 + corner];
+                        double inverseCount = 1.0 / (double) counts[vertex];
+                        normals[corner] = new Vector3D(sums[vertex * 3] * inverseCount,
+                                sums[vertex * 3 + 1] * inverseCount, sums[vertex * 3 + 2] * inverseCount);
+                    }
+                    triangles[triangle].setNormals(normals[0], normals[1], normals[2]);
+                }
+                for (int i = start; i < end; i++) {
+                    for (int corner = 0; corner < 3; corner++) {
+                        int vertex = triangleVertices[order[i] * 3 + corner];
+                        sums[vertex * 3] = 0;
+                        sums[vertex * 3 + 1] = 0;
+                        sums[vertex * 3 + 2] = 0;
+                        counts[vertex] = 0;
+                    }
+                }
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Sorts the triangles by smoothing group, keeping the file order of the triangles within every group.
+     *
+     * @param triangleGroups The smoothing group of every triangle
+     * @return The triangle indices grouped by smoothing group
+     */
+    private static int[] groupOrder(int[] triangleGroups) {
+        int[] groups = triangleGroups.clone();
+        Arrays.sort(groups);
+        int distinct = 0;
+        for (int i = 0; i < groups.length; i++) {
+            if (i == 0 || groups[i] != groups[i - 1]) {
+                groups[distinct++] = groups[i];
+            }
+        }
+        int[] starts = new int[distinct + 1];
+        for (int group : triangleGroups) {
+            starts[Arrays.binarySearch(groups, 0, distinct, group) + 1]++;
+        }
+        for (int i = 0; i < distinct; i++) {
+            starts[i + 1] += starts[i];
+        }
+        int[] order = new int[triangleGroups.length];
+        for (int triangle = 0; triangle < triangleGroups.length; triangle++) {
+            order[starts[Arrays.binarySearch(groups, 0, distinct, triangleGroups[triangle])]++] = triangle;
+        }
+        return order;
+    }
+
+    /**
+     * Rotates a vector around the X, Y and Z axes, in that order.
+     *
+     * @param components The components of the vectors, three per vector
+     * @param index      The index of the vector to rotate
+     * @param rotX       The rows of the rotation matrix around the X-axis
+     * @param rotY       The rows of the rotation matrix around the Y-axis
+     * @param rotZ       The rows of the rotation matrix around the Z-axis
+     * @return The rotated vector
+     */
+    private static Vector3D rotate(double[] components, int index, Vector3D[] rotX, Vector3D[] rotY, Vector3D[] rotZ) {
+        Vector3D vec = new Vector3D(components[index * 3], components[index * 3 + 1], components[index * 3 + 2]);
+        double[] result = new double[]{0, 0, 0};
+
+        for (int i = 0; i < 3; i++) {
+            result[i] = Vector3D.dotProduct(rotX[i], vec);
+        }
+        vec = new Vector3D(result[0], result[1], result[2]);
+        for (int i = 0; i < 3; i++) {
+            result[i] = Vector3D.dotProduct(rotY[i], vec);
+        }
+        vec = new Vector3D(result[0], result[1], result[2]);
+        for (int i = 0; i < 3; i++) {
+            result[i] = Vector3D.dotProduct(rotZ[i], vec);
+        }
+        return new Vector3D(result[0], result[1], result[2]);
+    }
+}
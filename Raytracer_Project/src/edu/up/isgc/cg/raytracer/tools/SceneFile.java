@@ -0,0 +1,262 @@
+package edu.up.isgc.cg.raytracer.tools;
+
+import edu.up.isgc.cg.raytracer.Scene;
+import edu.up.isgc.cg.raytracer.Vector3D;
+import edu.up.isgc.cg.raytracer.lights.DirectionalLight;
+import edu.up.isgc.cg.raytracer.lights.PointLight;
+import edu.up.isgc.cg.raytracer.lights.SpotLight;
+import edu.up.isgc.cg.raytracer.objects.Camera;
+import edu.up.isgc.cg.raytracer.objects.Model3D;
+import edu.up.isgc.cg.raytracer.objects.Sphere;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Scene described by a text file, so it can be shipped to other processes and rebuilt there.
+ * Every line holds a command followed by its arguments separated by whitespace; blank lines and lines starting
+ * with {@code #} are ignored. Colors are written as {@code #RRGGBB} and angles in degrees:
+ * <pre>
+ * camera x y z fovH fovV width height near far
+ * directional dx dy dz color intensity
+ * point x y z color intensity
+ * spot x y z dx dy dz color intensity angle
+ * sphere x y z radius color shininess reflectivity refraction
+ * model path x y z color shininess reflectivity refraction [angleX angleY angleZ] [scale]
+ * </pre>
+ * Relative model paths are resolved against the directory of the scene file.
+ * The file is checked when it is read, but models are only loaded when the scene is built.
+ */
+public class SceneFile {
+    private final String text;
+    private final File directory;
+    private final List<Command> commands = new ArrayList<>();
+    private final Command camera;
+
+    /**
+     * Parses the text of a scene file whose relative model paths are resolved against the working directory.
+     *
+     * @param text The text of the file
+     * @throws IllegalArgumentException If a line is malformed or the file has no camera or more than one
+     */
+    public SceneFile(String text) {
+        this(text, null);
+    }
+
+    /**
+     * Parses the text of a scene file.
+     *
+     * @param text      The text of the file
+     * @param directory The directory relative model paths are resolved against, or null for the working directory
+     * @throws IllegalArgumentException If a line is malformed or the file has no camera or more than one
+     */
+    public SceneFile(String text, File directory) {
+        this.text = text;
+        this.directory = directory;
+        Command camera = null;
+        String[] lines = text.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Command command = new Command(i + 1, line.split("\\s+"));
+            if (command.name.equals("camera")) {
+                if (camera != null) {
+                    throw new IllegalArgumentException("Line " + command.line + ": the scene already has a camera");
+                }
+                camera = command;
+            }
+            commands.add(command);
+        }
+        if (camera == null) {
+            throw new IllegalArgumentException("The scene has no camera");
+        }
+        this.camera = camera;
+    }
+
+    /**
+     * Reads a scene file.
+     *
+     * @param file The file to read
+     * @return The parsed scene file
+     * @throws IOException If the file cannot be read
+     */
+    public static SceneFile read(File file) throws IOException {
+        return new SceneFile(Files.readString(file.toPath(), StandardCharsets.UTF_8), file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Gets the text of the file.
+     *
+     * @return The text of the file
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Gets the paths of the OBJ files of the models, as written in the file and without duplicates.
+     *
+     * @return The paths of the models, in the order they first appear
+     */
+    public List<String> getModelPaths() {
+        Set<String> paths = new LinkedHashSet<>();
+        for (Command command : commands) {
+            if (command.path != null) {
+                paths.add(command.path);
+            }
+        }
+        return new ArrayList<>(paths);
+    }
+
+    /**
+     * Gets the OBJ file a model path of the file refers to.
+     *
+     * @param path The path as written in the file
+     * @return The file, resolved against the directory of the scene file if the path is relative
+     */
+    public File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() || directory == null ? file : new File(directory, path);
+    }
+
+    /**
+     * Creates the camera of the scene, without loading any model.
+     *
+     * @return The camera of the scene
+     */
+    public Camera createCamera() {
+        double[] v = camera.values;
+        return new Camera(new Vector3D(v[0], v[1], v[2]), v[3], v[4], (int) v[5], (int) v[6], v[7], v[8]);
+    }
+
+    /**
+     * Builds the scene, loading the models from the paths written in the file.
+     *
+     * @return The scene
+     * @throws IllegalArgumentException If a model cannot be loaded
+     */
+    public Scene build() {
+        return build(this::resolve);
+    }
+
+    /**
+     * Builds the scene, loading every model from the file the given function maps its path to.
+     *
+     * @param resolver The function mapping the paths written in the file to the OBJ files to load
+     * @return The scene
+     * @throws IllegalArgumentException If a model cannot be loaded
+     */
+    public Scene build(Function<String, File> resolver) {
+        Scene scene = new Scene();
+        for (Command command : commands) {
+            double[] v = command.values;
+            switch (command.name) {
+                case "camera":
+                    scene.setCamera(createCamera());
+                    break;
+                case "directional":
+                    scene.addLight(new DirectionalLight(new Vector3D(v[0], v[1], v[2]), command.color, v[3]));
+                    break;
+                case "point":
+                    scene.addLight(new PointLight(new Vector3D(v[0], v[1], v[2]), command.color, v[3]));
+                    break;
+                case "spot":
+                    scene.addLight(new SpotLight(new Vector3D(v[0], v[1], v[2]), new Vector3D(v[3], v[4], v[5]),
+                            command.color, v[6], v[7]));
+                    break;
+                case "sphere":
+                    scene.addObject(new Sphere(new Vector3D(v[0], v[1], v[2]), v[3], command.color, v[4], v[5], v[6]));
+                    break;
+                case "model":
+                    boolean rotated = v.length >= 9;
+                    Model3D model = OBJReader.getModel3D(resolver.apply(command.path).getPath(),
+                            new Vector3D(v[0], v[1], v[2]), command.color, v[3], v[4], v[5],
+                            rotated ? v[6] : 0, rotated ? v[7] : 0, rotated ? v[8] : 0,
+                            v.length % 3 == 1 ? v[v.length - 1] : 1);
+                    if (model == null) {
+                        throw new IllegalArgumentException("Line " + command.line + ": cannot load model " + command.path);
+                    }
+                    scene.addObject(model);
+                    break;
+            }
+        }
+        return scene;
+    }
+
+    /**
+     * Line of a scene file, with its numbers, color and path parsed according to the layout of its command.
+     */
+    private static class Command {
+        private final int line;
+        private final String name;
+        private final double[] values;
+        private final Color color;
+        private final String path;
+
+        private Command(int line, String[] tokens) {
+            this.line = line;
+            this.name = tokens[0];
+            int count = tokens.length - 1;
+            String layout;
+            switch (name) {
+                case "camera":
+                    layout = "nnnnnnnnn";
+                    break;
+                case "directional":
+                case "point":
+                    layout = "nnncn";
+                    break;
+                case "spot":
+                    layout = "nnnnnncnn";
+                    break;
+                case "sphere":
+                    layout = "nnnncnnn";
+                    break;
+                case "model":
+                    layout = "pnnncnnn" + (count >= 11 ? "nnn" : "") + (count == 9 || count == 12 ? "n" : "");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Line " + line + ": unknown command " + name);
+            }
+            if (count != layout.length()) {
+                throw new IllegalArgumentException("Line " + line + ": " + name + " takes "
+                        + (name.equals("model") ? "8, 9, 11 or 12" : String.valueOf(layout.length())) + " arguments, got " + count);
+            }
+
+            List<Double> numbers = new ArrayList<>();
+            Color color = null;
+            String path = null;
+            for (int i = 0; i < count; i++) {
+                String token = tokens[i + 1];
+                try {
+                    switch (layout.charAt(i)) {
+                        case 'c':
+                            color = Color.decode(token);
+                            break;
+                        case 'p':
+                            path = token;
+                            break;
+                        default:
+                            numbers.add(Double.parseDouble(token));
+                            break;
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Line " + line + ": malformed argument " + token, e);
+                }
+            }
+            this.values = numbers.stream().mapToDouble(Double::doubleValue).toArray();
+            this.color = color;
+            this.path = path;
+        }
+    }
+}